@@ -262,6 +262,23 @@ public class OntologizerCMD
 				}
 			}
 
+			if (cmd.hasOption(OntologizerOptions.RESAMPLING_CACHE))
+				arguments.resamplingCacheDirectory = cmd.getOptionValue(OntologizerOptions.RESAMPLING_CACHE);
+
+			if (cmd.hasOption(OntologizerOptions.THREADS))
+			{
+				try
+				{
+					int threads = Integer.parseInt(cmd.getOptionValue(OntologizerOptions.THREADS));
+					if (threads < 1) throw new Exception();
+					arguments.numberOfThreads = threads;
+				} catch (Exception e)
+				{
+					System.err.println("The --" + OntologizerOptions.THREADS + " argument needs to be a positive integer.");
+					System.exit(-1);
+				}
+			}
+
 			/* Evaluate the dot option */
 			boolean createDOTFile = cmd.hasOption('d');
 			double alpha = 0.05;
@@ -314,6 +331,11 @@ public class OntologizerCMD
 			/* Now issue the calculation */
 			OntologizerCore controller = new OntologizerCore(arguments);
 
+			/* Evaluate all studies at once if threads were requested, the results are then returned
+			 * by calculateNextStudy() */
+			if (arguments.numberOfThreads > 0)
+				controller.calculate();
+
 			EnrichedGOTermsResult studySetResult;
 
 			while ((studySetResult = controller.calculateNextStudy()) != null)
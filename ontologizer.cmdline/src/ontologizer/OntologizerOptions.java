@@ -16,6 +16,8 @@ public class OntologizerOptions
 	public static final String MCMC_STEPS = "mcmcSteps";
 	public static final String MAX_ALPHA = "maxAlpha";
 	public static final String MAX_BETA = "maxBeta";
+	public static final String RESAMPLING_CACHE = "resamplingCache";
+	public static final String THREADS = "threads";
 
 	public Options options()
 	{
@@ -113,7 +115,11 @@ public class OntologizerOptions
 			options.addOption(new Option("r","resamplingsteps", true, "Specifies the number of steps used in resampling based MTCs"));
 			options.addOption(new Option("t","sizetolerance", true, "Specifies the percentage at which the actual study set size and " +
 					"the size of the resampled study sets are allowed to differ"));
+			options.addOption(Option.builder().longOpt(RESAMPLING_CACHE).argName("dir").hasArg(true).desc("Specifies a directory in which the samples of resampling based MTCs " +
+					"are cached, so that subsequent runs on the same data can reuse them.").build());
 		}
+		options.addOption(Option.builder().longOpt(THREADS).argName("threads").hasArg(true).desc("Number of threads used to evaluate the study sets concurrently, " +
+				"or the terms of a single study set. The population is then prepared only once for all study sets.").build());
 		options.addOption(new Option("v","version",false,"Shows version information and exits"));
 
 		OntologizerOptions opts = new OntologizerOptions();
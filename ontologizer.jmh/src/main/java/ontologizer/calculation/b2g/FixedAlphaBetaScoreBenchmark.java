@@ -0,0 +1,94 @@
+package ontologizer.calculation.b2g;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the evaluation of the score of the MGSA model per step. The
+ * logScore benchmark evaluates the score via logarithms of the current
+ * parameters as it was done before the logarithms were tabulated. The
+ * stepAndRecord benchmark includes the recording of the state after each
+ * step.
+ */
+@State(Scope.Thread)
+public class FixedAlphaBetaScoreBenchmark
+{
+	private FixedAlphaBetaScore score;
+	private Random rnd;
+	private MCMCChain chain;
+
+	/* Counts for the logScore benchmark */
+	private int n00 = 4900, n01 = 10, n10 = 20, n11 = 70, numActive = 5;
+
+	@Setup
+	public void setup()
+	{
+		/* 1000 terms with 20 items each out of 5000 items */
+		int numItems = 5000;
+		Random termRnd = new Random(2);
+		int [][] term2Items = new int[1000][20];
+		for (int i = 0; i < term2Items.length; i++)
+			for (int j = 0; j < term2Items[i].length; j++)
+				term2Items[i][j] = termRnd.nextInt(numItems);
+
+		boolean [] observedItems = new boolean[numItems];
+		for (int j = 0; j < term2Items[0].length; j++)
+			observedItems[term2Items[0][j]] = true;
+
+		rnd = new Random(1);
+		score = new FixedAlphaBetaScore(rnd, term2Items, observedItems);
+		score.setAlpha(Double.NaN);
+		score.setBeta(Double.NaN);
+		score.setExpectedNumberOfTerms(Double.NaN);
+		chain = new MCMCChain(score, rnd);
+	}
+
+	@Benchmark
+	@Warmup(iterations=5)
+	@Fork(value=1)
+	@Measurement(time=2,timeUnit=TimeUnit.SECONDS)
+	public double tabulatedScore()
+	{
+		return score.getScore();
+	}
+
+	@Benchmark
+	@Warmup(iterations=5)
+	@Fork(value=1)
+	@Measurement(time=2,timeUnit=TimeUnit.SECONDS)
+	public double logScore()
+	{
+		double alpha = score.getAlpha();
+		double beta = score.getBeta();
+		double p = score.getP();
+		return Math.log(alpha) * n10 + Math.log(1-alpha)*n00 + Math.log(1-beta)*n11 + Math.log(beta)*n01 +
+			Math.log(p)*numActive + Math.log(1-p)*(1000 - numActive);
+	}
+
+	@Benchmark
+	@Warmup(iterations=5)
+	@Fork(value=1)
+	@Measurement(time=2,timeUnit=TimeUnit.SECONDS)
+	public void step()
+	{
+		chain.step();
+	}
+
+	@Benchmark
+	@Warmup(iterations=5)
+	@Fork(value=1)
+	@Measurement(time=2,timeUnit=TimeUnit.SECONDS)
+	public void stepAndRecord()
+	{
+		chain.step();
+		score.record();
+	}
+}
@@ -0,0 +1,77 @@
+package ontologizer.calculation.b2g;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the random sources that can drive the MCMC chains, both
+ * in isolation and within the steps of a chain.
+ */
+@State(Scope.Thread)
+public class RandomSourceBenchmark
+{
+	@Param({"JAVA_UTIL", "XOROSHIRO"})
+	public String source;
+
+	private Random rnd;
+	private MCMCChain chain;
+
+	@Setup
+	public void setup()
+	{
+		Bayes2GOCalculation.RandomSource randomSource = Bayes2GOCalculation.RandomSource.valueOf(source);
+		rnd = randomSource.createChainRandoms(1, 1)[0];
+
+		/* 1000 terms with 20 items each out of 5000 items */
+		int numItems = 5000;
+		Random termRnd = new Random(2);
+		int [][] term2Items = new int[1000][20];
+		for (int i = 0; i < term2Items.length; i++)
+			for (int j = 0; j < term2Items[i].length; j++)
+				term2Items[i][j] = termRnd.nextInt(numItems);
+
+		boolean [] observedItems = new boolean[numItems];
+		for (int j = 0; j < term2Items[0].length; j++)
+			observedItems[term2Items[0][j]] = true;
+
+		FixedAlphaBetaScore score = new FixedAlphaBetaScore(rnd, term2Items, observedItems);
+		score.setAlpha(Double.NaN);
+		score.setBeta(Double.NaN);
+		score.setExpectedNumberOfTerms(Double.NaN);
+		chain = new MCMCChain(score, rnd);
+	}
+
+	@Benchmark
+	@Warmup(iterations=5)
+	@Fork(value=1)
+	@Measurement(time=2,timeUnit=TimeUnit.SECONDS)
+	public double random()
+	{
+		double sum = 0;
+		for (int i = 0; i < 1000; i++)
+		{
+			sum += rnd.nextLong();
+			sum += rnd.nextDouble();
+			if (rnd.nextBoolean()) sum++;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@Warmup(iterations=5)
+	@Fork(value=1)
+	@Measurement(time=2,timeUnit=TimeUnit.SECONDS)
+	public void chainSteps()
+	{
+		chain.run(1000, Integer.MAX_VALUE);
+	}
+}
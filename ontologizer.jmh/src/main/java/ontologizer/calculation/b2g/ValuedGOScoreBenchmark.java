@@ -0,0 +1,75 @@
+package ontologizer.calculation.b2g;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a step of the valued MGSA model with a step of the thresholded
+ * model on the same terms.
+ */
+@State(Scope.Thread)
+public class ValuedGOScoreBenchmark
+{
+	private MCMCChain valuedChain;
+	private MCMCChain thresholdedChain;
+
+	@Setup
+	public void setup()
+	{
+		/* 1000 terms with 20 items each out of 5000 items */
+		int numItems = 5000;
+		Random termRnd = new Random(2);
+		int [][] term2Items = new int[1000][20];
+		for (int i = 0; i < term2Items.length; i++)
+			for (int j = 0; j < term2Items[i].length; j++)
+				term2Items[i][j] = termRnd.nextInt(numItems);
+
+		double [] itemValues = new double[numItems];
+		for (int i = 0; i < numItems; i++)
+			itemValues[i] = termRnd.nextDouble();
+		for (int j = 0; j < term2Items[0].length; j++)
+			itemValues[term2Items[0][j]] = termRnd.nextDouble() * 0.001;
+
+		boolean [] observedItems = new boolean[numItems];
+		for (int i = 0; i < numItems; i++)
+			observedItems[i] = itemValues[i] < 0.05;
+
+		Random rnd = new Random(1);
+		ValuedGOScore valuedScore = new ValuedGOScore(rnd, term2Items, itemValues, ValuedGOScore.DEFAULT_SHAPE);
+		valuedScore.setExpectedNumberOfTerms(1);
+		valuedChain = new MCMCChain(valuedScore, rnd);
+
+		rnd = new Random(1);
+		FixedAlphaBetaScore score = new FixedAlphaBetaScore(rnd, term2Items, observedItems);
+		score.setAlpha(Double.NaN);
+		score.setBeta(Double.NaN);
+		score.setExpectedNumberOfTerms(Double.NaN);
+		thresholdedChain = new MCMCChain(score, rnd);
+	}
+
+	@Benchmark
+	@Warmup(iterations=5)
+	@Fork(value=1)
+	@Measurement(time=2,timeUnit=TimeUnit.SECONDS)
+	public boolean valuedStep()
+	{
+		return valuedChain.step();
+	}
+
+	@Benchmark
+	@Warmup(iterations=5)
+	@Fork(value=1)
+	@Measurement(time=2,timeUnit=TimeUnit.SECONDS)
+	public boolean thresholdedStep()
+	{
+		return thresholdedChain.step();
+	}
+}
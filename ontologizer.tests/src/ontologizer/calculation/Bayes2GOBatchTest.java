@@ -0,0 +1,97 @@
+package ontologizer.calculation;
+
+import static ontologizer.calculation.CalculationTestUtils.createDisjointTerm2Items;
+import static ontologizer.calculation.CalculationTestUtils.setupCalculation;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ontologizer.calculation.b2g.B2GParam;
+import ontologizer.calculation.b2g.Bayes2GOCalculation;
+
+public class Bayes2GOBatchTest
+{
+	@Test
+	public void testBatch()
+	{
+		/* 30 terms with ten items each, study set i consists of the items of term i */
+		int [][] term2Items = createDisjointTerm2Items(30);
+		int [][] studyIds = new int[6][];
+		for (int i = 0; i < studyIds.length; i++)
+			studyIds[i] = term2Items[i].clone();
+
+		Bayes2GOCalculation calc = setupCalculation(new Bayes2GOCalculation(), 1, 30000, B2GParam.Type.MCMC);
+		calc.setExpectedNumber(1);
+
+		final int [] progress = new int[2];
+		calc.setProgress(new ICalculationProgress()
+		{
+			@Override
+			public void init(int max)
+			{
+				progress[0] = max;
+			}
+
+			@Override
+			public void update(int current)
+			{
+				progress[1] = Math.max(progress[1], current);
+			}
+		});
+
+		double [][] marginals = calc.calculate(term2Items, studyIds, 300, 3);
+		assertEquals(studyIds.length, marginals.length);
+		assertEquals(studyIds.length, progress[0]);
+		assertEquals(studyIds.length, progress[1]);
+
+		for (int i = 0; i < studyIds.length; i++)
+		{
+			assertTrue(marginals[i][i] > 0.9);
+
+			/* Each row is the same as the result of a single calculation */
+			calc.setProgress(null);
+			assertArrayEquals(calc.calculate(term2Items, studyIds[i], 300), marginals[i], 0);
+		}
+	}
+
+	@Test
+	public void testStop()
+	{
+		int [][] term2Items = createDisjointTerm2Items(30);
+		int [][] studyIds = new int[6][];
+		for (int i = 0; i < studyIds.length; i++)
+			studyIds[i] = term2Items[i].clone();
+
+		final Bayes2GOCalculation calc = setupCalculation(new Bayes2GOCalculation(), 1, 30000, B2GParam.Type.MCMC);
+		calc.setExpectedNumber(1);
+		calc.setProgress(new ICalculationProgress()
+		{
+			@Override
+			public void init(int max)
+			{
+			}
+
+			@Override
+			public void update(int current)
+			{
+				calc.stop();
+			}
+		});
+
+		/* With a single thread, the study sets after the first one are skipped */
+		double [][] marginals = calc.calculate(term2Items, studyIds, 300, 1);
+		assertNotNull(marginals[0]);
+		for (int i = 1; i < studyIds.length; i++)
+			assertNull(marginals[i]);
+
+		/* The stop request doesn't affect the next batch */
+		calc.setProgress(null);
+		marginals = calc.calculate(term2Items, studyIds, 300, 1);
+		for (int i = 0; i < studyIds.length; i++)
+			assertNotNull(marginals[i]);
+	}
+}
@@ -1,8 +1,12 @@
 package ontologizer.calculation;
 
+import static ontologizer.calculation.CalculationTestUtils.createDisjointTerm2Items;
+import static ontologizer.calculation.CalculationTestUtils.setupCalculation;
 import static ontologizer.ontology.TermID.tid;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.HashMap;
@@ -159,6 +163,34 @@ public class Bayes2GOCalculationTest
 		assertEquals(0, marg(result, "GO:0000002"), 1e-5);
 	}
 
+	private static double [] calculateWithXoroshiro(int numberOfChains)
+	{
+		/* Ten terms with ten items each, the study consists of the items of the first term */
+		int [][] term2Items = createDisjointTerm2Items(10);
+		int [] studyIds = term2Items[0].clone();
+
+		Bayes2GOCalculation calc = setupCalculation(new Bayes2GOCalculation(), 1, 200000, B2GParam.Type.MCMC);
+		calc.setExpectedNumber(1);
+		calc.setNumberOfChains(numberOfChains);
+		calc.setRandomSource(Bayes2GOCalculation.RandomSource.XOROSHIRO);
+		return calc.calculate(term2Items, studyIds, 100);
+	}
+
+	@Test
+	public void testXoroshiroRandomSource()
+	{
+		double [] single = calculateWithXoroshiro(1);
+		double [] multi = calculateWithXoroshiro(4);
+
+		assertTrue(single[0] > 0.9);
+		assertTrue(multi[0] > 0.9);
+		for (int i = 1; i < multi.length; i++)
+			assertTrue(multi[i] < 0.1);
+
+		/* Results are reproducible */
+		assertArrayEquals(multi, calculateWithXoroshiro(4), 0);
+	}
+
 	/* Disabled test @Test */
 	public void testValuedGOScore()
 	{
@@ -0,0 +1,115 @@
+package ontologizer.calculation;
+
+import static ontologizer.calculation.CalculationTestUtils.createDisjointTerm2Items;
+import static ontologizer.calculation.CalculationTestUtils.setupCalculation;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import ontologizer.calculation.b2g.B2GParam;
+import ontologizer.calculation.b2g.Bayes2GOCalculation;
+import ontologizer.calculation.b2g.Bayes2GOCalculation.Bayes2GOCalculationProgress;
+
+public class Bayes2GOCheckpointTest
+{
+	private static final int STEPS = 50000;
+	private static final int INTERRUPT_STEP = 30000;
+	private static final int CHECKPOINT_INTERVAL = 7000;
+
+	/** Thrown to simulate an interruption of the calculation */
+	private static class Interrupted extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+	}
+
+	/** Records the scores and the number of accepts of each step */
+	private static class Trace implements Bayes2GOCalculationProgress
+	{
+		double [] scores = new double[STEPS];
+		int [] numAccepts = new int[STEPS];
+		int interruptStep = -1;
+
+		@Override
+		public void update(int iterationNumber, int step, double acceptProb, int numAccept, double score)
+		{
+			if (step == interruptStep) throw new Interrupted();
+			scores[step] = score;
+			numAccepts[step] = numAccept;
+		}
+	}
+
+	/** The study consists of the items of the first term and some noise */
+	private static final int [] STUDY_IDS = new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 15, 27};
+
+	private static Bayes2GOCalculation createCalculation(Bayes2GOCalculation.RandomSource randomSource, Trace trace)
+	{
+		Bayes2GOCalculation calc = setupCalculation(new Bayes2GOCalculation(), 3, STEPS, B2GParam.Type.MCMC);
+		calc.setBurnin(1000);
+		calc.setThinning(3);
+		calc.setExpectedNumber(B2GParam.Type.MCMC);
+		calc.setRandomSource(randomSource);
+		calc.setBayes2GOCalculationProgress(trace);
+		return calc;
+	}
+
+	private static void checkResume(Bayes2GOCalculation.RandomSource randomSource) throws IOException
+	{
+		int [][] term2Items = createDisjointTerm2Items(50);
+
+		Trace expectedTrace = new Trace();
+		double [] expected = createCalculation(randomSource, expectedTrace).calculate(term2Items, STUDY_IDS, 500);
+
+		File checkpoint = File.createTempFile("mgsa", ".checkpoint");
+		checkpoint.delete();
+		checkpoint.deleteOnExit();
+
+		Trace interruptedTrace = new Trace();
+		interruptedTrace.interruptStep = INTERRUPT_STEP;
+		Bayes2GOCalculation calc = createCalculation(randomSource, interruptedTrace);
+		calc.setCheckpointFile(checkpoint);
+		calc.setCheckpointInterval(CHECKPOINT_INTERVAL);
+		try
+		{
+			calc.calculate(term2Items, STUDY_IDS, 500);
+			fail("Calculation was not interrupted");
+		} catch (Interrupted e)
+		{
+		}
+		assertTrue(checkpoint.exists());
+
+		Trace resumedTrace = new Trace();
+		calc = createCalculation(randomSource, resumedTrace);
+		calc.setCheckpointFile(checkpoint);
+		calc.setCheckpointInterval(CHECKPOINT_INTERVAL);
+		double [] resumed = calc.calculate(term2Items, STUDY_IDS, 500);
+
+		/* The resumed calculation continues after the last checkpoint exactly as the uninterrupted one */
+		int resumedStep = INTERRUPT_STEP / CHECKPOINT_INTERVAL * CHECKPOINT_INTERVAL;
+		for (int t = resumedStep; t < STEPS; t++)
+		{
+			assertEquals(expectedTrace.scores[t], resumedTrace.scores[t], 0);
+			assertEquals(expectedTrace.numAccepts[t], resumedTrace.numAccepts[t]);
+		}
+		assertArrayEquals(expected, resumed, 0);
+		assertFalse(checkpoint.exists());
+	}
+
+	@Test
+	public void testResume() throws IOException
+	{
+		checkResume(Bayes2GOCalculation.RandomSource.JAVA_UTIL);
+	}
+
+	@Test
+	public void testResumeWithXoroshiro() throws IOException
+	{
+		checkResume(Bayes2GOCalculation.RandomSource.XOROSHIRO);
+	}
+}
@@ -0,0 +1,56 @@
+package ontologizer.calculation;
+
+import static ontologizer.calculation.CalculationTestUtils.createDisjointTerm2Items;
+import static ontologizer.calculation.CalculationTestUtils.setupCalculation;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ontologizer.calculation.b2g.B2GParam;
+import ontologizer.calculation.b2g.Bayes2GOCalculation;
+
+public class Bayes2GOEMTest
+{
+	private static double [] calculate(boolean warmStart, int numberOfChains)
+	{
+		/* 50 terms with ten items each, the study consists of the items of the first term */
+		int [][] term2Items = createDisjointTerm2Items(50);
+		int [] studyIds = term2Items[0].clone();
+
+		Bayes2GOCalculation calc = setupCalculation(new Bayes2GOCalculation(), 1, 30000, B2GParam.Type.EM);
+		calc.setExpectedNumber(B2GParam.Type.EM);
+		calc.setEMWarmStart(warmStart);
+		calc.setNumberOfChains(numberOfChains);
+		return calc.calculate(term2Items, studyIds, 500);
+	}
+
+	private static void checkMarginals(double [] marg)
+	{
+		assertTrue(marg[0] > 0.9);
+		for (int i = 1; i < marg.length; i++)
+			assertTrue(marg[i] < 0.1);
+	}
+
+	@Test
+	public void testColdStart()
+	{
+		checkMarginals(calculate(false, 1));
+	}
+
+	@Test
+	public void testWarmStart()
+	{
+		double [] marg = calculate(true, 1);
+		checkMarginals(marg);
+		assertArrayEquals(marg, calculate(true, 1), 0);
+	}
+
+	@Test
+	public void testWarmStartWithMultipleChains()
+	{
+		double [] marg = calculate(true, 3);
+		checkMarginals(marg);
+		assertArrayEquals(marg, calculate(true, 3), 0);
+	}
+}
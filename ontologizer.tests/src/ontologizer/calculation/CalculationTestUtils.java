@@ -8,6 +8,8 @@ import java.util.HashMap;
 import java.util.Random;
 
 import ontologizer.association.AssociationContainer;
+import ontologizer.calculation.b2g.B2GParam;
+import ontologizer.calculation.b2g.Bayes2GOCalculation;
 import ontologizer.internal.InternalOntology;
 import ontologizer.ontology.Ontology;
 import ontologizer.ontology.Term;
@@ -99,6 +101,55 @@ public class CalculationTestUtils
 		return r[0];
 	}
 
+	/**
+	 * Creates disjoint terms with ten items each, i.e., term i is annotated
+	 * to the items i * 10 to i * 10 + 9.
+	 *
+	 * @param numberOfTerms the number of terms
+	 * @return the items of each term
+	 */
+	public static int [][] createDisjointTerm2Items(int numberOfTerms)
+	{
+		int [][] term2Items = new int[numberOfTerms][10];
+		for (int i = 0; i < term2Items.length; i++)
+			for (int j = 0; j < 10; j++)
+				term2Items[i][j] = i * 10 + j;
+		return term2Items;
+	}
+
+	/**
+	 * Sets the seed and the number of steps of the given MGSA calculation.
+	 *
+	 * @param calc the calculation
+	 * @param seed the seed
+	 * @param mcmcSteps the number of steps
+	 * @return calc
+	 */
+	public static <T extends Bayes2GOCalculation> T setupCalculation(T calc, long seed, int mcmcSteps)
+	{
+		calc.setSeed(seed);
+		calc.setMcmcSteps(mcmcSteps);
+		return calc;
+	}
+
+	/**
+	 * Sets the seed and the number of steps of the given MGSA calculation
+	 * and how alpha and beta are determined.
+	 *
+	 * @param calc the calculation
+	 * @param seed the seed
+	 * @param mcmcSteps the number of steps
+	 * @param alphaBeta the type of alpha and beta
+	 * @return calc
+	 */
+	public static <T extends Bayes2GOCalculation> T setupCalculation(T calc, long seed, int mcmcSteps, B2GParam.Type alphaBeta)
+	{
+		setupCalculation(calc, seed, mcmcSteps);
+		calc.setAlpha(alphaBeta);
+		calc.setBeta(alphaBeta);
+		return calc;
+	}
+
 	public static void assertResultEquals(Expected[] expected, Class<?> expectedPropClass, EnrichedGOTermsResult r)
 	{
 		assertEquals(expected.length, r.getSize());
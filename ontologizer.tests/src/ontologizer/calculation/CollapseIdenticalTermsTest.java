@@ -0,0 +1,45 @@
+package ontologizer.calculation;
+
+import static ontologizer.calculation.CalculationTestUtils.createDisjointTerm2Items;
+import static ontologizer.calculation.CalculationTestUtils.setupCalculation;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ontologizer.calculation.b2g.B2GParam;
+import ontologizer.calculation.b2g.Bayes2GOCalculation;
+
+public class CollapseIdenticalTermsTest
+{
+	@Test
+	public void testCollapse()
+	{
+		/* 20 distinct terms with ten items each, each of them is duplicated
+		 * with the items in reverse order */
+		int [][] distinctTerm2Items = createDisjointTerm2Items(20);
+		int [][] term2Items = new int[40][10];
+		for (int i = 0; i < 20; i++)
+		{
+			for (int j = 0; j < 10; j++)
+			{
+				term2Items[i][j] = distinctTerm2Items[i][j];
+				term2Items[i + 20][9 - j] = distinctTerm2Items[i][j];
+			}
+		}
+		int [] studyIds = term2Items[0].clone();
+
+		Bayes2GOCalculation calc = setupCalculation(new Bayes2GOCalculation(), 1, 100000, B2GParam.Type.MCMC);
+		calc.setExpectedNumber(1);
+		calc.setCollapseIdenticalTerms(true);
+		double [] marg = calc.calculate(term2Items, studyIds, 200);
+
+		assertEquals(term2Items.length, marg.length);
+		assertTrue(marg[0] > 0.9);
+		for (int i = 0; i < 20; i++)
+		{
+			assertEquals(marg[i], marg[i + 20], 0);
+			if (i > 0) assertTrue(marg[i] < 0.1);
+		}
+	}
+}
@@ -3,6 +3,7 @@ package ontologizer.calculation;
 import static ontologizer.calculation.CalculationTestUtils.asList;
 import static ontologizer.ontology.TermID.tid;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Random;
 
@@ -103,4 +104,125 @@ public class FixedAlphaBetaScoreTest
 		Assert.assertEquals(expectedMax, foundMax, 1e-10);
 	}
 
+	/**
+	 * Calculates the score from the counts directly.
+	 */
+	private static double directScore(FixedAlphaBetaScore fabs, boolean [] observed, int [][] termLinks)
+	{
+		boolean [] hidden = new boolean[observed.length];
+		int [] active = fabs.getActiveTerms();
+		for (int t : active)
+			for (int g : termLinks[t])
+				hidden[g] = true;
+
+		int n00 = 0, n01 = 0, n10 = 0, n11 = 0;
+		for (int g = 0; g < observed.length; g++)
+		{
+			if (observed[g])
+			{
+				if (hidden[g]) n11++;
+				else n10++;
+			} else
+			{
+				if (hidden[g]) n01++;
+				else n00++;
+			}
+		}
+
+		double alpha = fabs.getAlpha();
+		double beta = fabs.getBeta();
+		double p = fabs.getP();
+		return Math.log(alpha) * n10 + Math.log(1-alpha)*n00 + Math.log(1-beta)*n11 + Math.log(beta)*n01 +
+			Math.log(p)*active.length + Math.log(1-p)*(termLinks.length - active.length);
+	}
+
+	@Test
+	public void testTabulatedScore()
+	{
+		Random rnd = new Random(3);
+		int numGenes = 200;
+		int [][] termLinks = new int[30][10];
+		for (int i = 0; i < termLinks.length; i++)
+			for (int j = 0; j < termLinks[i].length; j++)
+				termLinks[i][j] = rnd.nextInt(numGenes);
+		boolean [] observed = new boolean[numGenes];
+		for (int g : termLinks[0])
+			observed[g] = true;
+
+		/* Sampled parameters */
+		FixedAlphaBetaScore fabs = new FixedAlphaBetaScore(new Random(1), termLinks, observed);
+		fabs.setAlpha(Double.NaN);
+		fabs.setBeta(Double.NaN);
+		fabs.setExpectedNumberOfTerms(Double.NaN);
+		fabs.setUsePrior(true);
+
+		for (int i = 0; i < 2000; i++)
+		{
+			fabs.proposeNewState(rnd.nextLong());
+			Assert.assertEquals(directScore(fabs, observed, termLinks), fabs.getScore(), 1e-9);
+			if (rnd.nextBoolean())
+				fabs.undoProposal();
+		}
+
+		/* Fixed parameters */
+		fabs = new FixedAlphaBetaScore(new Random(1), termLinks, observed);
+		fabs.setAlpha(0.12);
+		fabs.setBeta(0.34);
+		fabs.setExpectedNumberOfTerms(3);
+		fabs.setUsePrior(true);
+		for (int i = 0; i < 200; i++)
+		{
+			fabs.proposeNewState(rnd.nextLong());
+			Assert.assertEquals(directScore(fabs, observed, termLinks), fabs.getScore(), 1e-9);
+		}
+	}
+
+	@Test
+	public void testLazyRecords()
+	{
+		Random rnd = new Random(4);
+		int numGenes = 200;
+		int [][] termLinks = new int[30][10];
+		for (int i = 0; i < termLinks.length; i++)
+			for (int j = 0; j < termLinks[i].length; j++)
+				termLinks[i][j] = rnd.nextInt(numGenes);
+		boolean [] observed = new boolean[numGenes];
+		for (int g : termLinks[0])
+			observed[g] = true;
+
+		FixedAlphaBetaScore fabs = new FixedAlphaBetaScore(new Random(1), termLinks, observed);
+		fabs.setAlpha(Double.NaN);
+		fabs.setBeta(Double.NaN);
+		fabs.setExpectedNumberOfTerms(Double.NaN);
+
+		/* Count the activations eagerly alongside */
+		int [] expectedCounts = new int[termLinks.length];
+		int numRecords = 0;
+		for (int i = 0; i < 5000; i++)
+		{
+			fabs.proposeNewState(rnd.nextLong());
+			if (rnd.nextBoolean())
+				fabs.undoProposal();
+
+			if (rnd.nextInt(3) == 0)
+			{
+				fabs.record();
+				for (int t : fabs.getActiveTerms())
+					expectedCounts[t]++;
+				numRecords++;
+			}
+
+			if (i == 2500)
+			{
+				fabs.resetRecords();
+				Arrays.fill(expectedCounts, 0);
+				numRecords = 0;
+			}
+
+			if (i % 1000 == 0)
+				Assert.assertArrayEquals(expectedCounts, fabs.getTermActivationCounts());
+		}
+		Assert.assertArrayEquals(expectedCounts, fabs.getTermActivationCounts());
+		Assert.assertEquals(numRecords, fabs.getNumRecords());
+	}
 }
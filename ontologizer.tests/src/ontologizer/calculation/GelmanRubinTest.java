@@ -0,0 +1,78 @@
+package ontologizer.calculation;
+
+import static ontologizer.calculation.CalculationTestUtils.createDisjointTerm2Items;
+import static ontologizer.calculation.CalculationTestUtils.setupCalculation;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ontologizer.calculation.b2g.B2GParam;
+import ontologizer.calculation.b2g.Bayes2GOCalculation;
+import ontologizer.calculation.b2g.GelmanRubin;
+
+public class GelmanRubinTest
+{
+	@Test
+	public void testRHat()
+	{
+		int [][] counts = new int[][]{
+			{50, 0, 100, 10},
+			{50, 0, 0, 90},
+		};
+		int [] numRecords = new int[]{100, 100};
+
+		double [] rHat = GelmanRubin.rHat(counts, numRecords);
+
+		/* Identical chains */
+		assertEquals(99. / 100, rHat[0] * rHat[0], 1e-12);
+		/* Never active */
+		assertEquals(1, rHat[1], 0);
+		/* Stuck in different states */
+		assertEquals(Double.POSITIVE_INFINITY, rHat[2], 0);
+
+		/* Means 0.1 and 0.9, within variance 100/99 * 0.09 and between variance 0.32 */
+		double w = 100. / 99 * 0.09;
+		double varPlus = 99. / 100 * w + 0.32;
+		assertEquals(Math.sqrt(varPlus / w), rHat[3], 1e-12);
+
+		assertEquals(Double.POSITIVE_INFINITY, GelmanRubin.max(rHat), 0);
+	}
+
+	private static double [] calculate(int numberOfChains)
+	{
+		/* Ten terms with ten items each, the study consists of the items of the first term */
+		int [][] term2Items = createDisjointTerm2Items(10);
+		int [] studyIds = term2Items[0].clone();
+
+		Bayes2GOCalculation calc = setupCalculation(new Bayes2GOCalculation(), 1, 200000, B2GParam.Type.MCMC);
+		calc.setExpectedNumber(1);
+		calc.setNumberOfChains(numberOfChains);
+		calc.setConvergenceCheckInterval(30000);
+		double [] marg = calc.calculate(term2Items, studyIds, 100);
+
+		if (numberOfChains > 1)
+		{
+			assertNotNull(calc.getRHat());
+			assertEquals(term2Items.length, calc.getRHat().length);
+		}
+		return marg;
+	}
+
+	@Test
+	public void testMultipleChains()
+	{
+		double [] single = calculate(1);
+		double [] multi = calculate(4);
+
+		assertTrue(single[0] > 0.9);
+		assertTrue(multi[0] > 0.9);
+		for (int i = 1; i < multi.length; i++)
+			assertTrue(multi[i] < 0.1);
+
+		/* Results are reproducible */
+		assertArrayEquals(multi, calculate(4), 0);
+	}
+}
@@ -0,0 +1,113 @@
+package ontologizer.calculation;
+
+import static ontologizer.calculation.CalculationTestUtils.createDisjointTerm2Items;
+import static ontologizer.calculation.CalculationTestUtils.setupCalculation;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import ontologizer.calculation.b2g.B2GParam;
+import ontologizer.calculation.b2g.Bayes2GOCalculation;
+import ontologizer.calculation.b2g.Bayes2GOCalculation.MarginalsListener;
+import ontologizer.calculation.b2g.MarginalsSnapshot;
+
+public class MarginalsSnapshotTest
+{
+	private static final int STEPS = 50000;
+
+	/** The study consists of the items of the first term */
+	private static final int [] STUDY_IDS = new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+
+	private static Bayes2GOCalculation createCalculation()
+	{
+		Bayes2GOCalculation calc = setupCalculation(new Bayes2GOCalculation(), 5, STEPS, B2GParam.Type.MCMC);
+		calc.setBurnin(1000);
+		calc.setExpectedNumber(B2GParam.Type.MCMC);
+		calc.setSnapshotInterval(10000);
+		return calc;
+	}
+
+	private static class Collector implements MarginalsListener
+	{
+		List<MarginalsSnapshot> snapshots = new ArrayList<MarginalsSnapshot>();
+
+		@Override
+		public void snapshot(MarginalsSnapshot snapshot)
+		{
+			snapshots.add(snapshot);
+		}
+	}
+
+	@Test
+	public void testSnapshots()
+	{
+		int [][] term2Items = createDisjointTerm2Items(50);
+		double [] expected = createCalculation().calculate(term2Items, STUDY_IDS, 500);
+
+		Bayes2GOCalculation calc = createCalculation();
+		Collector collector = new Collector();
+		calc.addMarginalsListener(collector);
+		double [] marginals = calc.calculate(term2Items, STUDY_IDS, 500);
+
+		/* Listening doesn't change the result */
+		assertArrayEquals(expected, marginals, 0);
+
+		assertEquals(STEPS / 10000, collector.snapshots.size());
+		for (int i = 0; i < collector.snapshots.size(); i++)
+		{
+			MarginalsSnapshot snapshot = collector.snapshots.get(i);
+			assertEquals((i + 1) * 10000, snapshot.getStep());
+			/* Steps after the burn-in are recorded */
+			assertEquals((i + 1) * 10000 - 1001, snapshot.getNumRecords());
+			assertEquals(term2Items.length, snapshot.getMarginals().length);
+			for (double m : snapshot.getMarginals())
+				assertTrue(m >= 0 && m <= 1);
+			assertTrue(snapshot.getMaxScore() >= snapshot.getScore());
+		}
+
+		MarginalsSnapshot last = collector.snapshots.get(collector.snapshots.size() - 1);
+		assertEquals(0, last.getTopTerms(1)[0]);
+		assertTrue(last.getMarginal(0) > 0.9);
+		assertArrayEquals(new int[]{0}, last.getMaxScoredTerms());
+
+		/* The snapshot cannot be modified via the returned arrays */
+		last.getMarginals()[0] = -1;
+		last.getMaxScoredTerms()[0] = -1;
+		assertTrue(last.getMarginal(0) > 0.9);
+		assertArrayEquals(new int[]{0}, last.getMaxScoredTerms());
+	}
+
+	@Test
+	public void testStop()
+	{
+		final Bayes2GOCalculation calc = createCalculation();
+		Collector collector = new Collector()
+		{
+			@Override
+			public void snapshot(MarginalsSnapshot snapshot)
+			{
+				super.snapshot(snapshot);
+				if (snapshot.getStep() == 20000)
+					calc.stop();
+			}
+		};
+		calc.addMarginalsListener(collector);
+		int [][] term2Items = createDisjointTerm2Items(50);
+		double [] marginals = calc.calculate(term2Items, STUDY_IDS, 500);
+
+		assertEquals(2, collector.snapshots.size());
+		assertEquals(term2Items.length, marginals.length);
+
+		/* The stop request doesn't affect the next calculation */
+		Collector next = new Collector();
+		calc.removeMarginalsListener(collector);
+		calc.addMarginalsListener(next);
+		calc.calculate(term2Items, STUDY_IDS, 500);
+		assertEquals(STEPS / 10000, next.snapshots.size());
+	}
+}
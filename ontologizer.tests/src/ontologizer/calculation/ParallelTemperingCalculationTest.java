@@ -0,0 +1,83 @@
+package ontologizer.calculation;
+
+import static ontologizer.calculation.CalculationTestUtils.createDisjointTerm2Items;
+import static ontologizer.calculation.CalculationTestUtils.setupCalculation;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ontologizer.calculation.b2g.B2GParam;
+import ontologizer.calculation.b2g.Bayes2GOCalculation;
+import ontologizer.calculation.b2g.ParallelTemperingCalculation;
+
+public class ParallelTemperingCalculationTest
+{
+	private static double [] calculate(Bayes2GOCalculation.RandomSource randomSource)
+	{
+		/* 50 terms with ten items each, the study consists of the items of the first two terms */
+		int [][] term2Items = createDisjointTerm2Items(50);
+		int [] studyIds = new int[20];
+		for (int i = 0; i < studyIds.length; i++)
+			studyIds[i] = i;
+
+		ParallelTemperingCalculation calc = setupCalculation(new ParallelTemperingCalculation(), 1, 50000, B2GParam.Type.MCMC);
+		calc.setExpectedNumber(B2GParam.Type.MCMC);
+		calc.setRandomSource(randomSource);
+		return calc.calculate(term2Items, studyIds, 500);
+	}
+
+	@Test
+	public void testMarginals()
+	{
+		for (Bayes2GOCalculation.RandomSource randomSource : Bayes2GOCalculation.RandomSource.values())
+		{
+			double [] marg = calculate(randomSource);
+
+			assertTrue(marg[0] > 0.9);
+			assertTrue(marg[1] > 0.9);
+			for (int i = 2; i < marg.length; i++)
+				assertTrue(marg[i] < 0.1);
+
+			/* Results are reproducible although the replicas run concurrently */
+			assertArrayEquals(marg, calculate(randomSource), 0);
+		}
+	}
+
+	@Test
+	public void testStop()
+	{
+		int [][] term2Items = createDisjointTerm2Items(50);
+		int [] studyIds = term2Items[0].clone();
+
+		final ParallelTemperingCalculation calc = setupCalculation(new ParallelTemperingCalculation(), 1, 50000, B2GParam.Type.MCMC);
+		calc.setExpectedNumber(1);
+		final int [] lastStep = new int[1];
+		calc.setProgress(new ICalculationProgress()
+		{
+			@Override
+			public void init(int max)
+			{
+			}
+
+			@Override
+			public void update(int current)
+			{
+				lastStep[0] = current;
+				if (current >= 10000)
+					calc.stop();
+			}
+		});
+		double [] marg = calc.calculate(term2Items, studyIds, 500);
+
+		assertEquals(10000, lastStep[0]);
+		assertEquals(term2Items.length, marg.length);
+	}
+
+	@Test
+	public void testRegistered()
+	{
+		assertTrue(CalculationRegistry.getCalculationByName("MGSA-PT") instanceof ParallelTemperingCalculation);
+	}
+}
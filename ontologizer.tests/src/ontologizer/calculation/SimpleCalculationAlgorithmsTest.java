@@ -2,9 +2,24 @@ package ontologizer.calculation;
 
 import static ontologizer.calculation.CalculationTestUtils.assertResultEquals;
 import static ontologizer.calculation.CalculationTestUtils.performTestCalculation;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
+import ontologizer.internal.InternalOntology;
+import ontologizer.ontology.Term;
+import ontologizer.ontology.TermID;
+import ontologizer.set.StudySet;
+import ontologizer.statistics.Hypergeometric;
+import ontologizer.statistics.None;
+import ontologizer.statistics.ResamplingExecutor;
+
 public class SimpleCalculationAlgorithmsTest
 {
 	@Test
@@ -125,4 +140,139 @@ public class SimpleCalculationAlgorithmsTest
 
 		assertResultEquals(expected, TopologyWeightGOTermProperties.class, r);
 	}
+
+	@Test
+	public void whetherBatchCalculationWorks()
+	{
+		InternalOntology internalOntology = new InternalOntology();
+
+		HashMap<TermID,Double> wantedActiveTerms = new HashMap<TermID,Double>();
+		wantedActiveTerms.put(new TermID("GO:0000004"),0.0);
+
+		SingleCalculationSetting scs = SingleCalculationSetting.create(new Random(1), wantedActiveTerms, 0.00, internalOntology.graph, internalOntology.assoc);
+
+		Random rnd = new Random(2);
+		List<StudySet> studySets = new ArrayList<StudySet>();
+		studySets.add(scs.study);
+		for (int i = 0; i < 10; i++)
+			studySets.add(scs.pop.generateRandomStudySet(20 + i * 10, rnd));
+
+		AbstractPValueBasedCalculation [] calcs = new AbstractPValueBasedCalculation[]{
+				new TermForTermCalculation(), new ParentChildCalculation(), new ParentChildCutCalculation()};
+
+		for (AbstractPValueBasedCalculation calc : calcs)
+		{
+			List<EnrichedGOTermsResult> results = calc.calculateStudySets(internalOntology.graph, internalOntology.assoc, scs.pop, studySets, new None(), 4);
+			assertEquals(studySets.size(), results.size());
+
+			for (int i = 0; i < studySets.size(); i++)
+			{
+				EnrichedGOTermsResult expected = calc.calculateStudySet(internalOntology.graph, internalOntology.assoc, scs.pop, studySets.get(i), new None());
+				EnrichedGOTermsResult actual = results.get(i);
+
+				assertEquals(studySets.get(i), actual.getStudySet());
+				assertEquals(expected.getSize(), actual.getSize());
+				for (Term t : internalOntology.graph)
+				{
+					AbstractGOTermProperties e = expected.getGOTermProperties(t);
+					AbstractGOTermProperties a = actual.getGOTermProperties(t);
+					if (e == null)
+					{
+						assertEquals(null, a);
+						continue;
+					}
+					assertEquals(e.p, a.p, 0);
+					assertEquals(e.p_adjusted, a.p_adjusted, 0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void whetherConcurrentTermEvaluationWorks()
+	{
+		InternalOntology internalOntology = new InternalOntology();
+
+		HashMap<TermID,Double> wantedActiveTerms = new HashMap<TermID,Double>();
+		wantedActiveTerms.put(new TermID("GO:0000004"),0.0);
+
+		SingleCalculationSetting scs = SingleCalculationSetting.create(new Random(1), wantedActiveTerms, 0.00, internalOntology.graph, internalOntology.assoc);
+
+		Random rnd = new Random(3);
+		List<StudySet> studySets = new ArrayList<StudySet>();
+		studySets.add(scs.study);
+		for (int i = 0; i < 10; i++)
+			studySets.add(scs.pop.generateRandomStudySet(20 + i * 10, rnd));
+
+		AbstractPValueBasedCalculation [] sequentialCalcs = new AbstractPValueBasedCalculation[]{
+				new TopCalculation(), new ParentChildCalculation(), new ParentChildCutCalculation()};
+		AbstractPValueBasedCalculation [] concurrentCalcs = new AbstractPValueBasedCalculation[]{
+				new TopCalculation(), new ParentChildCalculation(), new ParentChildCutCalculation()};
+
+		for (int c = 0; c < sequentialCalcs.length; c++)
+		{
+			concurrentCalcs[c].setNumberOfTermThreads(4);
+
+			for (StudySet studySet : studySets)
+			{
+				EnrichedGOTermsResult expected = sequentialCalcs[c].calculateStudySet(internalOntology.graph, internalOntology.assoc, scs.pop, studySet, new None());
+				EnrichedGOTermsResult actual = concurrentCalcs[c].calculateStudySet(internalOntology.graph, internalOntology.assoc, scs.pop, studySet, new None());
+
+				assertEquals(expected.getSize(), actual.getSize());
+				for (Term t : internalOntology.graph)
+				{
+					AbstractGOTermProperties e = expected.getGOTermProperties(t);
+					AbstractGOTermProperties a = actual.getGOTermProperties(t);
+					if (e == null)
+					{
+						assertEquals(null, a);
+						continue;
+					}
+					assertEquals(e.p, a.p, 0);
+					assertEquals(e.p_adjusted, a.p_adjusted, 0);
+				}
+			}
+		}
+	}
+
+	private static double [][] sample(TermForTermPValueCalculation calc, int numberOfThreads, int numberOfSamples)
+	{
+		final double [][] samples = new double[numberOfSamples][];
+
+		ResamplingExecutor executor = new ResamplingExecutor(calc, 42, numberOfThreads);
+		executor.run(numberOfSamples, new ResamplingExecutor.ISampleHandler()
+		{
+			public void sampled(int sample, double[] randomP, boolean[] ignoreAtMTC)
+			{
+				samples[sample] = randomP.clone();
+				for (int i = 0; i < ignoreAtMTC.length; i++)
+					if (ignoreAtMTC[i]) samples[sample][i] = -1;
+			}
+		});
+		return samples;
+	}
+
+	@Test
+	public void whetherResamplingIsReproducible()
+	{
+		InternalOntology internalOntology = new InternalOntology();
+
+		HashMap<TermID,Double> wantedActiveTerms = new HashMap<TermID,Double>();
+		wantedActiveTerms.put(new TermID("GO:0000004"),0.0);
+
+		SingleCalculationSetting scs = SingleCalculationSetting.create(new Random(1), wantedActiveTerms, 0.00, internalOntology.graph, internalOntology.assoc);
+
+		TermForTermPValueCalculation calc = new TermForTermPValueCalculation(internalOntology.graph, internalOntology.assoc, scs.pop, scs.study, new Hypergeometric());
+
+		/* The samples depend only on the seed, neither on the number of threads nor on earlier samples */
+		double [][] sequential = sample(calc, 1, 200);
+		double [][] parallel = sample(calc, 4, 200);
+		double [][] again = sample(calc, 1, 200);
+
+		for (int i = 0; i < sequential.length; i++)
+		{
+			assertArrayEquals(sequential[i], parallel[i], 0);
+			assertArrayEquals(sequential[i], again[i], 0);
+		}
+	}
 }
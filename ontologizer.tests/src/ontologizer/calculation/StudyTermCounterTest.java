@@ -0,0 +1,57 @@
+package ontologizer.calculation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import ontologizer.util.Util;
+
+public class StudyTermCounterTest
+{
+	/* Items of term 0 (root), 1 and 2, where 2 is a child of 1 */
+	private static final int [][] term2Items = new int[][]{
+		{0,1,2,3,4,5},
+		{1,2,3},
+		{2,3},
+	};
+
+	@Test
+	public void testCreate()
+	{
+		StudyTermCounter counter = StudyTermCounter.create(term2Items, 6);
+		assertEquals(3, counter.getNumberOfTerms());
+		assertEquals(1, counter.getNumberOfAnnotations(new int[]{0}));
+		assertEquals(3, counter.getNumberOfAnnotations(new int[]{2}));
+		assertEquals(6, counter.getNumberOfAnnotations(new int[]{1,2,5}));
+	}
+
+	@Test
+	public void testCount()
+	{
+		StudyTermCounter counter = StudyTermCounter.create(term2Items, 6);
+
+		int [][] studies = new int[][]{{}, {0}, {2,3}, {0,1,5}, {0,1,2,3,4,5}};
+		int [] counts = new int[counter.getNumberOfTerms()];
+
+		for (int [] study : studies)
+		{
+			counter.count(study, counts);
+
+			int [] expected = new int[term2Items.length];
+			for (int t = 0; t < term2Items.length; t++)
+				expected[t] = Util.commonInts(study, term2Items[t]);
+
+			assertArrayEquals(expected, counts);
+			assertArrayEquals(expected, counter.count(study));
+		}
+	}
+
+	@Test
+	public void testItem2Terms()
+	{
+		int [][] item2Terms = new int[][]{{0},{0,1},{0,1,2}};
+		StudyTermCounter counter = new StudyTermCounter(item2Terms, 3);
+		assertArrayEquals(new int[]{2,2,1}, counter.count(new int[]{2,1}));
+	}
+}
@@ -0,0 +1,109 @@
+package ontologizer.calculation;
+
+import static ontologizer.calculation.CalculationTestUtils.createDisjointTerm2Items;
+import static ontologizer.calculation.CalculationTestUtils.setupCalculation;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+import ontologizer.calculation.b2g.B2GParam;
+import ontologizer.calculation.b2g.Bayes2GOCalculation;
+
+public class ValuedMGSATest
+{
+	/**
+	 * Creates p values for the items. The items of the given terms get
+	 * small values, all other items get uniformly distributed values.
+	 */
+	private static double [] createItemValues(int [][] term2Items, int numItems, int...terms)
+	{
+		Random rnd = new Random(4);
+		double [] values = new double[numItems];
+		for (int i = 0; i < numItems; i++)
+			values[i] = rnd.nextDouble();
+		for (int t : terms)
+			for (int i : term2Items[t])
+				values[i] = rnd.nextDouble() * 0.001;
+		return values;
+	}
+
+	private static Bayes2GOCalculation createCalculation()
+	{
+		Bayes2GOCalculation calc = setupCalculation(new Bayes2GOCalculation(), 2, 100000);
+		calc.setExpectedNumber(2);
+		return calc;
+	}
+
+	@Test
+	public void testValued()
+	{
+		int [][] term2Items = createDisjointTerm2Items(50);
+		double [] values = createItemValues(term2Items, 500, 3, 17);
+
+		double [] marginals = createCalculation().calculateValued(term2Items, values);
+		for (int t = 0; t < term2Items.length; t++)
+		{
+			if (t == 3 || t == 17) assertTrue(marginals[t] > 0.9);
+			else assertTrue(marginals[t] < 0.5);
+		}
+
+		/* The calculation is reproducible */
+		assertArrayEquals(marginals, createCalculation().calculateValued(term2Items, values), 0);
+	}
+
+	@Test
+	public void testUnsupportedSettingsAreReported()
+	{
+		int [][] term2Items = createDisjointTerm2Items(50);
+		double [] values = createItemValues(term2Items, 500, 3);
+
+		final List<String> warnings = new ArrayList<String>();
+		Handler handler = new Handler()
+		{
+			@Override
+			public void publish(LogRecord record)
+			{
+				if (record.getLevel() == Level.WARNING)
+					warnings.add(record.getMessage());
+			}
+
+			@Override
+			public void flush()
+			{
+			}
+
+			@Override
+			public void close()
+			{
+			}
+		};
+
+		Logger logger = Logger.getLogger(Bayes2GOCalculation.class.getName());
+		logger.addHandler(handler);
+		try
+		{
+			Bayes2GOCalculation calc = setupCalculation(new Bayes2GOCalculation(), 2, 1000);
+			calc.calculateValued(term2Items, values);
+			assertEquals(0, warnings.size());
+
+			calc.setNumberOfChains(2);
+			calc.setNumberOfReplicas(3);
+			calc.setAlpha(B2GParam.Type.EM);
+			calc.calculateValued(term2Items, values);
+			assertEquals(3, warnings.size());
+		} finally
+		{
+			logger.removeHandler(handler);
+		}
+	}
+}
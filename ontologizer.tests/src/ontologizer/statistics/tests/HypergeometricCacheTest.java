@@ -0,0 +1,86 @@
+package ontologizer.statistics.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import ontologizer.statistics.Hypergeometric;
+import ontologizer.statistics.HypergeometricCache;
+
+public class HypergeometricCacheTest
+{
+	@Test
+	public void testSameValues()
+	{
+		Hypergeometric hyperg = new Hypergeometric();
+		HypergeometricCache cache = new HypergeometricCache(64);
+
+		for (int round = 0; round < 2; round++)
+		{
+			for (int M = 0; M <= 30; M += 3)
+			{
+				for (int x = 0; x <= 10; x++)
+				{
+					assertEquals(hyperg.phypergeometric(100, M / 100.0, 10, x), cache.phypergeometric(hyperg, 100, M, 10, x), 0);
+					assertEquals(hyperg.dhyper(x, 100, M, 10), cache.dhyper(hyperg, x, 100, M, 10), 0);
+				}
+			}
+		}
+
+		/* Edge cases are not cached */
+		assertEquals(1.0, cache.phypergeometric(hyperg, 100, 10, 100, 5), 0);
+		assertEquals(1.0, cache.phypergeometric(hyperg, 100, 10, 10, 0), 0);
+	}
+
+	@Test
+	public void testStatistics()
+	{
+		Hypergeometric hyperg = new Hypergeometric();
+		HypergeometricCache cache = new HypergeometricCache();
+		cache.setCollectStatistics(true);
+
+		assertEquals(0, cache.getHitRate(), 0);
+
+		cache.phypergeometric(hyperg, 1000, 100, 50, 10);
+		cache.phypergeometric(hyperg, 1000, 100, 50, 10);
+		cache.phypergeometric(hyperg, 1000, 100, 50, 10);
+		cache.dhyper(hyperg, 10, 1000, 100, 50);
+
+		assertEquals(2, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(0.5, cache.getHitRate(), 0);
+
+		cache.resetStatistics();
+		assertEquals(0, cache.getHits());
+		assertEquals(0, cache.getMisses());
+	}
+
+	@Test
+	public void testStatisticsAreDisabledByDefault()
+	{
+		Hypergeometric hyperg = new Hypergeometric();
+		HypergeometricCache cache = new HypergeometricCache();
+
+		cache.phypergeometric(hyperg, 1000, 100, 50, 10);
+		cache.phypergeometric(hyperg, 1000, 100, 50, 10);
+		assertEquals(0, cache.getHits());
+		assertEquals(0, cache.getMisses());
+	}
+
+	@Test
+	public void testCapacity()
+	{
+		assertEquals(64, new HypergeometricCache(64).getCapacity());
+		assertEquals(128, new HypergeometricCache(100).getCapacity());
+		assertEquals(1, new HypergeometricCache(1).getCapacity());
+
+		Hypergeometric hyperg = new Hypergeometric();
+		HypergeometricCache cache = new HypergeometricCache(1);
+		cache.setCollectStatistics(true);
+		cache.phypergeometric(hyperg, 1000, 100, 50, 10);
+		cache.phypergeometric(hyperg, 1000, 100, 50, 11);
+		cache.phypergeometric(hyperg, 1000, 100, 50, 10);
+		assertEquals(0, cache.getHits());
+		assertEquals(3, cache.getMisses());
+	}
+}
@@ -40,4 +40,41 @@ public class HypergeometricTest
 		// drawing more white than available in total
 		assertTrue(hyper.phyper(10,8,5,12,false) == 0);
 	}
+
+	@Test
+	public void testUpperTail()
+	{
+		int [][] tuples = new int[][]{{1526,40,190,3},{1526,40,190,22},{1526,4,190,2},{45,20,10,4},{45,20,10,0},{10,10,10,10},{8,3,6,4},{20000,5000,300,80}};
+
+		for (int [] t : tuples)
+		{
+			int N = t[0], M = t[1], n = t[2], x = t[3];
+			double expected = 0;
+			for (int i = x; i <= Math.min(n, M); i++)
+				expected += hyper.dhyper(i, N, M, n);
+
+			assertEquals(expected, hyper.upperTail(N, M, n, x), 1e-8);
+			assertEquals(hyper.phyper(x - 1, N, M, n, false), hyper.upperTail(N, M, n, x), 1e-8);
+		}
+
+		assertEquals(hyper.upperTail(1526,40,190,3), hyper.phypergeometric(1526, 40 / 1526.0, 190, 3), 0);
+	}
+
+	@Test
+	public void testUpperTails()
+	{
+		int [] N = new int[]{1526,1526,45,20000};
+		int [] M = new int[]{40,4,20,5000};
+		int [] n = new int[]{190,190,10,300};
+		int [] x = new int[]{22,2,4,80};
+		double [] p = new double[N.length];
+
+		new Hypergeometric(100).upperTails(N, M, n, x, p, N.length);
+		for (int i = 0; i < N.length; i++)
+			assertEquals(hyper.upperTail(N[i], M[i], n[i], x[i]), p[i], 0);
+
+		new Hypergeometric().upperTails(1526, 190, new int[]{40,4}, new int[]{22,2}, p, 2);
+		assertEquals(hyper.upperTail(1526, 40, 190, 22), p[0], 0);
+		assertEquals(hyper.upperTail(1526, 4, 190, 2), p[1], 0);
+	}
 }
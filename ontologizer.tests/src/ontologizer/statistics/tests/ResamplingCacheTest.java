@@ -0,0 +1,245 @@
+package ontologizer.statistics.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import ontologizer.statistics.AbstractResamplingTestCorrection;
+import ontologizer.statistics.FDRBySteffenCached;
+import ontologizer.statistics.Hypergeometric;
+import ontologizer.statistics.IPValueCalculation;
+import ontologizer.statistics.IPValueCalculationProgress;
+import ontologizer.statistics.PValue;
+import ontologizer.statistics.PvalueSetStore;
+import ontologizer.statistics.ResamplingCache;
+import ontologizer.statistics.WestfallYoungSingleStep;
+import ontologizer.statistics.WestfallYoungSingleStepApproximate;
+import ontologizer.statistics.WestfallYoungStepDownCached;
+
+public class ResamplingCacheTest
+{
+	/**
+	 * A p value calculation that emits uniform random numbers and counts
+	 * the number of drawn samples.
+	 */
+	private static class CountingPValueCalculation implements IPValueCalculation
+	{
+		private static final int NUMBER_OF_PVALUES = 20;
+
+		final AtomicInteger numberOfSamples = new AtomicInteger();
+
+		public PValue[] calculateRawPValues(IPValueCalculationProgress progress)
+		{
+			Random rnd = new Random(1);
+			PValue [] p = new PValue[NUMBER_OF_PVALUES];
+			for (int i = 0; i < p.length; i++)
+			{
+				p[i] = new PValue();
+				p[i].p = rnd.nextDouble() * 0.1;
+			}
+			return p;
+		}
+
+		public PValue[] calculateRandomPValues(IPValueCalculationProgress progress)
+		{
+			return calculateRandomPValues(new Random(), new Hypergeometric(), progress);
+		}
+
+		public PValue[] calculateRandomPValues(Random rnd, Hypergeometric hyperg, IPValueCalculationProgress progress)
+		{
+			numberOfSamples.incrementAndGet();
+			PValue [] p = new PValue[NUMBER_OF_PVALUES];
+			for (int i = 0; i < p.length; i++)
+			{
+				p[i] = new PValue();
+				p[i].p = rnd.nextDouble();
+			}
+			return p;
+		}
+
+		public void calculateRandomPValues(Random rnd, Hypergeometric hyperg, double[] p, boolean[] ignoreAtMTC)
+		{
+			numberOfSamples.incrementAndGet();
+			for (int i = 0; i < p.length; i++)
+				p[i] = rnd.nextDouble();
+		}
+
+		public int currentStudySetSize()
+		{
+			return 10;
+		}
+
+		public int getNumberOfPValues()
+		{
+			return NUMBER_OF_PVALUES;
+		}
+
+		public String getFingerprint()
+		{
+			return "fingerprint";
+		}
+	}
+
+	private static File createTempDirectory() throws IOException
+	{
+		File dir = File.createTempFile("cache", "");
+		dir.delete();
+		dir.mkdirs();
+		return dir;
+	}
+
+	private static void delete(File dir)
+	{
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void testStore() throws IOException
+	{
+		File dir = createTempDirectory();
+		try
+		{
+			ResamplingCache cache = new ResamplingCache(dir);
+			assertNull(cache.loadStore("key"));
+
+			PvalueSetStore store = new PvalueSetStore(3, 4);
+			for (int i = 0; i < 3; i++)
+			{
+				double [] p = new double[]{0.1 * i, 0.2, 0.3, 1.0};
+				boolean [] ignoreAtMTC = new boolean[]{false, i == 1, false, true};
+				store.set(i, p, ignoreAtMTC);
+			}
+			cache.saveStore("key", store);
+
+			assertNull(cache.loadStore("other key"));
+
+			PvalueSetStore loaded = new ResamplingCache(dir).loadStore("key");
+			assertNotNull(loaded);
+			assertEquals(3, loaded.getNumberOfRows());
+			assertEquals(4, loaded.getSetSize());
+			for (int i = 0; i < 3; i++)
+			{
+				for (int j = 0; j < 4; j++)
+				{
+					assertEquals(store.get(i, j), loaded.get(i, j), 0.0);
+					assertEquals(store.isIgnored(i, j), loaded.isIgnored(i, j));
+				}
+			}
+		} finally
+		{
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void testArray() throws IOException
+	{
+		File dir = createTempDirectory();
+		try
+		{
+			ResamplingCache cache = new ResamplingCache(dir);
+			double [] values = new double[]{0.5, 0.25, 0.125};
+			cache.saveArray("key", values);
+
+			double [] loaded = cache.loadArray("key");
+			assertNotNull(loaded);
+			assertEquals(values.length, loaded.length);
+			for (int i = 0; i < values.length; i++)
+				assertEquals(values[i], loaded[i], 0.0);
+		} finally
+		{
+			delete(dir);
+		}
+	}
+
+	/**
+	 * Runs the given correction with a persistent cache in the given directory.
+	 *
+	 * @return the number of samples that have been drawn.
+	 */
+	private static int adjust(AbstractResamplingTestCorrection correction, File dir, double [] adjusted)
+	{
+		CountingPValueCalculation calc = new CountingPValueCalculation();
+		correction.setNumberOfResamplingSteps(100);
+		correction.setSeed(1);
+		correction.setCacheDirectory(dir);
+
+		PValue [] p = correction.adjustPValues(calc, null);
+		for (int i = 0; i < p.length; i++)
+			adjusted[i] = p[i].p_adjusted;
+		return calc.numberOfSamples.get();
+	}
+
+	private static void checkMinimaAreCached(AbstractResamplingTestCorrection first, AbstractResamplingTestCorrection second) throws IOException
+	{
+		File dir = createTempDirectory();
+		try
+		{
+			double [] expected = new double[CountingPValueCalculation.NUMBER_OF_PVALUES];
+			double [] actual = new double[CountingPValueCalculation.NUMBER_OF_PVALUES];
+
+			assertEquals(100, adjust(first, dir, expected));
+			assertEquals(false, dir.listFiles().length == 0);
+
+			/* The second run must load the stored minima rather than sample */
+			assertEquals(0, adjust(second, dir, actual));
+			for (int i = 0; i < expected.length; i++)
+				assertEquals(expected[i], actual[i], 0.0);
+		} finally
+		{
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void testWestfallYoungSingleStepUsesCache() throws IOException
+	{
+		checkMinimaAreCached(new WestfallYoungSingleStep(), new WestfallYoungSingleStep());
+	}
+
+	@Test
+	public void testWestfallYoungSingleStepApproximateUsesCache() throws IOException
+	{
+		checkMinimaAreCached(new WestfallYoungSingleStepApproximate(), new WestfallYoungSingleStepApproximate());
+	}
+
+	private static void checkResetCacheDeletesStores(AbstractResamplingTestCorrection correction) throws IOException
+	{
+		File dir = createTempDirectory();
+		try
+		{
+			correction.setNumberOfResamplingSteps(100);
+			correction.setSeed(1);
+			correction.setStoreDirectory(dir);
+			correction.adjustPValues(new CountingPValueCalculation(), null);
+			assertEquals(1, dir.listFiles().length);
+
+			correction.resetCache();
+			assertEquals(0, dir.listFiles().length);
+		} finally
+		{
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void testWestfallYoungStepDownCachedResetCacheDeletesStores() throws IOException
+	{
+		checkResetCacheDeletesStores(new WestfallYoungStepDownCached());
+	}
+
+	@Test
+	public void testFDRBySteffenCachedResetCacheDeletesStores() throws IOException
+	{
+		checkResetCacheDeletesStores(new FDRBySteffenCached());
+	}
+}
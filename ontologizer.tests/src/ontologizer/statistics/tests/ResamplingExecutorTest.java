@@ -0,0 +1,99 @@
+package ontologizer.statistics.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ontologizer.statistics.Hypergeometric;
+import ontologizer.statistics.IPValueCalculation;
+import ontologizer.statistics.IPValueCalculationProgress;
+import ontologizer.statistics.PValue;
+import ontologizer.statistics.ResamplingExecutor;
+
+public class ResamplingExecutorTest
+{
+	/**
+	 * A p value calculation that simply emits uniform random numbers.
+	 */
+	private static class RandomPValueCalculation implements IPValueCalculation
+	{
+		private static final int NUMBER_OF_PVALUES = 20;
+
+		public PValue[] calculateRawPValues(IPValueCalculationProgress progress)
+		{
+			return calculateRandomPValues(new Random(1), new Hypergeometric(), progress);
+		}
+
+		public PValue[] calculateRandomPValues(IPValueCalculationProgress progress)
+		{
+			return calculateRandomPValues(new Random(), new Hypergeometric(), progress);
+		}
+
+		public PValue[] calculateRandomPValues(Random rnd, Hypergeometric hyperg, IPValueCalculationProgress progress)
+		{
+			PValue [] p = new PValue[NUMBER_OF_PVALUES];
+			for (int i = 0; i < p.length; i++)
+			{
+				p[i] = new PValue();
+				p[i].p = rnd.nextDouble();
+			}
+			return p;
+		}
+
+		public void calculateRandomPValues(Random rnd, Hypergeometric hyperg, double[] p, boolean[] ignoreAtMTC)
+		{
+			for (int i = 0; i < p.length; i++)
+				p[i] = rnd.nextDouble();
+		}
+
+		public int currentStudySetSize()
+		{
+			return 10;
+		}
+
+		public int getNumberOfPValues()
+		{
+			return NUMBER_OF_PVALUES;
+		}
+
+		public String getFingerprint()
+		{
+			return null;
+		}
+	}
+
+	private double [][] sample(long seed, int numberOfThreads, int numberOfSamples)
+	{
+		final double [][] samples = new double[numberOfSamples][];
+
+		ResamplingExecutor executor = new ResamplingExecutor(new RandomPValueCalculation(), seed, numberOfThreads);
+		executor.run(numberOfSamples, new ResamplingExecutor.ISampleHandler()
+		{
+			public void sampled(int sample, double[] randomP, boolean[] ignoreAtMTC)
+			{
+				samples[sample] = randomP.clone();
+			}
+		});
+		return samples;
+	}
+
+	@Test
+	public void testSameResultsForDifferentNumberOfThreads()
+	{
+		double [][] sequential = sample(42, 1, 100);
+		double [][] parallel = sample(42, 4, 100);
+
+		for (int i = 0; i < sequential.length; i++)
+			for (int j = 0; j < sequential[i].length; j++)
+				assertEquals(sequential[i][j], parallel[i][j], 0);
+	}
+
+	@Test
+	public void testSamplesDiffer()
+	{
+		double [][] samples = sample(42, 2, 2);
+		assertEquals(false, samples[0][0] == samples[1][0]);
+	}
+}
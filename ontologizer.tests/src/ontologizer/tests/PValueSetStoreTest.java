@@ -1,5 +1,8 @@
 package ontologizer.tests;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -55,4 +58,101 @@ public class PValueSetStoreTest
 		Assert.assertTrue(count == 3);
 	}
 
+	@Test
+	public void testSetPrimitive()
+	{
+		int nSets = 3;
+		int setSize = 10;
+
+		PvalueSetStore store = new PvalueSetStore(nSets,setSize);
+
+		// fill in reverse order to check that the positions are respected
+		for (int i=nSets-1; i >= 0; i--) {
+			double [] p = new double[setSize];
+			boolean [] ignoreAtMTC = new boolean[setSize];
+			for (int j=0; j < setSize; j++) {
+				ignoreAtMTC[j] = (j % 2) == 0;
+				p[j] = ignoreAtMTC[j] ? 1.0 : i / 10.0;
+			}
+			store.set(i, p, ignoreAtMTC);
+		}
+
+		int count=0;
+		for (PValue[] pvals : store) {
+			Assert.assertTrue("wrong length retrieved Pvalue array!", pvals.length == setSize);
+			for (int j=0; j < setSize; j++) {
+				Assert.assertEquals((j % 2) == 0, pvals[j].ignoreAtMTC);
+				if (pvals[j].ignoreAtMTC) {
+					Assert.assertTrue("Ignore, we should get 1.0", pvals[j].p == 1.0);
+				} else {
+					Assert.assertEquals(count / 10.0, pvals[j].p, 0.0);
+				}
+			}
+			count++;
+		}
+		Assert.assertTrue(count == 3);
+	}
+
+	private static void fillAndCheckRows(PvalueSetStore store, int nSets, int setSize)
+	{
+		for (int i=0; i < nSets; i++) {
+			double [] p = new double[setSize];
+			boolean [] ignoreAtMTC = new boolean[setSize];
+			for (int j=0; j < setSize; j++) {
+				ignoreAtMTC[j] = j == i;
+				p[j] = (i * setSize + j) / (double)(nSets * setSize);
+			}
+			store.set(i, p, ignoreAtMTC);
+		}
+
+		Assert.assertEquals(nSets, store.getNumberOfRows());
+
+		int count=0;
+		for (double [] row : store.rows()) {
+			Assert.assertEquals(setSize, row.length);
+			for (int j=0; j < setSize; j++) {
+				if (j == count) {
+					Assert.assertTrue(store.isIgnored(count, j));
+					Assert.assertEquals(1.0, row[j], 0.0);
+				} else {
+					Assert.assertFalse(store.isIgnored(count, j));
+					Assert.assertEquals((count * setSize + j) / (double)(nSets * setSize), row[j], 0.0);
+					Assert.assertEquals(row[j], store.get(count, j), 0.0);
+				}
+			}
+			count++;
+		}
+		Assert.assertEquals(nSets, count);
+	}
+
+	@Test
+	public void testRows()
+	{
+		fillAndCheckRows(new PvalueSetStore(4, 7), 4, 7);
+	}
+
+	@Test
+	public void testMappedRows() throws IOException
+	{
+		File file = File.createTempFile("pvalues", ".bin");
+		try
+		{
+			fillAndCheckRows(new PvalueSetStore(4, 7, file), 4, 7);
+		} finally
+		{
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testRelease() throws IOException
+	{
+		File file = File.createTempFile("pvalues", ".bin");
+		PvalueSetStore store = new PvalueSetStore(4, 7, file);
+		fillAndCheckRows(store, 4, 7);
+		Assert.assertTrue(file.exists());
+
+		store.release();
+		Assert.assertFalse(file.exists());
+	}
 }
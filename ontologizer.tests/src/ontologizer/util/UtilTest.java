@@ -23,6 +23,28 @@ public class UtilTest
 		assertEquals(2, Util.commonInts(a, b, c));
 	}
 
+	@Test
+	public void testCommonBits()
+	{
+		int [] a = new int[]{1,2,3,4,5,6,64,127,128};
+		int [] b = new int[]{4,5,127};
+		int [] c = new int[]{4,5,6,7,128};
+		int [] d = new int[]{7,8,9};
+
+		int n = 200;
+		long [] aBits = Util.toBits(a, n);
+		assertEquals(4, aBits.length);
+		assertEquals(a.length, Util.commonBits(aBits, aBits));
+		assertEquals(Util.commonInts(a, b), Util.commonBits(aBits, Util.toBits(b, n)));
+		assertEquals(Util.commonInts(a, c), Util.commonBits(aBits, Util.toBits(c, n)));
+		assertEquals(Util.commonInts(a, d), Util.commonBits(aBits, Util.toBits(d, n)));
+
+		/* Reusing the bitset clears the old bits */
+		Util.toBits(aBits, d);
+		assertEquals(d.length, Util.commonBits(aBits, Util.toBits(d, n)));
+		assertEquals(0, Util.commonBits(aBits, Util.toBits(b, n)));
+	}
+
 	@Test
 	public void testUnion()
 	{
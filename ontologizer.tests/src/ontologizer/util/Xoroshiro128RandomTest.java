@@ -0,0 +1,77 @@
+package ontologizer.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class Xoroshiro128RandomTest
+{
+	@Test
+	public void testReproducible()
+	{
+		Xoroshiro128Random a = new Xoroshiro128Random(42);
+		Xoroshiro128Random b = new Xoroshiro128Random(42);
+		Xoroshiro128Random c = new Xoroshiro128Random(43);
+
+		int same = 0;
+		for (int i = 0; i < 1000; i++)
+		{
+			long v = a.nextLong();
+			assertEquals(v, b.nextLong());
+			if (v == c.nextLong()) same++;
+		}
+		assertEquals(0, same);
+
+		a.setSeed(7);
+		b.setSeed(7);
+		assertEquals(a.nextLong(), b.nextLong());
+	}
+
+	@Test
+	public void testSplit()
+	{
+		Xoroshiro128Random a = new Xoroshiro128Random(42);
+		Xoroshiro128Random b = new Xoroshiro128Random(42);
+
+		Xoroshiro128Random a1 = a.split();
+		Xoroshiro128Random a2 = a.split();
+		Xoroshiro128Random b1 = b.split();
+
+		int same = 0;
+		for (int i = 0; i < 1000; i++)
+		{
+			long v = a1.nextLong();
+			assertEquals(v, b1.nextLong());
+			if (v == a2.nextLong()) same++;
+		}
+		assertEquals(0, same);
+	}
+
+	@Test
+	public void testRanges()
+	{
+		Xoroshiro128Random rnd = new Xoroshiro128Random(1);
+
+		int n = 100000;
+		double sum = 0;
+		int trues = 0;
+		int [] buckets = new int[10];
+		for (int i = 0; i < n; i++)
+		{
+			double d = rnd.nextDouble();
+			assertTrue(d >= 0 && d < 1);
+			sum += d;
+
+			if (rnd.nextBoolean()) trues++;
+
+			int k = rnd.nextInt(10);
+			assertTrue(k >= 0 && k < 10);
+			buckets[k]++;
+		}
+		assertEquals(0.5, sum / n, 0.01);
+		assertEquals(0.5, (double)trues / n, 0.01);
+		for (int k = 0; k < buckets.length; k++)
+			assertEquals(0.1, (double)buckets[k] / n, 0.01);
+	}
+}
@@ -4,9 +4,11 @@ import java.io.*;
 import java.util.*;
 
 import ontologizer.association.AssociationContainer;
+import ontologizer.calculation.AbstractPValueBasedCalculation;
 import ontologizer.calculation.CalculationRegistry;
 import ontologizer.calculation.EnrichedGOTermsResult;
 import ontologizer.calculation.ICalculation;
+import ontologizer.calculation.PreparedPopulation;
 import ontologizer.calculation.b2g.B2GParam;
 import ontologizer.calculation.b2g.Bayes2GOCalculation;
 import ontologizer.filter.GeneFilter;
@@ -21,6 +23,7 @@ import ontologizer.set.PopulationSet;
 import ontologizer.set.StudySet;
 import ontologizer.set.StudySetFactory;
 import ontologizer.set.StudySetList;
+import ontologizer.statistics.AbstractResamplingTestCorrection;
 import ontologizer.statistics.AbstractTestCorrection;
 import ontologizer.statistics.IResampling;
 import ontologizer.statistics.TestCorrectionRegistry;
@@ -77,6 +80,12 @@ public class OntologizerCore
 		 */
 		public int sizeTolerance;
 
+		/**
+		 * Directory in which samples of resampling based mtc procedures
+		 * are cached across runs, might be null
+		 */
+		public String resamplingCacheDirectory;
+
 		/** Minimum number of association to be displayed */
 		public int minAssociationCount;
 
@@ -88,6 +97,12 @@ public class OntologizerCore
 
 		/** Specifies the filter file */
 		public String filterFile;
+
+		/**
+		 * Number of threads used to evaluate the studies in calculate(),
+		 * values smaller than 1 mean a single thread
+		 */
+		public int numberOfThreads;
 	};
 
 	/** Contains all available GOTerms */
@@ -115,6 +130,12 @@ public class OntologizerCore
 	 * analysis based on the scheme in GeneMerge. */
 	private PopulationSet populationSet;
 
+	/** The population prepared for p-value based calculations, lazily created */
+	private PreparedPopulation preparedPopulation;
+
+	/** Number of threads used to evaluate the studies */
+	private int numberOfThreads;
+
 	/**
 	 * Construct the object.
 	 *
@@ -137,6 +158,8 @@ public class OntologizerCore
 			b2g.setMcmcSteps(1000000);
 		}
 
+		numberOfThreads = Math.max(1, args.numberOfThreads);
+
 		/* Set the desired test correction or set the default */
 		testCorrection = TestCorrectionRegistry.getCorrectionByName(args.correctionName);
 		if (testCorrection == null)
@@ -152,6 +175,9 @@ public class OntologizerCore
 			if (args.sizeTolerance > 0) {
 				resampling.setSizeTolerance(args.sizeTolerance);
 			}
+			if (args.resamplingCacheDirectory != null && testCorrection instanceof AbstractResamplingTestCorrection) {
+				((AbstractResamplingTestCorrection)testCorrection).setCacheDirectory(new File(args.resamplingCacheDirectory));
+			}
 		}
 
 		/* Parse the gene_ontology.obo file to get information about all terms.
@@ -267,15 +293,45 @@ public class OntologizerCore
 		return studySetResultList.iterator();
 	}
 
+	/**
+	 * Returns the population prepared for the calculation of all studies.
+	 *
+	 * @return the prepared population
+	 */
+	private PreparedPopulation getPreparedPopulation()
+	{
+		if (preparedPopulation == null)
+			preparedPopulation = new PreparedPopulation(goGraph, goAssociations, populationSet);
+		return preparedPopulation;
+	}
+
 	/**
 	 * Perform the statistical calculation using the given calculation
-	 * procedure accumulation the results into the studySetResultList
+	 * procedure accumulation the results into the studySetResultList.
+	 * For p-value based calculations the population is prepared only once
+	 * and the studies are evaluated concurrently. A single study is
+	 * evaluated by evaluating its terms concurrently. Subsequent calls to
+	 * calculateNextStudy() return the accumulated results.
 	 */
 	public void calculate()
 	{
 		assert(populationSet != null);
 		studySetResultList = new StudySetResultList();
 
+		if (calculation instanceof AbstractPValueBasedCalculation)
+		{
+			AbstractPValueBasedCalculation pValueCalculation = (AbstractPValueBasedCalculation)calculation;
+			pValueCalculation.setNumberOfTermThreads(studySetList.size() == 1 ? numberOfThreads : 1);
+			for (EnrichedGOTermsResult result : pValueCalculation.calculateStudySets(getPreparedPopulation(), studySetList, testCorrection, numberOfThreads))
+				studySetResultList.addStudySetResult(result);
+
+			for (StudySet studySet : studySetList)
+				studySet.resetCounterAndEnumerator();
+
+			studySetResultIter = studySetResultList.iterator();
+			return;
+		}
+
 		for (StudySet studySet : studySetList)
 		{
 			studySetResultList.addStudySetResult(
@@ -287,13 +343,20 @@ public class OntologizerCore
 			 */
 			studySet.resetCounterAndEnumerator();
 		}
+
+		studySetResultIter = studySetResultList.iterator();
 	}
 
 	private Iterator<StudySet> studySetIter;
 
+	/** Iterator over the results of calculate(), if it was called */
+	private Iterator<EnrichedGOTermsResult> studySetResultIter;
+
 	/**
 	 * Perform the statistical calculation of the next study. When called
-	 * first, the first study is considered as the next study.
+	 * first, the first study is considered as the next study. If all
+	 * studies have been calculated already via calculate(), the next
+	 * result is returned.
 	 *
 	 * @return the result of the calculation or null, if no more studies
 	 *         are available.
@@ -301,6 +364,13 @@ public class OntologizerCore
 	public EnrichedGOTermsResult calculateNextStudy()
 	{
 		assert(populationSet != null);
+		if (studySetResultIter != null)
+		{
+			if (!studySetResultIter.hasNext())
+				return null;
+			return studySetResultIter.next();
+		}
+
 		if (studySetIter == null) studySetIter = studySetList.iterator();
 		if (!studySetIter.hasNext())
 		{
@@ -308,7 +378,11 @@ public class OntologizerCore
 		}
 
 		StudySet studySet = studySetIter.next();
-		EnrichedGOTermsResult studySetResult = calculation.calculateStudySet(goGraph,goAssociations,populationSet,studySet,testCorrection);
+		EnrichedGOTermsResult studySetResult;
+		if (calculation instanceof AbstractPValueBasedCalculation)
+			studySetResult = ((AbstractPValueBasedCalculation)calculation).calculateStudySet(getPreparedPopulation(),studySet,testCorrection);
+		else
+			studySetResult = calculation.calculateStudySet(goGraph,goAssociations,populationSet,studySet,testCorrection);
 
 		/* Reset the counter and enumerator items here. It is not necessarily
 		 * nice to place it here, but for the moment it's the easiest way
@@ -1,12 +1,21 @@
 package ontologizer.calculation;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 import ontologizer.association.AssociationContainer;
 import ontologizer.ontology.Ontology;
 import ontologizer.set.PopulationSet;
 import ontologizer.set.StudySet;
+import ontologizer.statistics.AbstractResamplingTestCorrection;
 import ontologizer.statistics.AbstractTestCorrection;
 import ontologizer.statistics.Hypergeometric;
+import ontologizer.statistics.HypergeometricCache;
 import ontologizer.statistics.IPValueCalculation;
+import ontologizer.statistics.IResampling;
 import ontologizer.statistics.PValue;
 
 /**
@@ -19,18 +28,19 @@ public abstract class AbstractPValueBasedCalculation extends AbstractHypergeomet
 {
 	private ICalculationProgress calculationProgress;
 
+	/** The number of threads that evaluate the terms of a single study set */
+	private int numberOfTermThreads = 1;
+
 	/**
 	 * Return a new p-value calculation instance.
 	 *
-	 * @param graph the graph
-	 * @param associations the associations.
-	 * @param populationSet the underlying population set
+	 * @param population the prepared population, which also provides the
+	 *  graph and the associations.
 	 * @param studySet the study set
 	 * @param hyperg instance of a helper class for the hypergeometric distribution.
 	 * @return
 	 */
-	protected abstract IPValueCalculation newPValueCalculation(Ontology graph,
-			AssociationContainer associations, PopulationSet populationSet,
+	protected abstract IPValueCalculation newPValueCalculation(PreparedPopulation population,
 			StudySet studySet, Hypergeometric hyperg);
 
 	@Override
@@ -41,11 +51,143 @@ public abstract class AbstractPValueBasedCalculation extends AbstractHypergeomet
 			StudySet studySet,
 			AbstractTestCorrection testCorrection)
 	{
+		return calculateStudySet(new PreparedPopulation(graph, associations, populationSet), studySet, testCorrection, calculationProgress);
+	}
+
+	/**
+	 * Perform the enrichment calculation on the given study set with a
+	 * population that has been prepared in advance. Use this if many study
+	 * sets are to be evaluated against the same population.
+	 *
+	 * @param population the prepared population
+	 * @param studySet the study set
+	 * @param testCorrection the test correction that should be used.
+	 * @return the result of the calculation
+	 */
+	public EnrichedGOTermsResult calculateStudySet(
+			PreparedPopulation population,
+			StudySet studySet,
+			AbstractTestCorrection testCorrection)
+	{
+		return calculateStudySet(population, studySet, testCorrection, calculationProgress);
+	}
+
+	/**
+	 * Perform the enrichment calculation on all of the given study sets. The
+	 * population is prepared only once and shared by all study sets. If
+	 * more than one thread is requested, the study sets are evaluated
+	 * concurrently unless a resampling based test correction is used, which
+	 * already samples concurrently and keeps its samples across study sets.
+	 *
+	 * @param graph graph that defines the ontology
+	 * @param associations the association to use
+	 * @param populationSet the population set (contains all possible items)
+	 * @param studySets the study sets
+	 * @param testCorrection the test correction that should be used.
+	 * @param numberOfThreads the number of threads to use.
+	 * @return the results in the order of the study sets.
+	 */
+	public List<EnrichedGOTermsResult> calculateStudySets(
+			Ontology graph,
+			AssociationContainer associations,
+			PopulationSet populationSet,
+			Iterable<StudySet> studySets,
+			AbstractTestCorrection testCorrection,
+			int numberOfThreads)
+	{
+		return calculateStudySets(new PreparedPopulation(graph, associations, populationSet), studySets, testCorrection, numberOfThreads);
+	}
+
+	/**
+	 * Perform the enrichment calculation on all of the given study sets with
+	 * a population that has been prepared in advance.
+	 *
+	 * @param population the prepared population
+	 * @param studySets the study sets
+	 * @param testCorrection the test correction that should be used.
+	 * @param numberOfThreads the number of threads to use.
+	 * @return the results in the order of the study sets.
+	 * @see #calculateStudySets(Ontology, AssociationContainer, PopulationSet, Iterable, AbstractTestCorrection, int)
+	 */
+	public List<EnrichedGOTermsResult> calculateStudySets(
+			final PreparedPopulation population,
+			Iterable<StudySet> studySets,
+			final AbstractTestCorrection testCorrection,
+			int numberOfThreads)
+	{
+		final List<StudySet> studySetList = new ArrayList<StudySet>();
+		for (StudySet studySet : studySets)
+			studySetList.add(studySet);
+
+		final EnrichedGOTermsResult [] results = new EnrichedGOTermsResult[studySetList.size()];
+
+		if (numberOfThreads <= 1 || results.length <= 1 || testCorrection instanceof IResampling)
+		{
+			for (int i = 0; i < results.length; i++)
+				results[i] = calculateStudySet(population, studySetList.get(i), testCorrection, calculationProgress);
+		} else
+		{
+			/* The progress is not forwarded as it can't handle concurrent studies */
+			final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(results.length);
+			for (int i = 0; i < results.length; i++)
+			{
+				final int study = i;
+				tasks.add(new RecursiveAction()
+				{
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute()
+					{
+						results[study] = calculateStudySet(population, studySetList.get(study), testCorrection, null);
+					}
+				});
+			}
+
+			ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+			try
+			{
+				pool.invoke(new RecursiveAction()
+				{
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute()
+					{
+						invokeAll(tasks);
+					}
+				});
+			} finally
+			{
+				pool.shutdown();
+			}
+		}
+		return Arrays.asList(results);
+	}
+
+	private EnrichedGOTermsResult calculateStudySet(
+			PreparedPopulation population,
+			StudySet studySet,
+			AbstractTestCorrection testCorrection,
+			ICalculationProgress calculationProgress)
+	{
+		Ontology graph = population.getGraph();
+		AssociationContainer associations = population.getAssociations();
+		PopulationSet populationSet = population.getPopulationSet();
+
 		EnrichedGOTermsResult studySetResult = new EnrichedGOTermsResult(graph, associations, studySet, populationSet.getGeneCount());
 		studySetResult.setCalculationName(this.getName());
 		studySetResult.setCorrectionName(testCorrection.getName());
 
-		IPValueCalculation pValueCalculation = newPValueCalculation(graph, associations, populationSet, studySet, hyperg);
+		IPValueCalculation pValueCalculation = newPValueCalculation(population, studySet, population.getHypergeometric());
+
+		if (pValueCalculation instanceof AbstractPValueCalculation)
+			((AbstractPValueCalculation)pValueCalculation).setNumberOfThreads(numberOfTermThreads);
+
+		/* Resampling evaluates the same distributions over and over again */
+		if (testCorrection instanceof AbstractResamplingTestCorrection && pValueCalculation instanceof AbstractPValueCalculation)
+			((AbstractPValueCalculation)pValueCalculation).setHypergeometricCache(new HypergeometricCache());
+
 		PValue p[] = testCorrection.adjustPValues(pValueCalculation, CalculationProgress2TestCorrectionProgress.createUnlessNull(calculationProgress));
 
 		/* Add the results to the result list and filter out terms
@@ -66,6 +208,19 @@ public abstract class AbstractPValueBasedCalculation extends AbstractHypergeomet
 		return studySetResult;
 	}
 
+	/**
+	 * Sets the number of threads that are used to evaluate the terms of a
+	 * single study set. This is independent of the number of study sets
+	 * that are evaluated concurrently.
+	 *
+	 * @param numberOfTermThreads the number of threads, 1 is the default.
+	 * @see AbstractPValueCalculation#setNumberOfThreads(int)
+	 */
+	public void setNumberOfTermThreads(int numberOfTermThreads)
+	{
+		this.numberOfTermThreads = numberOfTermThreads;
+	}
+
 	@Override
 	public final boolean supportsTestCorrection()
 	{
@@ -1,21 +1,25 @@
 package ontologizer.calculation;
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Random;
 
 import ontologizer.association.AssociationContainer;
 import ontologizer.association.ItemAssociations;
-import ontologizer.enumeration.TermAnnotations;
-import ontologizer.enumeration.TermEnumerator;
 import ontologizer.ontology.Ontology;
 import ontologizer.ontology.TermID;
 import ontologizer.set.PopulationSet;
 import ontologizer.set.StudySet;
 import ontologizer.statistics.Hypergeometric;
+import ontologizer.statistics.HypergeometricCache;
 import ontologizer.statistics.IPValueCalculation;
 import ontologizer.statistics.IPValueCalculationProgress;
 import ontologizer.statistics.PValue;
+import ontologizer.statistics.ResamplingCache;
 import ontologizer.types.ByteString;
+import ontologizer.util.Util;
 import sonumina.collections.ObjectIntHashMap;
 
 public abstract class AbstractPValueCalculation implements IPValueCalculation
@@ -26,62 +30,105 @@ public abstract class AbstractPValueCalculation implements IPValueCalculation
 	protected final StudySet observedStudySet;
 	protected final Hypergeometric hyperg;
 
-	private int totalNumberOfAnnotatedTerms;
+	/** The population specific data that may be shared with other calculations */
+	protected final PreparedPopulation population;
 
-	protected ObjectIntHashMap<ByteString> item2Index;
-	protected TermID [] termIds;
-	private ObjectIntHashMap<TermID> termId2Index;
-	protected int [][] term2Items;
+	private final int totalNumberOfAnnotatedTerms;
+	private final int totalNumberOfAnnotatedItems;
 
-	public AbstractPValueCalculation(Ontology graph,
-			AssociationContainer goAssociations, PopulationSet populationSet,
-			StudySet studySet, Hypergeometric hyperg)
-	{
-		this.graph = graph;
-		this.associations = goAssociations;
-		this.populationSet = populationSet;
-		this.observedStudySet = studySet;
-		this.hyperg = hyperg;
+	protected final ObjectIntHashMap<ByteString> item2Index;
+	protected final TermID [] termIds;
+	private final ObjectIntHashMap<TermID> termId2Index;
+	protected final int [][] term2Items;
 
-		initCalculationContext(graph, goAssociations, populationSet);
-	}
+	/** Bitsets of the items of dense terms, null for sparse terms */
+	private final long [][] term2ItemBits;
 
-	private void initCalculationContext(Ontology graph, AssociationContainer goAssociations, StudySet populationSet)
-	{
-		TermEnumerator populationTermEnumerator = populationSet.enumerateTerms(graph, goAssociations);
-		totalNumberOfAnnotatedTerms = populationTermEnumerator.getTotalNumberOfAnnotatedTerms();
+	/** Counts the study items of all terms by propagation */
+	private final StudyTermCounter studyTermCounter;
 
-		List<ByteString> itemList = populationTermEnumerator.getGenesAsList();
-		item2Index = new ObjectIntHashMap<ByteString>(itemList.size()*3/2);
-		int itemId = 0;
-		for (ByteString item : itemList)
+	/** The per-thread buffer for the study item counts of the terms */
+	private final ThreadLocal<int []> studyTermCounts = new ThreadLocal<int []>()
+	{
+		@Override
+		protected int[] initialValue()
 		{
-			item2Index.put(item, itemId++);
+			return new int[totalNumberOfAnnotatedTerms];
 		}
+	};
 
-		termIds = new TermID[totalNumberOfAnnotatedTerms];
-		term2Items = new int[totalNumberOfAnnotatedTerms][];
-
-		int i = 0;
+	/** The fingerprint, lazily calculated */
+	private String fingerprint;
 
-		for (TermID term : populationTermEnumerator)
+	/** The per-thread buffer for the bitset of the study items */
+	private final ThreadLocal<long []> studyItemBits = new ThreadLocal<long []>()
+	{
+		@Override
+		protected long[] initialValue()
 		{
-			TermAnnotations tag = populationTermEnumerator.getAnnotatedGenes(term);
-			int nTermItems = tag.totalAnnotated.size();
+			return new long[(totalNumberOfAnnotatedItems + 63) >>> 6];
+		}
+	};
 
-			term2Items[i] = new int[nTermItems];
+	/** The optional cache for the probabilities of the hypergeometric distribution */
+	private HypergeometricCache hypergCache;
 
-			int j = 0;
-			for (ByteString item : tag.totalAnnotated)
-			{
-				term2Items[i][j++] = item2Index.get(item);
-			}
+	/** Random source used by calculateRandomPValues() without explicit random source */
+	private Random rnd;
 
-			Arrays.sort(term2Items[i]);
+	/** The number of threads that evaluate the terms of a single study set */
+	private int numberOfThreads = 1;
 
-			termIds[i] = term;
-			i++;
+	/**
+	 * The buffer of item indices that is shuffled when drawing random study sets.
+	 * Indices beyond the annotated items stand for items of the population
+	 * that are not annotated. As the shuffling may happen concurrently, each
+	 * thread has its own buffer. Between draws, the buffer is the identity.
+	 */
+	private final ThreadLocal<int []> permutation = new ThreadLocal<int []>()
+	{
+		@Override
+		protected int[] initialValue()
+		{
+			int [] perm = new int[Math.max(populationSet.getGeneCount(), totalNumberOfAnnotatedItems)];
+			for (int i = 0; i < perm.length; i++)
+				perm[i] = i;
+			return perm;
 		}
+	};
+
+	public AbstractPValueCalculation(Ontology graph,
+			AssociationContainer goAssociations, PopulationSet populationSet,
+			StudySet studySet, Hypergeometric hyperg)
+	{
+		this(new PreparedPopulation(graph, goAssociations, populationSet), studySet, hyperg);
+	}
+
+	/**
+	 * Constructs the calculation for a population that has been already
+	 * prepared, e.g., for another study set.
+	 *
+	 * @param population the prepared population
+	 * @param studySet the study set
+	 * @param hyperg the hypergeometric helper to be used.
+	 */
+	public AbstractPValueCalculation(PreparedPopulation population, StudySet studySet, Hypergeometric hyperg)
+	{
+		this.population = population;
+		this.graph = population.graph;
+		this.associations = population.associations;
+		this.populationSet = population.populationSet;
+		this.observedStudySet = studySet;
+		this.hyperg = hyperg;
+
+		totalNumberOfAnnotatedTerms = population.totalNumberOfAnnotatedTerms;
+		totalNumberOfAnnotatedItems = population.totalNumberOfAnnotatedItems;
+		item2Index = population.item2Index;
+		termIds = population.termIds;
+		termId2Index = population.termId2Index;
+		term2Items = population.term2Items;
+		term2ItemBits = population.term2ItemBits;
+		studyTermCounter = population.studyTermCounter;
 	}
 
 	protected final int getTotalNumberOfAnnotatedTerms()
@@ -89,6 +136,89 @@ public abstract class AbstractPValueCalculation implements IPValueCalculation
 		return totalNumberOfAnnotatedTerms;
 	}
 
+	/**
+	 * Sets the cache that is consulted for the probabilities of the
+	 * hypergeometric distribution. This pays off if p values are calculated
+	 * for many study sets of the same size, e.g., during resampling.
+	 *
+	 * @param hypergCache the cache or null if no cache should be used.
+	 */
+	public final void setHypergeometricCache(HypergeometricCache hypergCache)
+	{
+		this.hypergCache = hypergCache;
+	}
+
+	/**
+	 * @return the cache for the probabilities of the hypergeometric
+	 *  distribution or null if there is none.
+	 */
+	public final HypergeometricCache getHypergeometricCache()
+	{
+		return hypergCache;
+	}
+
+	/**
+	 * Returns P(X &gt;= x) where X is hypergeometrically distributed with
+	 * the given parameters, possibly via the cache.
+	 *
+	 * @param hyperg the hypergeometric helper to be used.
+	 * @param N number of balls in the urn
+	 * @param M number of white balls in the urn
+	 * @param n number of balls drawn from the urn
+	 * @param x minimal number of white balls drawn
+	 * @return the probability
+	 * @see Hypergeometric#phypergeometric(int, double, int, int)
+	 */
+	protected final double phypergeometric(Hypergeometric hyperg, int N, int M, int n, int x)
+	{
+		if (hypergCache != null)
+			return hypergCache.phypergeometric(hyperg, N, M, n, x);
+		return hyperg.phypergeometric(N, (double)M / (double)N, n, x);
+	}
+
+	/**
+	 * Returns P(X = x) where X is hypergeometrically distributed with
+	 * the given parameters, possibly via the cache.
+	 *
+	 * @param hyperg the hypergeometric helper to be used.
+	 * @param x number of white balls drawn
+	 * @param N number of balls in the urn
+	 * @param M number of white balls in the urn
+	 * @param n number of balls drawn from the urn
+	 * @return the probability
+	 * @see Hypergeometric#dhyper(int, int, int, int)
+	 */
+	protected final double dhyper(Hypergeometric hyperg, int x, int N, int M, int n)
+	{
+		if (hypergCache != null)
+			return hypergCache.dhyper(hyperg, x, N, M, n);
+		return hyperg.dhyper(x, N, M, n);
+	}
+
+	/**
+	 * Sets the number of threads that are used to evaluate the terms of a
+	 * study set whose raw p values are requested. Calculations that process
+	 * terms independently or level by level make use of it. The p values
+	 * of random study sets are always calculated by the calling thread, as
+	 * these are usually requested concurrently anyway.
+	 *
+	 * @param numberOfThreads the number of threads, 1 is the default.
+	 */
+	public final void setNumberOfThreads(int numberOfThreads)
+	{
+		this.numberOfThreads = Math.max(1, numberOfThreads);
+	}
+
+	/**
+	 * @return the number of threads that are used to evaluate the terms of
+	 *  a study set.
+	 * @see #setNumberOfThreads(int)
+	 */
+	public final int getNumberOfThreads()
+	{
+		return numberOfThreads;
+	}
+
 	public final int currentStudySetSize()
 	{
 		return observedStudySet.getGeneCount();
@@ -100,25 +230,227 @@ public abstract class AbstractPValueCalculation implements IPValueCalculation
 	}
 
 	/**
-	 * Calculate the p-values for the given study set. The study set must not be the same
-	 * as the observed study set.
+	 * Calculate the p-values for the given study set.
 	 *
-	 * @param studySet the studyset.
+	 * @param studyIds the sorted indices of the annotated items of the study set.
+	 * @param studyGeneCount the total number of items in the study set including
+	 *  the items that are not annotated.
+	 * @param hyperg the hypergeometric helper to be used.
 	 * @param progress the progress,
 	 * @return the array of p-values.
 	 */
-	protected abstract PValue [] calculatePValues(StudySet studySet, IPValueCalculationProgress progress);
+	protected abstract PValue [] calculatePValues(int [] studyIds, int studyGeneCount, Hypergeometric hyperg, IPValueCalculationProgress progress);
+
+	/**
+	 * Calculate the p-values for the given study set but store only the p values and
+	 * the ignoreAtMTC flags. P values that are to be ignored must be set to 1.0.
+	 *
+	 * @param studyIds the sorted indices of the annotated items of the study set.
+	 * @param studyGeneCount the total number of items in the study set including
+	 *  the items that are not annotated.
+	 * @param hyperg the hypergeometric helper to be used.
+	 * @param p the array in which the p values are stored.
+	 * @param ignoreAtMTC the array in which the ignoreAtMTC flags are stored.
+	 */
+	protected abstract void calculatePValues(int [] studyIds, int studyGeneCount, Hypergeometric hyperg, double [] p, boolean [] ignoreAtMTC);
 
 	public final PValue[] calculateRawPValues(IPValueCalculationProgress progress)
 	{
-		return calculatePValues(observedStudySet, progress);
+		return calculatePValues(getUniqueIDs(observedStudySet), observedStudySet.getGeneCount(), hyperg, progress);
 	}
 
 	public final PValue[] calculateRandomPValues(IPValueCalculationProgress progress)
 	{
-		return calculatePValues(populationSet.generateRandomStudySet(observedStudySet.getGeneCount()), progress);
+		synchronized (this)
+		{
+			if (rnd == null)
+				rnd = new Random();
+		}
+		return calculateRandomPValues(rnd, hyperg, progress);
 	}
 
+	public final PValue[] calculateRandomPValues(Random rnd, Hypergeometric hyperg, IPValueCalculationProgress progress)
+	{
+		int studyGeneCount = observedStudySet.getGeneCount();
+		return calculatePValues(drawRandomIDs(studyGeneCount, rnd), studyGeneCount, hyperg, progress);
+	}
+
+	public final void calculateRandomPValues(Random rnd, Hypergeometric hyperg, double [] p, boolean [] ignoreAtMTC)
+	{
+		int studyGeneCount = observedStudySet.getGeneCount();
+		calculatePValues(drawRandomIDs(studyGeneCount, rnd), studyGeneCount, hyperg, p, ignoreAtMTC);
+	}
+
+	/**
+	 * Draws a random study set of the given size from the population and
+	 * returns the unique id representation of it. This is done directly
+	 * on the item indices via a partial Fisher-Yates shuffle, i.e., without
+	 * constructing a study set.
+	 *
+	 * @param size the size of the study set to draw.
+	 * @param rnd the random source to use.
+	 * @return the sorted indices of the annotated items of the random study set.
+	 */
+	protected final int [] drawRandomIDs(int size, Random rnd)
+	{
+		int [] perm = permutation.get();
+		int n = perm.length;
+		if (size > n) size = n;
+
+		/* The swaps are undone afterwards, so each draw starts with the
+		 * identity. Otherwise, the drawn set would depend on the previous
+		 * draws of the thread and not only on the random source. */
+		int [] swaps = new int[size];
+		for (int i = 0; i < size; i++)
+		{
+			int j = i + rnd.nextInt(n - i);
+			int tmp = perm[i];
+			perm[i] = perm[j];
+			perm[j] = tmp;
+			swaps[i] = j;
+		}
+
+		int [] drawn = Arrays.copyOf(perm, size);
+
+		for (int i = size - 1; i >= 0; i--)
+		{
+			int j = swaps[i];
+			int tmp = perm[i];
+			perm[i] = perm[j];
+			perm[j] = tmp;
+		}
+
+		/* Sort the drawn indices so that the annotated ones come first */
+		Arrays.sort(drawn);
+
+		int mappedStudyItems = 0;
+		while (mappedStudyItems < size && drawn[mappedStudyItems] < totalNumberOfAnnotatedItems)
+			mappedStudyItems++;
+
+		return Arrays.copyOf(drawn, mappedStudyItems);
+	}
+
+
+	public final synchronized String getFingerprint()
+	{
+		if (fingerprint == null)
+		{
+			try
+			{
+				MessageDigest md = MessageDigest.getInstance("SHA-1");
+				updateFingerprint(md);
+				fingerprint = ResamplingCache.toHex(md.digest());
+			} catch (NoSuchAlgorithmException e)
+			{
+				return null;
+			} catch (UnsupportedEncodingException e)
+			{
+				return null;
+			}
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Feeds everything the random p values depend on into the given digest.
+	 * That is the kind of calculation, the size of the population and the
+	 * annotations of the population. Subclasses that depend on more
+	 * information, e.g., on the structure of the ontology, should override
+	 * this method.
+	 *
+	 * @param md the digest to update
+	 * @throws UnsupportedEncodingException
+	 */
+	protected void updateFingerprint(MessageDigest md) throws UnsupportedEncodingException
+	{
+		md.update(getClass().getName().getBytes("UTF-8"));
+		updateFingerprint(md, populationSet.getGeneCount());
+		updateFingerprint(md, totalNumberOfAnnotatedItems);
+		updateFingerprint(md, termIds.length);
+		for (int i = 0; i < termIds.length; i++)
+		{
+			md.update(termIds[i].toString().getBytes("UTF-8"));
+			updateFingerprint(md, term2Items[i].length);
+			for (int item : term2Items[i])
+				updateFingerprint(md, item);
+		}
+	}
+
+	/**
+	 * Feeds the given integer into the digest.
+	 *
+	 * @param md the digest to update
+	 * @param v the value
+	 */
+	protected static void updateFingerprint(MessageDigest md, int v)
+	{
+		md.update((byte)(v >>> 24));
+		md.update((byte)(v >>> 16));
+		md.update((byte)(v >>> 8));
+		md.update((byte)v);
+	}
+
+	/**
+	 * Determines for every term the number of items of the study set that are
+	 * annotated to it. Depending on what is expected to be cheaper, the counts
+	 * are either propagated from the study items to their terms or determined
+	 * by intersecting the study set with the items of every term. The first
+	 * is usually better for small study sets.
+	 *
+	 * @param studyIds the sorted study ids
+	 * @return the counts indexed by the term index. The array is reused by
+	 *  subsequent calls of the same thread.
+	 */
+	protected final int [] countStudyItems(int [] studyIds)
+	{
+		int [] counts = studyTermCounts.get();
+
+		long propagationCost = studyTermCounter.getNumberOfAnnotations(studyIds);
+		if (propagationCost <= population.intersectionCost + (long)population.numberOfSparseTerms * studyIds.length)
+		{
+			studyTermCounter.count(studyIds, counts);
+		} else
+		{
+			long [] studyBits = getStudyItemBits(studyIds);
+			for (int i = 0; i < termIds.length; i++)
+				counts[i] = countStudyTermItems(studyIds, studyBits, i);
+		}
+		return counts;
+	}
+
+	/**
+	 * Returns the bitset representation of the given study ids, if it is
+	 * needed for counting via {@link #countStudyTermItems(int[], long[], int)}.
+	 * The returned array is reused by subsequent calls of the same thread.
+	 *
+	 * @param studyIds the sorted study ids
+	 * @return the bitset
+	 */
+	protected final long [] getStudyItemBits(int [] studyIds)
+	{
+		long [] bits = studyItemBits.get();
+		Util.toBits(bits, studyIds);
+		return bits;
+	}
+
+	/**
+	 * Returns the number of items of the study that are annotated to the term
+	 * with the given index. Depending on the density of the term, it is
+	 * determined via intersecting the sorted arrays or via popcount.
+	 *
+	 * @param studyIds the sorted study ids
+	 * @param studyBits the bitset representation of the study ids as returned
+	 *  by {@link #getStudyItemBits(int[])}
+	 * @param termIndex the index of the term
+	 * @return the number of study items that are annotated to the term.
+	 */
+	private int countStudyTermItems(int [] studyIds, long [] studyBits, int termIndex)
+	{
+		long [] termBits = term2ItemBits[termIndex];
+		if (termBits != null)
+			return Util.commonBits(studyBits, termBits);
+		return Util.commonInts(studyIds, term2Items[termIndex]);
+	}
 
 	/**
 	 * Get a unique id representation of the given study set.
@@ -167,12 +499,6 @@ public abstract class AbstractPValueCalculation implements IPValueCalculation
 	 */
 	protected final int getIndex(TermID tid)
 	{
-		if (termId2Index == null)
-		{
-			termId2Index = new ObjectIntHashMap<TermID>(termIds.length);
-			for (int i = 0; i < termIds.length; i++)
-				termId2Index.put(termIds[i], i);
-		}
-		return termId2Index.getIfAbsentPut(tid, Integer.MAX_VALUE);
+		return termId2Index.getIfAbsent(tid, Integer.MAX_VALUE);
 	}
 }
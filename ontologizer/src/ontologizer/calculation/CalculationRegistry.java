@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 
 import ontologizer.calculation.b2g.Bayes2GOCalculation;
+import ontologizer.calculation.b2g.ParallelTemperingCalculation;
 
 /**
  *
@@ -96,6 +97,7 @@ public class CalculationRegistry
 		registerCalculation(new TopCalculation());
 		registerCalculation(new TopologyWeightedCalculation());
 		registerCalculation(new Bayes2GOCalculation());
+		registerCalculation(new ParallelTemperingCalculation());
 
 		if (experimentalActivated())
 		{
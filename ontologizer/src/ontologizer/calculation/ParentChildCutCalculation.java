@@ -1,8 +1,5 @@
 package ontologizer.calculation;
 
-import ontologizer.association.AssociationContainer;
-import ontologizer.ontology.Ontology;
-import ontologizer.set.PopulationSet;
 import ontologizer.set.StudySet;
 import ontologizer.statistics.Hypergeometric;
 import ontologizer.statistics.IPValueCalculation;
@@ -24,10 +21,9 @@ public class ParentChildCutCalculation extends AbstractPValueBasedCalculation im
 	}
 
 	@Override
-	protected IPValueCalculation newPValueCalculation(Ontology graph,
-			AssociationContainer goAssociations, PopulationSet populationSet,
+	protected IPValueCalculation newPValueCalculation(PreparedPopulation population,
 			StudySet studySet, Hypergeometric hyperg)
 	{
-		return new ParentChildIntersectionPValueCalculation(graph, goAssociations,populationSet, studySet, hyperg);
+		return new ParentChildIntersectionPValueCalculation(population, studySet, hyperg);
 	}
 }
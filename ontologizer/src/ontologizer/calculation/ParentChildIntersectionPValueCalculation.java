@@ -2,11 +2,9 @@ package ontologizer.calculation;
 
 import ontologizer.association.AssociationContainer;
 import ontologizer.ontology.Ontology;
-import ontologizer.ontology.Term;
 import ontologizer.set.PopulationSet;
 import ontologizer.set.StudySet;
 import ontologizer.statistics.Hypergeometric;
-import ontologizer.util.Util;
 
 public class ParentChildIntersectionPValueCalculation extends ParentChildPValuesCalculation
 {
@@ -17,28 +15,14 @@ public class ParentChildIntersectionPValueCalculation extends ParentChildPValues
 		super(graph, goAssociations, populationSet, studySet, hyperg);
 	}
 
-	@Override
-	protected Counts getCounts(int[] studyIds, Term term)
+	public ParentChildIntersectionPValueCalculation(PreparedPopulation population, StudySet studySet, Hypergeometric hyperg)
 	{
-		int slimIndex = slimGraph.getVertexIndex(term);
-		int [] parents = slimGraph.vertexParents[slimIndex];
-		int [][] parentItems = new int[parents.length][];
-
-		int i = 0;
-		for (int parent : parents)
-		{
-			parentItems[i++] = term2Items[getIndex(slimGraph.getVertex(parent).getID())];
-		}
-
-		int [][] allItems = new int[parents.length + 1][];
-		for (i=0;i<parents.length;i++)
-		{
-			allItems[i] =  parentItems[i];
-		}
-		allItems[i] = studyIds;
+		super(population, studySet, hyperg);
+	}
 
-		/* number of genes annotated to family (term and parents) */
-		Counts counts = new Counts(parents.length, Util.commonInts(allItems), Util.commonInts(parentItems));
-		return counts;
+	@Override
+	ParentFamilies getParentFamilies()
+	{
+		return population.getParentIntersections();
 	}
 }
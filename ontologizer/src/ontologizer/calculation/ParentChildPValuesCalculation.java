@@ -1,5 +1,8 @@
 package ontologizer.calculation;
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+
 import ontologizer.association.AssociationContainer;
 import ontologizer.ontology.Ontology;
 import ontologizer.ontology.Term;
@@ -9,7 +12,6 @@ import ontologizer.set.StudySet;
 import ontologizer.statistics.Hypergeometric;
 import ontologizer.statistics.IPValueCalculationProgress;
 import ontologizer.statistics.PValue;
-import ontologizer.util.Util;
 import sonumina.math.graph.SlimDirectedGraphView;
 
 /**
@@ -25,7 +27,7 @@ abstract class ParentChildPValuesCalculation extends AbstractPValueCalculation
 	protected SlimDirectedGraphView<Term> slimGraph;
 
 	/**
-	 * Return value type for getCounts().
+	 * Return value type for ParentFamilies.getCounts().
 	 *
 	 * @author Sebastian Bauer
 	 */
@@ -49,33 +51,75 @@ abstract class ParentChildPValuesCalculation extends AbstractPValueCalculation
 	{
 		super(graph, goAssociations, populationSet, studySet, hyperg);
 
-		slimGraph = graph.getSlimGraphView();
+		slimGraph = population.getSlimGraph();
 	}
 
-	protected PValue [] calculatePValues(StudySet studySet, IPValueCalculationProgress progress)
+	public ParentChildPValuesCalculation(PreparedPopulation population, StudySet studySet, Hypergeometric hyperg)
 	{
-		int[] studyIds = getUniqueIDs(studySet);
+		super(population, studySet, hyperg);
 
-		PValue p [] = new PValue[getTotalNumberOfAnnotatedTerms()];
+		slimGraph = population.getSlimGraph();
+	}
 
-		for (int i = 0; i < termIds.length; i++)
+	protected PValue [] calculatePValues(final int [] studyIds, int studyGeneCount, final Hypergeometric hyperg, IPValueCalculationProgress progress)
+	{
+		final int [] studyTermCounts = countStudyItems(studyIds);
+		final ParentFamilies families = getParentFamilies();
+		final long [] studyBits = families.hasDenseFamilies() ? getStudyItemBits(studyIds) : null;
+		final PValue p [] = new PValue[getTotalNumberOfAnnotatedTerms()];
+
+		/* The terms don't depend on each other, so they can be processed in any order */
+		population.getTermDAGScheduler().runBottomUp(new TermDAGScheduler.TermTask()
 		{
-			if (progress != null && (i % 256) == 0)
+			@Override
+			void process(int i)
 			{
-				progress.update(i);
+				p[i] = calculateTerm(families, studyIds, studyBits, studyTermCounts[i], i, hyperg);
 			}
-
-			p[i] = calculateTerm(studyIds, i);
-		}
+		}, getNumberOfThreads(), progress);
 
 		return p;
 	}
 
-	private ParentChildGOTermProperties calculateTerm(int [] studyIds, int termIndex)
+	protected void calculatePValues(int [] studyIds, int studyGeneCount, Hypergeometric hyperg, double [] p, boolean [] ignoreAtMTC)
+	{
+		int [] studyTermCounts = countStudyItems(studyIds);
+		ParentFamilies families = getParentFamilies();
+		long [] studyBits = families.hasDenseFamilies() ? getStudyItemBits(studyIds) : null;
+
+		for (int i = 0; i < termIds.length; i++)
+		{
+			TermID termId = termIds[i];
+			int studyTermCount;
+
+			p[i] = 1.0;
+			ignoreAtMTC[i] = true;
+
+			/* Same conditions as in calculateTerm() but with the cheapest ones first */
+			if (graph.isRootTerm(termId))
+				continue;
+
+			if ((studyTermCount = studyTermCounts[i]) == 0)
+				continue;
+
+			int popTermCount = term2Items[i].length;
+			Counts counts = families.getCounts(studyIds, studyBits, i);
+			if (counts.popFamilyCount == popTermCount)
+				continue;
+
+			p[i] = phypergeometric(hyperg,
+					counts.popFamilyCount,
+					popTermCount,
+					counts.studyFamilyCount,
+					studyTermCount);
+			ignoreAtMTC[i] = false;
+		}
+	}
+
+	private ParentChildGOTermProperties calculateTerm(ParentFamilies families, int [] studyIds, long [] studyBits, int studyTermCount, int termIndex, Hypergeometric hyperg)
 	{
 		TermID termId = termIds[termIndex];
 		// counts annotated to term
-		int studyTermCount = Util.commonInts(studyIds, term2Items[termIndex]);
 		int popTermCount = term2Items[termIndex].length;
 
 		// this is what we give back
@@ -93,7 +137,7 @@ abstract class ParentChildPValuesCalculation extends AbstractPValueCalculation
 			prop.p_min = 1.0;
 		} else
 		{
-			Counts counts = getCounts(studyIds, graph.getTerm(termId));
+			Counts counts = families.getCounts(studyIds, studyBits, termIndex);
 
 			int studyFamilyCount = counts.studyFamilyCount;
 			int popFamilyCount = counts.popFamilyCount;
@@ -112,15 +156,15 @@ abstract class ParentChildPValuesCalculation extends AbstractPValueCalculation
 					prop.p_min = 1.0;
 				} else
 				{
-					double p = hyperg.phypergeometric(
+					double p = phypergeometric(hyperg,
 							popFamilyCount,
-							(double)popTermCount / (double)popFamilyCount,
+							popTermCount,
 							studyFamilyCount,
 							studyTermCount);
 
 					prop.ignoreAtMTC = false;
 					prop.p = p;
-					prop.p_min = hyperg.dhyper(
+					prop.p_min = dhyper(hyperg,
 							popTermCount,
 							popFamilyCount,
 							popTermCount,
@@ -138,12 +182,26 @@ abstract class ParentChildPValuesCalculation extends AbstractPValueCalculation
 		return prop;
 	}
 
+	@Override
+	protected void updateFingerprint(MessageDigest md) throws UnsupportedEncodingException
+	{
+		super.updateFingerprint(md);
+
+		/* The p values also depend on the parents of the terms */
+		for (int i = 0; i < termIds.length; i++)
+		{
+			int [] parents = slimGraph.vertexParents[slimGraph.getVertexIndex(graph.getTerm(termIds[i]))];
+			updateFingerprint(md, parents.length);
+			for (int parent : parents)
+				updateFingerprint(md, getIndex(slimGraph.getVertex(parent).getID()));
+		}
+	}
+
 	/**
-	 * Calculate the counts for the given study set ids for the term.
+	 * Returns the families of the parents of the terms, which determine the
+	 * population and the study set against which a term is tested.
 	 *
-	 * @param studyIds the study sets
-	 * @param term the term for which the counts shall be determined.
-	 * @return the count structure.
+	 * @return the precomputed families.
 	 */
-	protected abstract Counts getCounts(int[] studyIds, Term term);
-};
+	abstract ParentFamilies getParentFamilies();
+}
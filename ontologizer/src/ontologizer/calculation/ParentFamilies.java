@@ -0,0 +1,134 @@
+package ontologizer.calculation;
+
+import java.util.Arrays;
+
+import ontologizer.util.Util;
+
+/**
+ * The items of the parent family of every term, i.e., the union or the
+ * intersection of the items of the parents of the term. They only depend
+ * on the population, so they are determined once. Like the items of the
+ * terms, dense families are kept as bitsets and sparse families as sorted
+ * arrays.
+ */
+class ParentFamilies
+{
+	/** The number of parents of each term */
+	private final int [] numberOfParents;
+
+	/** The number of items of each family */
+	private final int [] familySize;
+
+	/** The sorted items of each sparse family, null for dense families and terms without parents */
+	private final int [][] family2Items;
+
+	/** The bitset of the items of each dense family, null for sparse families */
+	private final long [][] family2ItemBits;
+
+	/** Whether there is at least one dense family */
+	private final boolean hasDenseFamilies;
+
+	/**
+	 * Determines the families.
+	 *
+	 * @param term2Items the sorted items of each term
+	 * @param termParents the parents of each term
+	 * @param numberOfItems the total number of items
+	 * @param union whether the family is the union of the items of the
+	 *  parents rather than the intersection.
+	 */
+	ParentFamilies(int [][] term2Items, int [][] termParents, int numberOfItems, boolean union)
+	{
+		int n = term2Items.length;
+		numberOfParents = new int[n];
+		familySize = new int[n];
+		family2Items = new int[n][];
+		family2ItemBits = new long[n][];
+
+		boolean hasDenseFamilies = false;
+		int [] buf = new int[numberOfItems];
+		for (int t = 0; t < n; t++)
+		{
+			int [] parents = termParents[t];
+			numberOfParents[t] = parents.length;
+			if (parents.length == 0)
+				continue;
+
+			int [] items = term2Items[parents[0]];
+			for (int i = 1; i < parents.length; i++)
+			{
+				if (union) items = Util.union(items, term2Items[parents[i]]);
+				else items = intersection(items, term2Items[parents[i]], buf);
+			}
+
+			familySize[t] = items.length;
+			if ((long)items.length * PreparedPopulation.BITSET_DENSITY >= numberOfItems)
+			{
+				family2ItemBits[t] = Util.toBits(items, numberOfItems);
+				hasDenseFamilies = true;
+			} else
+			{
+				family2Items[t] = items;
+			}
+		}
+		this.hasDenseFamilies = hasDenseFamilies;
+	}
+
+	/**
+	 * Returns the intersection of both sorted arrays.
+	 *
+	 * @param a sorted array number one
+	 * @param b sorted array number two
+	 * @param buf buffer that is large enough to hold the intersection
+	 * @return the intersection
+	 */
+	private static int [] intersection(int [] a, int [] b, int [] buf)
+	{
+		int k = 0;
+		for (int i = 0, j = 0; i < a.length && j < b.length;)
+		{
+			if (a[i] < b[j]) i++;
+			else if (a[i] > b[j]) j++;
+			else
+			{
+				buf[k++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(buf, k);
+	}
+
+	/**
+	 * @return whether counting requires the bitset representation of the
+	 *  study set.
+	 */
+	boolean hasDenseFamilies()
+	{
+		return hasDenseFamilies;
+	}
+
+	/**
+	 * Returns the counts of the family of the given term. For terms without
+	 * parents, the family of the population is empty while all study items
+	 * are counted.
+	 *
+	 * @param studyIds the sorted study ids
+	 * @param studyBits the bitset of the study ids, only required if there
+	 *  are dense families.
+	 * @param termIndex the index of the term
+	 * @return the counts
+	 */
+	ParentChildPValuesCalculation.Counts getCounts(int [] studyIds, long [] studyBits, int termIndex)
+	{
+		int studyFamilyCount;
+		if (numberOfParents[termIndex] == 0)
+			studyFamilyCount = studyIds.length;
+		else if (family2ItemBits[termIndex] != null)
+			studyFamilyCount = Util.commonBits(studyBits, family2ItemBits[termIndex]);
+		else
+			studyFamilyCount = Util.commonInts(studyIds, family2Items[termIndex]);
+
+		return new ParentChildPValuesCalculation.Counts(numberOfParents[termIndex], studyFamilyCount, familySize[termIndex]);
+	}
+}
@@ -0,0 +1,269 @@
+package ontologizer.calculation;
+
+import java.util.Arrays;
+import java.util.List;
+
+import ontologizer.association.AssociationContainer;
+import ontologizer.enumeration.TermAnnotations;
+import ontologizer.enumeration.TermEnumerator;
+import ontologizer.ontology.Ontology;
+import ontologizer.ontology.Term;
+import ontologizer.ontology.TermID;
+import ontologizer.set.PopulationSet;
+import ontologizer.statistics.Hypergeometric;
+import ontologizer.types.ByteString;
+import ontologizer.util.Util;
+import sonumina.collections.ObjectIntHashMap;
+import sonumina.math.graph.SlimDirectedGraphView;
+
+/**
+ * The parts of a p-value calculation that depend only on the population,
+ * i.e., the indices of the items and terms and the items of every term.
+ * As they don't depend on the study set, an instance can be created once
+ * and then be shared by the calculations of many study sets, also by
+ * concurrent ones. The indices and the items of the terms are determined
+ * on construction. Derived structures such as the slim graph, the term DAG
+ * with its scheduler and the parent families are created lazily on first
+ * use. Their accessors are synchronized, so they are created only once even
+ * if several threads ask for them concurrently.
+ *
+ * Note that the population set must not be changed after it has been
+ * prepared.
+ */
+public class PreparedPopulation
+{
+	/** Terms with at least number of items / BITSET_DENSITY items get a bitset */
+	static final int BITSET_DENSITY = 32;
+
+	final Ontology graph;
+	final AssociationContainer associations;
+	final PopulationSet populationSet;
+
+	final int totalNumberOfAnnotatedTerms;
+	final int totalNumberOfAnnotatedItems;
+
+	final ObjectIntHashMap<ByteString> item2Index;
+	final TermID [] termIds;
+	final ObjectIntHashMap<TermID> termId2Index;
+	final int [][] term2Items;
+
+	/**
+	 * Terms with many items additionally get a bitset representation of their
+	 * items, i.e., this is the bitset of the items of the term or null if the
+	 * term is sparse.
+	 */
+	final long [][] term2ItemBits;
+
+	/** Counts the study items of all terms by propagation */
+	final StudyTermCounter studyTermCounter;
+
+	/** The hypergeometric helper whose log factorial table covers the population */
+	private final Hypergeometric hyperg;
+
+	/**
+	 * The cost of counting the study items of all terms by intersection is
+	 * estimated as intersectionCost + numberOfSparseTerms * size of the study set.
+	 */
+	final long intersectionCost;
+	final int numberOfSparseTerms;
+
+	/** The slim view of the graph, lazily created */
+	private SlimDirectedGraphView<Term> slimGraph;
+
+	/** The structure of the annotated terms, lazily created */
+	private TermDAG termDAG;
+
+	/** The scheduler for the annotated terms, lazily created */
+	private TermDAGScheduler termDAGScheduler;
+
+	/** The unions and intersections of the items of the parents, lazily created */
+	private ParentFamilies parentUnions;
+	private ParentFamilies parentIntersections;
+
+	/**
+	 * Prepares the given population.
+	 *
+	 * @param graph the ontology
+	 * @param associations the associations
+	 * @param populationSet the population
+	 */
+	public PreparedPopulation(Ontology graph, AssociationContainer associations, PopulationSet populationSet)
+	{
+		this.graph = graph;
+		this.associations = associations;
+		this.populationSet = populationSet;
+
+		TermEnumerator populationTermEnumerator = populationSet.enumerateTerms(graph, associations);
+		totalNumberOfAnnotatedTerms = populationTermEnumerator.getTotalNumberOfAnnotatedTerms();
+
+		List<ByteString> itemList = populationTermEnumerator.getGenesAsList();
+		totalNumberOfAnnotatedItems = itemList.size();
+		hyperg = new Hypergeometric(Math.max(populationSet.getGeneCount(), totalNumberOfAnnotatedItems));
+		item2Index = new ObjectIntHashMap<ByteString>(itemList.size()*3/2);
+		int itemId = 0;
+		for (ByteString item : itemList)
+		{
+			item2Index.put(item, itemId++);
+		}
+
+		termIds = new TermID[totalNumberOfAnnotatedTerms];
+		term2Items = new int[totalNumberOfAnnotatedTerms][];
+
+		int i = 0;
+
+		for (TermID term : populationTermEnumerator)
+		{
+			TermAnnotations tag = populationTermEnumerator.getAnnotatedGenes(term);
+			int nTermItems = tag.totalAnnotated.size();
+
+			term2Items[i] = new int[nTermItems];
+
+			int j = 0;
+			for (ByteString item : tag.totalAnnotated)
+			{
+				term2Items[i][j++] = item2Index.get(item);
+			}
+
+			Arrays.sort(term2Items[i]);
+
+			termIds[i] = term;
+			i++;
+		}
+
+		/* Dense terms get a bitset. Intersecting bitsets takes time proportional
+		 * to the number of items / 64, merging sorted arrays takes time proportional
+		 * to the size of the arrays */
+		long intersectionCost = 0;
+		int numberOfSparseTerms = 0;
+		term2ItemBits = new long[totalNumberOfAnnotatedTerms][];
+		for (i = 0; i < termIds.length; i++)
+		{
+			if ((long)term2Items[i].length * BITSET_DENSITY >= totalNumberOfAnnotatedItems)
+			{
+				term2ItemBits[i] = Util.toBits(term2Items[i], totalNumberOfAnnotatedItems);
+				intersectionCost += term2ItemBits[i].length;
+			} else
+			{
+				intersectionCost += term2Items[i].length;
+				numberOfSparseTerms++;
+			}
+		}
+		this.intersectionCost = intersectionCost;
+		this.numberOfSparseTerms = numberOfSparseTerms;
+
+		studyTermCounter = StudyTermCounter.create(term2Items, totalNumberOfAnnotatedItems);
+
+		termId2Index = new ObjectIntHashMap<TermID>(termIds.length);
+		for (i = 0; i < termIds.length; i++)
+			termId2Index.put(termIds[i], i);
+	}
+
+	/**
+	 * Returns whether this instance has been prepared for the given
+	 * arguments.
+	 *
+	 * @param graph the ontology
+	 * @param associations the associations
+	 * @param populationSet the population
+	 * @return whether the instance can be used for the given arguments.
+	 */
+	public boolean isPreparedFor(Ontology graph, AssociationContainer associations, PopulationSet populationSet)
+	{
+		return this.graph == graph && this.associations == associations && this.populationSet == populationSet;
+	}
+
+	public Ontology getGraph()
+	{
+		return graph;
+	}
+
+	public AssociationContainer getAssociations()
+	{
+		return associations;
+	}
+
+	public PopulationSet getPopulationSet()
+	{
+		return populationSet;
+	}
+
+	/**
+	 * @return the number of terms that are annotated to at least one item
+	 *  of the population.
+	 */
+	public int getTotalNumberOfAnnotatedTerms()
+	{
+		return totalNumberOfAnnotatedTerms;
+	}
+
+	/**
+	 * @return the number of items of the population that are annotated.
+	 */
+	public int getTotalNumberOfAnnotatedItems()
+	{
+		return totalNumberOfAnnotatedItems;
+	}
+
+	/**
+	 * @return the hypergeometric helper for the population. It is
+	 *  presized, so calculations on the population only look up the log
+	 *  factorials.
+	 */
+	public Hypergeometric getHypergeometric()
+	{
+		return hyperg;
+	}
+
+	/**
+	 * @return the slim view of the graph.
+	 */
+	public synchronized SlimDirectedGraphView<Term> getSlimGraph()
+	{
+		if (slimGraph == null)
+			slimGraph = graph.getSlimGraphView();
+		return slimGraph;
+	}
+
+	/**
+	 * @return the structure of the annotated terms in terms of the term
+	 *  indices.
+	 */
+	synchronized TermDAG getTermDAG()
+	{
+		if (termDAG == null)
+			termDAG = new TermDAG(graph, getSlimGraph(), termIds, termId2Index);
+		return termDAG;
+	}
+
+	/**
+	 * @return the scheduler that processes the annotated terms level by
+	 *  level.
+	 */
+	synchronized TermDAGScheduler getTermDAGScheduler()
+	{
+		if (termDAGScheduler == null)
+			termDAGScheduler = new TermDAGScheduler(getTermDAG());
+		return termDAGScheduler;
+	}
+
+	/**
+	 * @return the union of the items of the parents of each annotated term.
+	 */
+	synchronized ParentFamilies getParentUnions()
+	{
+		if (parentUnions == null)
+			parentUnions = new ParentFamilies(term2Items, getTermDAG().parents, totalNumberOfAnnotatedItems, true);
+		return parentUnions;
+	}
+
+	/**
+	 * @return the intersection of the items of the parents of each
+	 *  annotated term.
+	 */
+	synchronized ParentFamilies getParentIntersections()
+	{
+		if (parentIntersections == null)
+			parentIntersections = new ParentFamilies(term2Items, getTermDAG().parents, totalNumberOfAnnotatedItems, false);
+		return parentIntersections;
+	}
+}
@@ -0,0 +1,118 @@
+package ontologizer.calculation;
+
+import java.util.Arrays;
+
+/**
+ * Counts for every term the number of items of a study set that are
+ * annotated to it. Rather than intersecting the study set with the items
+ * of every term, the counts are propagated in a single sweep over the
+ * terms of the study items, i.e., the time needed is proportional to the
+ * number of annotations of the study items. For this to be correct, the
+ * term lists of the items must be closed under the ancestor relation,
+ * which is the case for {@link CalculationContext#item2Terms}.
+ */
+public class StudyTermCounter
+{
+	/** The terms of each item */
+	private final int [][] item2Terms;
+
+	/** The number of terms */
+	private final int numberOfTerms;
+
+	/**
+	 * Constructs the counter.
+	 *
+	 * @param item2Terms the (ancestor closed) terms of each item.
+	 * @param numberOfTerms the number of terms, i.e., all term indices
+	 *  must be smaller than this.
+	 */
+	public StudyTermCounter(int [][] item2Terms, int numberOfTerms)
+	{
+		this.item2Terms = item2Terms;
+		this.numberOfTerms = numberOfTerms;
+	}
+
+	/**
+	 * Creates a counter from the items of each term.
+	 *
+	 * @param term2Items the (ancestor closed) items of each term.
+	 * @param numberOfItems the number of items, i.e., all item indices must
+	 *  be smaller than this.
+	 * @return the counter
+	 */
+	public static StudyTermCounter create(int [][] term2Items, int numberOfItems)
+	{
+		int [] itemCounts = new int[numberOfItems];
+		for (int [] items : term2Items)
+			for (int item : items)
+				itemCounts[item]++;
+
+		int [][] item2Terms = new int[numberOfItems][];
+		for (int i = 0; i < numberOfItems; i++)
+			item2Terms[i] = new int[itemCounts[i]];
+
+		/* Terms are visited in ascending order, so the term lists are sorted */
+		Arrays.fill(itemCounts, 0);
+		for (int t = 0; t < term2Items.length; t++)
+			for (int item : term2Items[t])
+				item2Terms[item][itemCounts[item]++] = t;
+
+		return new StudyTermCounter(item2Terms, term2Items.length);
+	}
+
+	/**
+	 * @return the number of terms.
+	 */
+	public int getNumberOfTerms()
+	{
+		return numberOfTerms;
+	}
+
+	/**
+	 * Returns the number of term annotations of the given items, i.e., the
+	 * number of steps needed by {@link #count(int[], int[])}.
+	 *
+	 * @param itemIds the items
+	 * @return the number of annotations.
+	 */
+	public long getNumberOfAnnotations(int [] itemIds)
+	{
+		long annotations = 0;
+		for (int item : itemIds)
+			annotations += item2Terms[item].length;
+		return annotations;
+	}
+
+	/**
+	 * Counts for each term the number of the given items that are annotated
+	 * to it.
+	 *
+	 * @param itemIds the items, e.g., the items of the study set. They must be
+	 *  unique but don't need to be sorted.
+	 * @param counts the array in which the counts are stored. It must have
+	 *  room for at least {@link #getNumberOfTerms()} entries.
+	 */
+	public void count(int [] itemIds, int [] counts)
+	{
+		Arrays.fill(counts, 0, numberOfTerms, 0);
+		for (int item : itemIds)
+		{
+			for (int t : item2Terms[item])
+				counts[t]++;
+		}
+	}
+
+	/**
+	 * Counts for each term the number of the given items that are annotated
+	 * to it.
+	 *
+	 * @param itemIds the items, e.g., the items of the study set.
+	 * @return the counts, indexed by the terms.
+	 */
+	public int [] count(int [] itemIds)
+	{
+		int [] counts = new int[numberOfTerms];
+		count(itemIds, counts);
+		return counts;
+	}
+}
@@ -0,0 +1,165 @@
+package ontologizer.calculation;
+
+import java.util.Arrays;
+
+import ontologizer.ontology.Ontology;
+import ontologizer.ontology.Term;
+import ontologizer.ontology.TermID;
+import sonumina.collections.ObjectIntHashMap;
+import sonumina.math.graph.SlimDirectedGraphView;
+
+/**
+ * The structure of the ontology restricted to the terms that are annotated
+ * to the population, given in terms of the term indices of a
+ * {@link PreparedPopulation}. As all ancestors of an annotated term are
+ * annotated as well, no path between annotated terms is lost. Instances
+ * are not modified after construction.
+ */
+class TermDAG
+{
+	/** The children of each term */
+	final int [][] children;
+
+	/** The parents of each term */
+	final int [][] parents;
+
+	/** The terms in topological order, i.e., parents come before their children */
+	final int [] topDownOrder;
+
+	/** The length of the longest path from a term without parents to each term */
+	final int [] levels;
+
+	/** The maximal level */
+	final int maxLevel;
+
+	/**
+	 * Constructs the DAG.
+	 *
+	 * @param graph the ontology
+	 * @param slimGraph the slim view of the ontology
+	 * @param termIds the annotated terms
+	 * @param termId2Index maps the annotated terms to their indices
+	 */
+	TermDAG(Ontology graph, SlimDirectedGraphView<Term> slimGraph, TermID [] termIds, ObjectIntHashMap<TermID> termId2Index)
+	{
+		int n = termIds.length;
+		children = new int[n][];
+		parents = new int[n][];
+
+		int [] numberOfParents = new int[n];
+		int [] buf = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			int [] slimChildren = slimGraph.vertexChildren[slimGraph.getVertexIndex(graph.getTerm(termIds[i]))];
+			int numberOfChildren = 0;
+			for (int c : slimChildren)
+			{
+				int child = termId2Index.getIfAbsent(slimGraph.getVertex(c).getID(), Integer.MAX_VALUE);
+				if (child != Integer.MAX_VALUE)
+					buf[numberOfChildren++] = child;
+			}
+			children[i] = Arrays.copyOf(buf, numberOfChildren);
+			for (int child : children[i])
+				numberOfParents[child]++;
+		}
+
+		for (int i = 0; i < n; i++)
+			parents[i] = new int[numberOfParents[i]];
+		Arrays.fill(numberOfParents, 0);
+		for (int i = 0; i < n; i++)
+			for (int child : children[i])
+				parents[child][numberOfParents[child]++] = i;
+
+		/* Kahn's algorithm, which also determines the longest paths */
+		int [] pendingParents = numberOfParents;
+		topDownOrder = new int[n];
+		levels = new int[n];
+		int head = 0;
+		int tail = 0;
+		for (int i = 0; i < n; i++)
+			if (pendingParents[i] == 0)
+				topDownOrder[tail++] = i;
+		int maxLevel = 0;
+		while (head < tail)
+		{
+			int t = topDownOrder[head++];
+			maxLevel = Math.max(maxLevel, levels[t]);
+			for (int child : children[t])
+			{
+				levels[child] = Math.max(levels[child], levels[t] + 1);
+				if (--pendingParents[child] == 0)
+					topDownOrder[tail++] = child;
+			}
+		}
+		if (tail != n)
+			throw new IllegalArgumentException("The ontology contains a cycle");
+		this.maxLevel = maxLevel;
+	}
+
+	/**
+	 * @return the number of terms.
+	 */
+	int size()
+	{
+		return children.length;
+	}
+
+	/**
+	 * Returns the terms in the order of descending levels, i.e., all terms of
+	 * the deepest level come first and terms without parents come last.
+	 * Terms of the same level are ordered by their index.
+	 *
+	 * @return the term indices
+	 */
+	int [] getBottomUpLevelOrder()
+	{
+		int [] levelStart = new int[maxLevel + 2];
+		for (int level : levels)
+			levelStart[maxLevel - level + 1]++;
+		for (int l = 0; l <= maxLevel; l++)
+			levelStart[l + 1] += levelStart[l];
+
+		int [] order = new int[levels.length];
+		for (int t = 0; t < levels.length; t++)
+			order[levelStart[maxLevel - levels[t]]++] = t;
+		return order;
+	}
+
+	/**
+	 * Determines the proper ancestors of every term.
+	 *
+	 * @return the ancestors of each term, in ascending order.
+	 */
+	int [][] getAncestors()
+	{
+		int n = size();
+		int [][] ancestors = new int[n][];
+		int [] stamp = new int[n];
+		int [] buf = new int[n];
+		Arrays.fill(stamp, -1);
+
+		for (int t : topDownOrder)
+		{
+			int numberOfAncestors = 0;
+			for (int parent : parents[t])
+			{
+				if (stamp[parent] != t)
+				{
+					stamp[parent] = t;
+					buf[numberOfAncestors++] = parent;
+				}
+				for (int a : ancestors[parent])
+				{
+					if (stamp[a] != t)
+					{
+						stamp[a] = t;
+						buf[numberOfAncestors++] = a;
+					}
+				}
+			}
+			ancestors[t] = Arrays.copyOf(buf, numberOfAncestors);
+			Arrays.sort(ancestors[t]);
+		}
+		return ancestors;
+	}
+}
@@ -0,0 +1,174 @@
+package ontologizer.calculation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ontologizer.statistics.IPValueCalculationProgress;
+
+/**
+ * Runs work units for all terms of a {@link TermDAG} level by level,
+ * starting with the deepest level. As the children of a term are always on
+ * deeper levels, a term is processed only after all of its children have
+ * been completed. Terms of the same level don't depend on each other and
+ * are processed concurrently on a fork-join pool.
+ */
+class TermDAGScheduler
+{
+	/** Levels with less terms are not split any further */
+	private static final int SPLIT_THRESHOLD = 16;
+
+	/**
+	 * The work to be done for the terms.
+	 */
+	static abstract class TermTask
+	{
+		/**
+		 * Processes the given term. All terms of the same level may be
+		 * processed concurrently.
+		 *
+		 * @param term the index of the term
+		 */
+		abstract void process(int term);
+
+		/**
+		 * Completes the given term after it has been processed. Terms are
+		 * completed sequentially and before any term of a lower level is
+		 * processed, so this is the place to update state that is shared
+		 * between terms of the same level. Does nothing by default.
+		 *
+		 * @param term the index of the term
+		 */
+		void complete(int term)
+		{
+		}
+	}
+
+	/** The terms of each level, the deepest level comes first */
+	private final int [][] bottomUpLevels;
+
+	/**
+	 * Constructs the scheduler for the given DAG.
+	 *
+	 * @param dag the DAG
+	 */
+	TermDAGScheduler(TermDAG dag)
+	{
+		int [] order = dag.getBottomUpLevelOrder();
+		bottomUpLevels = new int[dag.maxLevel + 1][];
+
+		int start = 0;
+		for (int l = 0; l < bottomUpLevels.length; l++)
+		{
+			int level = dag.maxLevel - l;
+			int end = start;
+			while (end < order.length && dag.levels[order[end]] == level)
+				end++;
+
+			bottomUpLevels[l] = new int[end - start];
+			System.arraycopy(order, start, bottomUpLevels[l], 0, end - start);
+			start = end;
+		}
+	}
+
+	/**
+	 * Runs the task for all terms, children before their parents.
+	 *
+	 * @param task the task
+	 * @param numberOfThreads the number of threads that process the terms
+	 *  of a level concurrently. If this is 1, all terms are processed by the
+	 *  calling thread.
+	 * @param progress the progress or null. It is updated with the number of
+	 *  completed terms.
+	 */
+	void runBottomUp(TermTask task, int numberOfThreads, IPValueCalculationProgress progress)
+	{
+		if (numberOfThreads <= 1)
+		{
+			runBottomUp(task, null, progress);
+			return;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+		try
+		{
+			runBottomUp(task, pool, progress);
+		} finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Runs the task for all terms, children before their parents.
+	 *
+	 * @param task the task
+	 * @param pool the pool on which terms of the same level are processed
+	 *  concurrently or null if all terms should be processed by the calling
+	 *  thread.
+	 * @param progress the progress or null.
+	 */
+	private void runBottomUp(TermTask task, ForkJoinPool pool, IPValueCalculationProgress progress)
+	{
+		int done = 0;
+
+		for (int [] terms : bottomUpLevels)
+		{
+			if (pool == null)
+			{
+				for (int term : terms)
+				{
+					if (progress != null && (done % 256) == 0)
+						progress.update(done);
+
+					task.process(term);
+					task.complete(term);
+					done++;
+				}
+			} else
+			{
+				pool.invoke(new LevelAction(task, terms, 0, terms.length));
+				for (int term : terms)
+					task.complete(term);
+				done += terms.length;
+
+				if (progress != null)
+					progress.update(done);
+			}
+		}
+	}
+
+	/**
+	 * Processes a range of terms of a single level.
+	 */
+	private static class LevelAction extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final TermTask task;
+		private final int [] terms;
+		private final int from;
+		private final int to;
+
+		LevelAction(TermTask task, int [] terms, int from, int to)
+		{
+			this.task = task;
+			this.terms = terms;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from <= SPLIT_THRESHOLD)
+			{
+				for (int i = from; i < to; i++)
+					task.process(terms[i]);
+				return;
+			}
+
+			int mid = (from + to) >>> 1;
+			invokeAll(new LevelAction(task, terms, from, mid), new LevelAction(task, terms, mid, to));
+		}
+	}
+}
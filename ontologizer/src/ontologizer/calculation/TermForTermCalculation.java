@@ -1,8 +1,5 @@
 package ontologizer.calculation;
 
-import ontologizer.association.AssociationContainer;
-import ontologizer.ontology.Ontology;
-import ontologizer.set.PopulationSet;
 import ontologizer.set.StudySet;
 import ontologizer.statistics.Hypergeometric;
 
@@ -25,10 +22,9 @@ public class TermForTermCalculation extends AbstractPValueBasedCalculation imple
 		return "No description yet";
 	}
 
-	protected TermForTermPValueCalculation newPValueCalculation(Ontology graph,
-			AssociationContainer goAssociations, PopulationSet populationSet,
+	protected TermForTermPValueCalculation newPValueCalculation(PreparedPopulation population,
 			StudySet studySet, Hypergeometric hyperg)
 	{
-		return new TermForTermPValueCalculation(graph, goAssociations, populationSet, studySet, hyperg);
+		return new TermForTermPValueCalculation(population, studySet, hyperg);
 	}
 }
@@ -1,14 +1,16 @@
 package ontologizer.calculation;
 
+import java.util.Arrays;
+
 import ontologizer.association.AssociationContainer;
 import ontologizer.ontology.Ontology;
 import ontologizer.ontology.TermID;
 import ontologizer.set.PopulationSet;
 import ontologizer.set.StudySet;
 import ontologizer.statistics.Hypergeometric;
+import ontologizer.statistics.HypergeometricCache;
 import ontologizer.statistics.IPValueCalculationProgress;
 import ontologizer.statistics.PValue;
-import ontologizer.util.Util;
 
 /**
  * A specific term-for-term p-value calculation.
@@ -17,6 +19,34 @@ import ontologizer.util.Util;
  */
 public class TermForTermPValueCalculation extends AbstractPValueCalculation
 {
+	/**
+	 * Buffers for the batched calculation of the p values.
+	 */
+	private static class TailBuffers
+	{
+		public final int [] termIndices;
+		public final int [] popTermCounts;
+		public final int [] studyTermCounts;
+		public final double [] p;
+
+		public TailBuffers(int numberOfTerms)
+		{
+			termIndices = new int[numberOfTerms];
+			popTermCounts = new int[numberOfTerms];
+			studyTermCounts = new int[numberOfTerms];
+			p = new double[numberOfTerms];
+		}
+	}
+
+	private final ThreadLocal<TailBuffers> tailBuffers = new ThreadLocal<TailBuffers>()
+	{
+		@Override
+		protected TailBuffers initialValue()
+		{
+			return new TailBuffers(termIds.length);
+		}
+	};
+
 	public TermForTermPValueCalculation(Ontology graph,
 			AssociationContainer associations, PopulationSet populationSet,
 			StudySet studySet, Hypergeometric hyperg)
@@ -24,10 +54,14 @@ public class TermForTermPValueCalculation extends AbstractPValueCalculation
 		super(graph, associations, populationSet, studySet, hyperg);
 	}
 
-	protected PValue [] calculatePValues(StudySet studySet, IPValueCalculationProgress progress)
+	public TermForTermPValueCalculation(PreparedPopulation population, StudySet studySet, Hypergeometric hyperg)
 	{
-		int[] studyIds = getUniqueIDs(studySet);
+		super(population, studySet, hyperg);
+	}
 
+	protected PValue [] calculatePValues(int [] studyIds, int studyGeneCount, Hypergeometric hyperg, IPValueCalculationProgress progress)
+	{
+		int [] studyTermCounts = countStudyItems(studyIds);
 		PValue p [] = new PValue[getTotalNumberOfAnnotatedTerms()];
 
 		for (int i = 0; i < termIds.length; i++)
@@ -40,8 +74,7 @@ public class TermForTermPValueCalculation extends AbstractPValueCalculation
 			TermID term = termIds[i];
 			int goidAnnotatedPopGeneCount = term2Items[i].length;
 			int popGeneCount = populationSet.getGeneCount();
-			int studyGeneCount = studySet.getGeneCount();
-			int goidAnnotatedStudyGeneCount = Util.commonInts(studyIds, term2Items[i]);
+			int goidAnnotatedStudyGeneCount = studyTermCounts[i];
 
 			TermForTermGOTermProperties myP = new TermForTermGOTermProperties();
 			myP.term = term;
@@ -62,9 +95,9 @@ public class TermForTermPValueCalculation extends AbstractPValueCalculation
 				 * white balls after the whole drawing process?
 				 */
 
-				myP.p = hyperg.phypergeometric(popGeneCount, (double)goidAnnotatedPopGeneCount / (double)popGeneCount,
+				myP.p = phypergeometric(hyperg, popGeneCount, goidAnnotatedPopGeneCount,
 						studyGeneCount, goidAnnotatedStudyGeneCount);
-				myP.p_min = hyperg.dhyper(
+				myP.p_min = dhyper(hyperg,
 						goidAnnotatedPopGeneCount,
 						popGeneCount,
 						goidAnnotatedPopGeneCount,
@@ -81,4 +114,44 @@ public class TermForTermPValueCalculation extends AbstractPValueCalculation
 		}
 		return p;
 	}
+
+	protected void calculatePValues(int [] studyIds, int studyGeneCount, Hypergeometric hyperg, double [] p, boolean [] ignoreAtMTC)
+	{
+		int popGeneCount = populationSet.getGeneCount();
+		int [] studyTermCounts = countStudyItems(studyIds);
+		TailBuffers tails = tailBuffers.get();
+		int numberOfTails = 0;
+
+		/* Gather the terms for which a p value needs to be calculated */
+		for (int i = 0; i < termIds.length; i++)
+		{
+			if (studyTermCounts[i] != 0)
+			{
+				tails.termIndices[numberOfTails] = i;
+				tails.popTermCounts[numberOfTails] = term2Items[i].length;
+				tails.studyTermCounts[numberOfTails] = studyTermCounts[i];
+				numberOfTails++;
+				ignoreAtMTC[i] = false;
+			} else
+			{
+				p[i] = 1.0;
+				ignoreAtMTC[i] = true;
+			}
+		}
+
+		/* Same as phypergeometric() for all gathered terms in one go. With a
+		 * cache, previously seen tuples are looked up instead */
+		HypergeometricCache hypergCache = getHypergeometricCache();
+		if (hypergCache != null)
+		{
+			for (int j = 0; j < numberOfTails; j++)
+				tails.p[j] = hypergCache.phypergeometric(hyperg, popGeneCount, tails.popTermCounts[j], studyGeneCount, tails.studyTermCounts[j]);
+		} else if (studyGeneCount >= popGeneCount)
+			Arrays.fill(tails.p, 0, numberOfTails, 1.0);
+		else
+			hyperg.upperTails(popGeneCount, studyGeneCount, tails.popTermCounts, tails.studyTermCounts, tails.p, numberOfTails);
+
+		for (int j = 0; j < numberOfTails; j++)
+			p[tails.termIndices[j]] = tails.p[j];
+	}
 };
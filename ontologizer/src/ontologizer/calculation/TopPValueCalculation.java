@@ -0,0 +1,289 @@
+package ontologizer.calculation;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import ontologizer.association.AssociationContainer;
+import ontologizer.ontology.Ontology;
+import ontologizer.set.PopulationSet;
+import ontologizer.set.StudySet;
+import ontologizer.statistics.Hypergeometric;
+import ontologizer.statistics.IPValueCalculationProgress;
+import ontologizer.statistics.PValue;
+
+/**
+ * The p-value calculation of the elim algorithm. Terms are processed
+ * bottom-up, i.e., children before their parents. The study items of terms
+ * that are significant are marked and no longer considered for the
+ * ancestors of these terms.
+ *
+ * The marked items are always items of the study set, so they are kept in
+ * bitsets over the positions within the sorted study ids. A bitset is
+ * returned to a pool as soon as all parents of its term have been
+ * processed. As the items of a term include the items of its descendants,
+ * all items that are marked by descendants of a term are annotated to the
+ * term. Terms of the same level don't depend on each other and are
+ * processed concurrently if more than one thread is requested.
+ */
+public class TopPValueCalculation extends AbstractPValueCalculation
+{
+	/** The annotated children of each term, given as term indices */
+	private final int [][] termChildren;
+
+	/** The number of annotated parents of each term */
+	private final int [] numberOfParents;
+
+	/** Schedules the terms such that children come first */
+	private final TermDAGScheduler scheduler;
+
+	public TopPValueCalculation(Ontology graph,
+			AssociationContainer associations, PopulationSet populationSet,
+			StudySet studySet, Hypergeometric hyperg)
+	{
+		this(new PreparedPopulation(graph, associations, populationSet), studySet, hyperg);
+	}
+
+	public TopPValueCalculation(PreparedPopulation population, StudySet studySet, Hypergeometric hyperg)
+	{
+		super(population, studySet, hyperg);
+
+		TermDAG dag = population.getTermDAG();
+		termChildren = dag.children;
+		numberOfParents = new int[dag.size()];
+		for (int i = 0; i < numberOfParents.length; i++)
+			numberOfParents[i] = dag.parents[i].length;
+		scheduler = population.getTermDAGScheduler();
+	}
+
+	/**
+	 * A single run of elim on a study set. A term reads the marked items of
+	 * its children and writes its own only, so all terms of a level can be
+	 * processed concurrently. The marked items of a term are released when
+	 * its last parent is completed.
+	 */
+	private class Elim extends TermDAGScheduler.TermTask
+	{
+		private final int [] studyIds;
+		private final int [] studyTermCounts;
+		private final int studyGeneCount;
+		private final int popGeneCount;
+		private final int words;
+		private final Hypergeometric hyperg;
+		private final TopGOTermProperties [] props;
+		private final double [] p;
+		private final boolean [] ignoreAtMTC;
+
+		/** The marked study items of each term, null if there are none */
+		private final long [][] marked;
+
+		/** The number of parents of each term that have not been completed yet */
+		private final int [] pendingParents;
+
+		/** Released bitsets, null if the terms are processed concurrently */
+		private final ArrayDeque<long []> pool;
+
+		/**
+		 * @param studyIds the sorted study ids
+		 * @param studyGeneCount the total number of items in the study set
+		 * @param hyperg the hypergeometric helper
+		 * @param props the properties of each term that are filled if not null
+		 * @param p the p value of each term
+		 * @param ignoreAtMTC the ignoreAtMTC flag of each term
+		 * @param concurrent whether terms of a level are processed concurrently
+		 */
+		Elim(int [] studyIds, int studyGeneCount, Hypergeometric hyperg, TopGOTermProperties [] props, double [] p, boolean [] ignoreAtMTC, boolean concurrent)
+		{
+			this.studyIds = studyIds;
+			this.studyTermCounts = countStudyItems(studyIds);
+			this.studyGeneCount = studyGeneCount;
+			this.popGeneCount = populationSet.getGeneCount();
+			this.words = (studyIds.length + 63) >>> 6;
+			this.hyperg = hyperg;
+			this.props = props;
+			this.p = p;
+			this.ignoreAtMTC = ignoreAtMTC;
+
+			marked = new long[termIds.length][];
+			pendingParents = numberOfParents.clone();
+			pool = concurrent ? null : new ArrayDeque<long []>();
+		}
+
+		@Override
+		void process(int t)
+		{
+			/* Determine items that are marked by the children */
+			long [] markedItems = null;
+			for (int child : termChildren[t])
+			{
+				long [] childMarked = marked[child];
+				if (childMarked != null)
+				{
+					if (markedItems == null)
+						markedItems = allocate(pool, words);
+					for (int w = 0; w < words; w++)
+						markedItems[w] |= childMarked[w];
+				}
+			}
+
+			int numberOfMarked = 0;
+			if (markedItems != null)
+			{
+				for (long w : markedItems)
+					numberOfMarked += Long.bitCount(w);
+			}
+
+			int goidAnnotatedStudyGeneCount = studyTermCounts[t] - numberOfMarked;
+			int goidAnnotatedPopGeneCount = term2Items[t].length - numberOfMarked;
+
+			TopGOTermProperties myP = null;
+			if (props != null)
+			{
+				myP = new TopGOTermProperties();
+				myP.term = termIds[t];
+				myP.annotatedStudyGenes = studyTermCounts[t];
+				myP.annotatedPopulationGenes = term2Items[t].length;
+				props[t] = myP;
+			}
+
+			if (goidAnnotatedStudyGeneCount != 0)
+			{
+				/* Imagine the following...
+				 *
+				 * In an urn you put popGeneCount number of balls where a color of a
+				 * ball can be white or black. The number of balls having white color
+				 * is goidAnnontatedPopGeneCount (all genes of the population which
+				 * are annotated by the current GOID).
+				 *
+				 * You choose to draw studyGeneCount number of balls without replacement.
+				 * How big is the probability, that you got goidAnnotatedStudyGeneCount
+				 * white balls after the whole drawing process?
+				 */
+				p[t] = phypergeometric(hyperg, popGeneCount, goidAnnotatedPopGeneCount, studyGeneCount, goidAnnotatedStudyGeneCount);
+				ignoreAtMTC[t] = false;
+
+				if (myP != null)
+					myP.p_min = dhyper(hyperg, goidAnnotatedPopGeneCount, popGeneCount, goidAnnotatedPopGeneCount, goidAnnotatedPopGeneCount);
+
+				if (p[t] < TopCalculation.SIGNIFICANCE_LEVEL)
+				{
+					/* All study items of the term get marked, which includes the ones marked by the children */
+					if (markedItems == null)
+						markedItems = allocate(pool, words);
+					markStudyItems(studyIds, term2Items[t], markedItems);
+				}
+			} else
+			{
+				/* Mark this p value as irrelevant so it isn't considered in an mtc */
+				p[t] = 1.0;
+				ignoreAtMTC[t] = true;
+
+				if (myP != null)
+					myP.p_min = 1.0;
+			}
+
+			if (myP != null)
+			{
+				myP.p = p[t];
+				myP.p_adjusted = p[t];
+				myP.ignoreAtMTC = ignoreAtMTC[t];
+			}
+
+			marked[t] = markedItems;
+		}
+
+		@Override
+		void complete(int t)
+		{
+			/* The marked items of a child are no longer needed once all of its parents are done */
+			for (int child : termChildren[t])
+			{
+				if (--pendingParents[child] == 0)
+					release(child);
+			}
+
+			/* Terms without parents don't pass their items on */
+			if (pendingParents[t] == 0)
+				release(t);
+		}
+
+		private void release(int t)
+		{
+			if (marked[t] != null && pool != null)
+				pool.push(marked[t]);
+			marked[t] = null;
+		}
+	}
+
+	/**
+	 * Returns a cleared bitset from the pool or a new one.
+	 *
+	 * @param pool the pool or null
+	 * @param words the number of words of the bitset
+	 * @return the cleared bitset
+	 */
+	private static long [] allocate(ArrayDeque<long []> pool, int words)
+	{
+		long [] bits = pool != null ? pool.poll() : null;
+		if (bits == null)
+			return new long[words];
+		Arrays.fill(bits, 0);
+		return bits;
+	}
+
+	/**
+	 * Sets the bits of the positions of the study ids that are also contained
+	 * in the given items.
+	 *
+	 * @param studyIds the sorted study ids
+	 * @param items the sorted items of a term
+	 * @param bits the bitset over the positions of the study ids.
+	 */
+	private static void markStudyItems(int [] studyIds, int [] items, long [] bits)
+	{
+		int i = 0;
+		int j = 0;
+		while (i < studyIds.length && j < items.length)
+		{
+			if (studyIds[i] < items[j]) i++;
+			else if (studyIds[i] > items[j]) j++;
+			else
+			{
+				bits[i >>> 6] |= 1L << i;
+				i++;
+				j++;
+			}
+		}
+	}
+
+	@Override
+	protected PValue [] calculatePValues(int [] studyIds, int studyGeneCount, Hypergeometric hyperg, IPValueCalculationProgress progress)
+	{
+		int numberOfThreads = getNumberOfThreads();
+		TopGOTermProperties [] props = new TopGOTermProperties[termIds.length];
+		Elim elim = new Elim(studyIds, studyGeneCount, hyperg, props, new double[termIds.length], new boolean[termIds.length], numberOfThreads > 1);
+		scheduler.runBottomUp(elim, numberOfThreads, progress);
+		return props;
+	}
+
+	@Override
+	protected void calculatePValues(int [] studyIds, int studyGeneCount, Hypergeometric hyperg, double [] p, boolean [] ignoreAtMTC)
+	{
+		scheduler.runBottomUp(new Elim(studyIds, studyGeneCount, hyperg, null, p, ignoreAtMTC, false), 1, null);
+	}
+
+	@Override
+	protected void updateFingerprint(MessageDigest md) throws UnsupportedEncodingException
+	{
+		super.updateFingerprint(md);
+
+		/* The p values also depend on the children of the terms */
+		for (int i = 0; i < termIds.length; i++)
+		{
+			updateFingerprint(md, termChildren[i].length);
+			for (int child : termChildren[i])
+				updateFingerprint(md, child);
+		}
+	}
+}
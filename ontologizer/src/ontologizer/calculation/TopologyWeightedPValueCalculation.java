@@ -0,0 +1,387 @@
+package ontologizer.calculation;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import ontologizer.association.AssociationContainer;
+import ontologizer.ontology.Ontology;
+import ontologizer.set.PopulationSet;
+import ontologizer.set.StudySet;
+import ontologizer.statistics.Hypergeometric;
+import ontologizer.statistics.IPValueCalculationProgress;
+import ontologizer.statistics.PValue;
+import ontologizer.util.Util;
+
+/**
+ * The p-value calculation of the weight algorithm. Terms are processed level
+ * by level, starting with the deepest one. Each term has its own weights of
+ * the items, which enter the Fisher test of the term instead of plain
+ * counts. After a term has been tested, its p value is compared to the
+ * ones of its children. If the term is more significant than all of its
+ * children, the weights of the children are decreased on the items of the
+ * term. Otherwise, the weights of the ancestors of the term are decreased
+ * on their items for every more significant child.
+ *
+ * The weights of a term are not stored per item. The ancestors of a term
+ * scale the weights on all of their own items and a term is only scaled by
+ * its parents after it has been tested for the first time. Hence, it
+ * suffices to store a single factor for the items of the term plus the
+ * list of rescalings by the parents. The weights of a term are materialized
+ * into a dense vector over the population items only for its test.
+ */
+public class TopologyWeightedPValueCalculation extends AbstractPValueCalculation
+{
+	/** The annotated children of each term */
+	private final int [][] termChildren;
+
+	/** The proper ancestors of each term except for the root term */
+	private final int [][] termAncestors;
+
+	/** The terms in the order of descending levels */
+	private final int [] bottomUpLevelOrder;
+
+	/** Whether a term is the artificial root, which is not tested */
+	private final boolean [] isArtificialRoot;
+
+	/** The total number of parent links, i.e., the maximal number of rescalings by parents */
+	private final int numberOfParentLinks;
+
+	/** Buffers of a single weight calculation */
+	private static class Scratch
+	{
+		/** The weights of the current term, all 1.0 between tests */
+		final double [] weights;
+
+		/** Marks the items whose weight differs from 1.0 */
+		final int [] stamp;
+
+		/** The items whose weight differs from 1.0 */
+		final int [] touched;
+
+		/** The current stamp */
+		int generation;
+
+		/** The study items as bitset */
+		final long [] studyBits;
+
+		Scratch(int numberOfItems)
+		{
+			weights = new double[numberOfItems];
+			Arrays.fill(weights, 1.0);
+			stamp = new int[numberOfItems];
+			touched = new int[numberOfItems];
+			studyBits = new long[(numberOfItems + 63) >>> 6];
+		}
+	}
+
+	/** The per-thread buffers */
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>()
+	{
+		@Override
+		protected Scratch initialValue()
+		{
+			return new Scratch(population.totalNumberOfAnnotatedItems);
+		}
+	};
+
+	/** The state of the weights of all terms during a single run */
+	private static class Weights
+	{
+		/** The factor of the weights of the items of each term */
+		final double [] factor;
+
+		/** The first and the last rescaling by a parent of each term, -1 if there is none */
+		final int [] first;
+		final int [] last;
+
+		/** The next rescaling of the same term, -1 if there is none */
+		final int [] next;
+
+		/** The parent whose items are rescaled */
+		final int [] parent;
+
+		/** The factor of the rescaling */
+		final double [] parentFactor;
+
+		/** The number of rescalings */
+		int size;
+
+		Weights(int numberOfTerms, int numberOfParentLinks)
+		{
+			factor = new double[numberOfTerms];
+			Arrays.fill(factor, 1.0);
+			first = new int[numberOfTerms];
+			last = new int[numberOfTerms];
+			Arrays.fill(first, -1);
+			Arrays.fill(last, -1);
+			next = new int[numberOfParentLinks];
+			parent = new int[numberOfParentLinks];
+			parentFactor = new double[numberOfParentLinks];
+		}
+
+		/**
+		 * Appends a rescaling of the term's weights on the parent's items.
+		 */
+		void rescale(int term, int p, double w)
+		{
+			int r = size++;
+			parent[r] = p;
+			parentFactor[r] = w;
+			next[r] = -1;
+			if (last[term] == -1) first[term] = r;
+			else next[last[term]] = r;
+			last[term] = r;
+		}
+	}
+
+	public TopologyWeightedPValueCalculation(Ontology graph,
+			AssociationContainer associations, PopulationSet populationSet,
+			StudySet studySet, Hypergeometric hyperg)
+	{
+		this(new PreparedPopulation(graph, associations, populationSet), studySet, hyperg);
+	}
+
+	public TopologyWeightedPValueCalculation(PreparedPopulation population, StudySet studySet, Hypergeometric hyperg)
+	{
+		super(population, studySet, hyperg);
+
+		TermDAG dag = population.getTermDAG();
+		termChildren = dag.children;
+		bottomUpLevelOrder = dag.getBottomUpLevelOrder();
+
+		int numberOfParentLinks = 0;
+		for (int [] parents : dag.parents)
+			numberOfParentLinks += parents.length;
+		this.numberOfParentLinks = numberOfParentLinks;
+
+		/* The root term is never reweighted */
+		int rootIndex = getIndex(graph.getRootTerm().getID());
+		termAncestors = dag.getAncestors();
+		for (int t = 0; t < termAncestors.length; t++)
+		{
+			int pos = Arrays.binarySearch(termAncestors[t], rootIndex);
+			if (pos >= 0)
+			{
+				int [] ancestors = new int[termAncestors[t].length - 1];
+				System.arraycopy(termAncestors[t], 0, ancestors, 0, pos);
+				System.arraycopy(termAncestors[t], pos + 1, ancestors, pos, ancestors.length - pos);
+				termAncestors[t] = ancestors;
+			}
+		}
+
+		isArtificialRoot = new boolean[termIds.length];
+		for (int t = 0; t < termIds.length; t++)
+			isArtificialRoot[t] = graph.isArtificialRootTerm(termIds[t]);
+	}
+
+	/**
+	 * Performs the weight algorithm on the given study set. Only terms that
+	 * are annotated to the study set are tested, the p value of all other
+	 * terms is 1.0 and they are ignored at the mtc.
+	 *
+	 * @param studyIds the sorted study ids
+	 * @param hyperg the hypergeometric helper
+	 * @param props the properties of each term that are filled if not null
+	 * @param p the p value of each term
+	 * @param ignoreAtMTC the ignoreAtMTC flag of each term
+	 * @param progress the progress or null
+	 */
+	private void weight(int [] studyIds, Hypergeometric hyperg, TopologyWeightGOTermProperties [] props, double [] p, boolean [] ignoreAtMTC, IPValueCalculationProgress progress)
+	{
+		int [] studyTermCounts = countStudyItems(studyIds);
+		Scratch s = scratch.get();
+		Util.toBits(s.studyBits, studyIds);
+		Weights weights = new Weights(termIds.length, numberOfParentLinks);
+
+		for (int t = 0; t < termIds.length; t++)
+		{
+			p[t] = 1.0;
+			ignoreAtMTC[t] = true;
+
+			if (props != null)
+			{
+				TopologyWeightGOTermProperties myP = new TopologyWeightGOTermProperties();
+				myP.term = termIds[t];
+				myP.annotatedStudyGenes = studyTermCounts[t];
+				myP.annotatedPopulationGenes = term2Items[t].length;
+				myP.p = 1.0;
+				myP.p_adjusted = 1.0;
+				myP.p_min = 1.0;
+				myP.ignoreAtMTC = true;
+				props[t] = myP;
+			}
+		}
+
+		double [] childWeights = new double[termIds.length];
+
+		for (int k = 0; k < bottomUpLevelOrder.length; k++)
+		{
+			if (progress != null && (k % 256) == 0)
+				progress.update(k);
+
+			int u = bottomUpLevelOrder[k];
+			if (studyTermCounts[u] == 0 || isArtificialRoot[u])
+				continue;
+
+			wFisher(u, studyIds.length, studyTermCounts, weights, s, hyperg, props, p, ignoreAtMTC);
+
+			boolean anySigChild = false;
+			for (int child : termChildren[u])
+			{
+				if (studyTermCounts[child] == 0)
+					continue;
+				childWeights[child] = p[u] / p[child];
+				if (childWeights[child] > 1)
+					anySigChild = true;
+			}
+
+			if (!anySigChild)
+			{
+				/* Case 1: u is the most significant term in the family */
+				for (int child : termChildren[u])
+				{
+					if (studyTermCounts[child] == 0)
+						continue;
+
+					/* Readjust the weights of the child for every item of u and recalculate its significance */
+					weights.rescale(child, u, childWeights[child]);
+					wFisher(child, studyIds.length, studyTermCounts, weights, s, hyperg, props, p, ignoreAtMTC);
+				}
+			} else
+			{
+				/* Case 2: At least one child is more significant than u */
+				for (int child : termChildren[u])
+				{
+					if (studyTermCounts[child] == 0 || !(childWeights[child] > 1))
+						continue;
+
+					double w = childWeights[child];
+					for (int up : termAncestors[u])
+						weights.factor[up] /= w;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Performs the weighted Fisher test of a single term.
+	 *
+	 * @param t the term to be tested
+	 * @param studySize the number of annotated items of the study
+	 * @param studyTermCounts the number of study items of each term
+	 * @param weights the current weights
+	 * @param s the buffers
+	 * @param hyperg the hypergeometric helper
+	 * @param props the properties of each term that are updated if not null
+	 * @param p the p value of each term
+	 * @param ignoreAtMTC the ignoreAtMTC flag of each term
+	 */
+	private void wFisher(int t, int studySize, int [] studyTermCounts, Weights weights, Scratch s, Hypergeometric hyperg, TopologyWeightGOTermProperties [] props, double [] p, boolean [] ignoreAtMTC)
+	{
+		double [] w = s.weights;
+		int [] stamp = s.stamp;
+		int [] touched = s.touched;
+		long [] studyBits = s.studyBits;
+		int generation = ++s.generation;
+		int numberOfTouched = 0;
+
+		/* Materialize the weights of the term */
+		double factor = weights.factor[t];
+		for (int item : term2Items[t])
+		{
+			stamp[item] = generation;
+			touched[numberOfTouched++] = item;
+			w[item] = factor;
+		}
+		for (int r = weights.first[t]; r != -1; r = weights.next[r])
+		{
+			double parentFactor = weights.parentFactor[r];
+			for (int item : term2Items[weights.parent[r]])
+			{
+				if (stamp[item] != generation)
+				{
+					stamp[item] = generation;
+					touched[numberOfTouched++] = item;
+				}
+				w[item] *= parentFactor;
+			}
+		}
+
+		double goidAnnotatedPopGeneCount = 0;
+		double goidAnnotatedStudyGeneCount = 0;
+		for (int item : term2Items[t])
+		{
+			goidAnnotatedPopGeneCount += w[item];
+			if ((studyBits[item >>> 6] & (1L << item)) != 0)
+				goidAnnotatedStudyGeneCount += w[item];
+		}
+
+		/* All items that have not been touched have weight 1.0 */
+		int numberOfTouchedStudyItems = 0;
+		double popGeneCount = 0;
+		double studyGeneCount = 0;
+		for (int i = 0; i < numberOfTouched; i++)
+		{
+			int item = touched[i];
+			popGeneCount += w[item];
+			if ((studyBits[item >>> 6] & (1L << item)) != 0)
+			{
+				studyGeneCount += w[item];
+				numberOfTouchedStudyItems++;
+			}
+			w[item] = 1.0;
+		}
+		popGeneCount += population.totalNumberOfAnnotatedItems - numberOfTouched;
+		studyGeneCount += studySize - numberOfTouchedStudyItems;
+
+		double pMin = 0;
+		if (goidAnnotatedStudyGeneCount != 0)
+		{
+			p[t] = hyperg.phypergeometric((int)Math.ceil(popGeneCount), Math.ceil(goidAnnotatedPopGeneCount) / Math.ceil(popGeneCount),
+					(int)studyGeneCount, (int)goidAnnotatedStudyGeneCount);
+		} else
+		{
+			p[t] = 1.0;
+			pMin = 1.0;
+		}
+		ignoreAtMTC[t] = false;
+
+		if (props != null)
+		{
+			TopologyWeightGOTermProperties myP = props[t];
+			myP.p = p[t];
+			myP.p_adjusted = p[t];
+			myP.p_min = pMin;
+			myP.ignoreAtMTC = false;
+		}
+	}
+
+	@Override
+	protected PValue [] calculatePValues(int [] studyIds, int studyGeneCount, Hypergeometric hyperg, IPValueCalculationProgress progress)
+	{
+		TopologyWeightGOTermProperties [] props = new TopologyWeightGOTermProperties[termIds.length];
+		weight(studyIds, hyperg, props, new double[termIds.length], new boolean[termIds.length], progress);
+		return props;
+	}
+
+	@Override
+	protected void calculatePValues(int [] studyIds, int studyGeneCount, Hypergeometric hyperg, double [] p, boolean [] ignoreAtMTC)
+	{
+		weight(studyIds, hyperg, null, p, ignoreAtMTC, null);
+	}
+
+	@Override
+	protected void updateFingerprint(MessageDigest md) throws UnsupportedEncodingException
+	{
+		super.updateFingerprint(md);
+
+		/* The p values also depend on the children of the terms */
+		for (int i = 0; i < termIds.length; i++)
+		{
+			updateFingerprint(md, termChildren[i].length);
+			for (int child : termChildren[i])
+				updateFingerprint(md, child);
+		}
+	}
+}
@@ -1,8 +1,18 @@
 package ontologizer.calculation.b2g;
 
 import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import ontologizer.association.AssociationContainer;
@@ -19,6 +29,7 @@ import ontologizer.set.PopulationSet;
 import ontologizer.set.StudySet;
 import ontologizer.statistics.AbstractTestCorrection;
 import ontologizer.types.ByteString;
+import ontologizer.util.Xoroshiro128Random;
 import sonumina.collections.IntMapper;
 
 /**
@@ -48,10 +59,71 @@ public class Bayes2GOCalculation implements ICalculation, ISlimCalculation, IPro
 	private boolean randomStart = false;
 
 	private int mcmcSteps = 1020000;
+
+	/** Number of steps after which states are recorded */
+	private int burnin = 20000;
+
+	/** Only every thinning-th state after the burn-in is recorded */
+	private int thinning = 1;
+
+	/** The file in which the state of the chain is stored periodically or null */
+	private File checkpointFile;
+
+	/** Number of steps between successive checkpoints */
+	private int checkpointInterval = 1000000;
+
 	private int updateReportTime = 1000; /* Update report time in ms */
 
 	private Bayes2GOCalculationProgress bayes2GOCalculationProgress;
 
+	/** Number of independent chains */
+	private int numberOfChains = 1;
+
+	/** The chains are stopped once the R-hat values of all terms are below this */
+	private double convergenceThreshold = 1.05;
+
+	/** Number of steps between successive convergence checks */
+	private int convergenceCheckInterval = 20000;
+
+	/** The R-hat values of the terms of the last multi-chain calculation */
+	private double [] rHat;
+
+	/** The kind of the random sources of the chains */
+	private RandomSource randomSource = RandomSource.JAVA_UTIL;
+
+	/** Number of replicas at different temperatures, 1 disables parallel tempering */
+	private int numberOfReplicas = 1;
+
+	/** The temperature of the hottest replica */
+	private double maxTemperature = 10;
+
+	/** Number of steps between successive swap attempts of the replicas */
+	private int swapInterval = 100;
+
+	/** Whether terms with identical items are sampled as a single term */
+	private boolean collapseIdenticalTerms = false;
+
+	/** Whether EM iterations continue with the states of the previous iteration */
+	private boolean emWarmStart = false;
+
+	/** The subscribers of intermediate marginals */
+	private List<MarginalsListener> marginalsListeners = new CopyOnWriteArrayList<MarginalsListener>();
+
+	/** Number of steps between successive snapshots of the marginals */
+	private int snapshotInterval = 100000;
+
+	/** Set if the running calculation should stop as soon as possible */
+	private volatile boolean stopRequested;
+
+	/** The calculation whose stop requests are honoured as well, e.g., the origin of a batch copy, or null */
+	private Bayes2GOCalculation parent;
+
+	/** The classes of identical terms of the running calculation or null */
+	private TermClasses sampledClasses;
+
+	/** The shape parameter of the distribution of the values of active genes in a valued calculation */
+	private double valuedShape = ValuedGOScore.DEFAULT_SHAPE;
+
 	/**
 	 * Provided dedicated feedback for bayes2go calculation.
 	 *
@@ -62,6 +134,61 @@ public class Bayes2GOCalculation implements ICalculation, ISlimCalculation, IPro
 		void update(int iterationNumber, int step, double acceptProb, int numAccept, double score);
 	}
 
+	/**
+	 * Receives periodic snapshots of the marginals of a running calculation.
+	 * The listener is called from the thread that runs the calculation.
+	 */
+	public static interface MarginalsListener
+	{
+		void snapshot(MarginalsSnapshot snapshot);
+	}
+
+	/**
+	 * The kinds of random sources that can be used to drive the chains.
+	 */
+	public static enum RandomSource
+	{
+		/** Use java.util.Random. This is the default and reproduces results of earlier versions */
+		JAVA_UTIL
+		{
+			@Override
+			public Random [] createChainRandoms(long seed, int numberOfChains)
+			{
+				Random [] rnds = new Random[numberOfChains];
+				rnds[0] = new Random(seed);
+				for (int c = 1; c < numberOfChains; c++)
+					rnds[c] = new Random(Xoroshiro128Random.mix(seed + c * 0x9E3779B97F4A7C15L));
+				return rnds;
+			}
+		},
+
+		/** Use the unsynchronized xoroshiro128** generator, which is faster */
+		XOROSHIRO
+		{
+			@Override
+			public Random [] createChainRandoms(long seed, int numberOfChains)
+			{
+				Xoroshiro128Random root = new Xoroshiro128Random(seed);
+				Random [] rnds = new Random[numberOfChains];
+				for (int c = 1; c < numberOfChains; c++)
+					rnds[c] = root.split();
+				rnds[0] = root;
+				return rnds;
+			}
+		};
+
+		/**
+		 * Creates the random sources of the chains. The same seed yields
+		 * the same sources.
+		 *
+		 * @param seed the seed of the calculation
+		 * @param numberOfChains the number of chains
+		 * @return the random sources, one for each chain. Each one must
+		 *  be used by a single thread only.
+		 */
+		public abstract Random [] createChainRandoms(long seed, int numberOfChains);
+	}
+
 
 	public Bayes2GOCalculation()
 	{
@@ -70,6 +197,9 @@ public class Bayes2GOCalculation implements ICalculation, ISlimCalculation, IPro
 	public Bayes2GOCalculation(Bayes2GOCalculation calc)
 	{
 		this.usePrior = calc.usePrior;
+		this.integrateParams = calc.integrateParams;
+		this.randomStart = calc.randomStart;
+		this.updateReportTime = calc.updateReportTime;
 		this.expectedNumberOfTerms = new IntegerParam(calc.expectedNumberOfTerms);
 		this.alpha = new DoubleParam(calc.alpha);
 		this.beta = new DoubleParam(calc.beta);
@@ -77,6 +207,21 @@ public class Bayes2GOCalculation implements ICalculation, ISlimCalculation, IPro
 		this.calculationProgress = calc.calculationProgress;
 		this.takePopulationAsReference = calc.takePopulationAsReference;
 		this.mcmcSteps = calc.mcmcSteps;
+		this.numberOfChains = calc.numberOfChains;
+		this.convergenceThreshold = calc.convergenceThreshold;
+		this.convergenceCheckInterval = calc.convergenceCheckInterval;
+		this.randomSource = calc.randomSource;
+		this.burnin = calc.burnin;
+		this.thinning = calc.thinning;
+		this.checkpointFile = calc.checkpointFile;
+		this.checkpointInterval = calc.checkpointInterval;
+		this.numberOfReplicas = calc.numberOfReplicas;
+		this.maxTemperature = calc.maxTemperature;
+		this.swapInterval = calc.swapInterval;
+		this.collapseIdenticalTerms = calc.collapseIdenticalTerms;
+		this.emWarmStart = calc.emWarmStart;
+		this.snapshotInterval = calc.snapshotInterval;
+		this.valuedShape = calc.valuedShape;
 	}
 
 	/**
@@ -204,6 +349,176 @@ public class Bayes2GOCalculation implements ICalculation, ISlimCalculation, IPro
 		this.mcmcSteps = mcmcSteps;
 	}
 
+	/**
+	 * Sets the number of independent chains that are run concurrently. If
+	 * more than one chain is used, the chains are stopped as soon as the
+	 * Gelman-Rubin diagnostic indicates convergence for all terms, but
+	 * after at most the configured number of mcmc steps. The records of
+	 * all chains are then merged.
+	 *
+	 * @param numberOfChains
+	 */
+	public void setNumberOfChains(int numberOfChains)
+	{
+		this.numberOfChains = Math.max(1, numberOfChains);
+	}
+
+	/**
+	 * Sets the R-hat value below which a term is considered as converged.
+	 *
+	 * @param convergenceThreshold
+	 */
+	public void setConvergenceThreshold(double convergenceThreshold)
+	{
+		this.convergenceThreshold = convergenceThreshold;
+	}
+
+	/**
+	 * Sets the number of steps after which the convergence of multiple
+	 * chains is checked.
+	 *
+	 * @param convergenceCheckInterval
+	 */
+	public void setConvergenceCheckInterval(int convergenceCheckInterval)
+	{
+		this.convergenceCheckInterval = Math.max(1, convergenceCheckInterval);
+	}
+
+	/**
+	 * Sets the number of steps after which the states are recorded.
+	 *
+	 * @param burnin
+	 */
+	public void setBurnin(int burnin)
+	{
+		this.burnin = Math.max(0, burnin);
+	}
+
+	/**
+	 * Sets the thinning of the chains, i.e., only every thinning-th
+	 * state after the burn-in is recorded. The default is 1, i.e.,
+	 * all states are recorded.
+	 *
+	 * @param thinning
+	 */
+	public void setThinning(int thinning)
+	{
+		this.thinning = Math.max(1, thinning);
+	}
+
+	/**
+	 * Sets the file in which the state of the calculation is stored
+	 * periodically. If the file exists when a calculation is started,
+	 * the calculation is resumed from the stored state. The file is
+	 * deleted once the calculation finishes. Checkpoints are supported
+	 * for single chains only, i.e., neither for multiple chains nor for
+	 * parallel tempering.
+	 *
+	 * @param checkpointFile the file or null to disable checkpoints.
+	 */
+	public void setCheckpointFile(File checkpointFile)
+	{
+		this.checkpointFile = checkpointFile;
+	}
+
+	/**
+	 * Sets the number of steps between successive checkpoints.
+	 *
+	 * @param checkpointInterval
+	 */
+	public void setCheckpointInterval(int checkpointInterval)
+	{
+		this.checkpointInterval = Math.max(1, checkpointInterval);
+	}
+
+	/**
+	 * Sets the number of replicas for parallel tempering. If more than one
+	 * replica is used, the replicas are sampled concurrently at temperatures
+	 * that are spaced geometrically between 1 and the maximum temperature.
+	 * Replicas at neighbored temperatures periodically propose to swap their
+	 * states. Only the states of the replica at temperature 1 are recorded.
+	 * Parallel tempering takes precedence over multiple chains.
+	 *
+	 * @param numberOfReplicas
+	 */
+	public void setNumberOfReplicas(int numberOfReplicas)
+	{
+		this.numberOfReplicas = Math.max(1, numberOfReplicas);
+	}
+
+	/**
+	 * Sets the temperature of the hottest replica.
+	 *
+	 * @param maxTemperature a value larger than 1
+	 */
+	public void setMaxTemperature(double maxTemperature)
+	{
+		if (!(maxTemperature > 1))
+			throw new IllegalArgumentException("The maximum temperature must be larger than 1");
+		this.maxTemperature = maxTemperature;
+	}
+
+	/**
+	 * Sets the number of steps between successive swap attempts of the
+	 * replicas.
+	 *
+	 * @param swapInterval
+	 */
+	public void setSwapInterval(int swapInterval)
+	{
+		this.swapInterval = Math.max(1, swapInterval);
+	}
+
+	/**
+	 * Sets whether terms that are annotated to exactly the same items should
+	 * be collapsed into a single term before sampling. This reduces the
+	 * number of states and thus speeds up mixing. Note that this changes
+	 * the model as a class of identical terms is then a single variable.
+	 * Each term of the class gets the marginal of the class.
+	 *
+	 * @param collapseIdenticalTerms
+	 */
+	public void setCollapseIdenticalTerms(boolean collapseIdenticalTerms)
+	{
+		this.collapseIdenticalTerms = collapseIdenticalTerms;
+	}
+
+	/**
+	 * Sets whether the iterations of the EM, which is used if a parameter is
+	 * of type EM, should be warm started. In this case, the scores of the
+	 * chains are reparameterized after each iteration and the chains continue
+	 * with their last states without a burn-in, instead of starting from
+	 * scratch.
+	 *
+	 * @param emWarmStart
+	 */
+	public void setEMWarmStart(boolean emWarmStart)
+	{
+		this.emWarmStart = emWarmStart;
+	}
+
+	/**
+	 * Sets the kind of the random sources that drive the chains.
+	 *
+	 * @param randomSource
+	 */
+	public void setRandomSource(RandomSource randomSource)
+	{
+		this.randomSource = randomSource;
+	}
+
+	/**
+	 * Returns the Gelman-Rubin R-hat values of the terms as determined at the
+	 * end of the last calculation with multiple chains.
+	 *
+	 * @return the R-hat values indexed by the terms or null if the last
+	 *  calculation used a single chain.
+	 */
+	public double [] getRHat()
+	{
+		return rHat;
+	}
+
 	/**
 	 * Sets whether a random start should be used.
 	 *
@@ -224,6 +539,20 @@ public class Bayes2GOCalculation implements ICalculation, ISlimCalculation, IPro
 		this.updateReportTime = updateReportTime;
 	}
 
+	/**
+	 * Sets the shape parameter a of the Beta(a,1) distribution that is
+	 * assumed for the values of active genes in a valued calculation.
+	 *
+	 * @param valuedShape a value in (0,1), smaller values emphasize
+	 *  small gene values more.
+	 */
+	public void setValuedShape(double valuedShape)
+	{
+		if (!(valuedShape > 0 && valuedShape < 1))
+			throw new IllegalArgumentException("The shape must be in (0,1)");
+		this.valuedShape = valuedShape;
+	}
+
 	public EnrichedGOTermsResult calculateStudySet(Ontology graph,
 			AssociationContainer goAssociations, PopulationSet populationSet,
 			StudySet studySet)
@@ -291,15 +620,20 @@ public class Bayes2GOCalculation implements ICalculation, ISlimCalculation, IPro
 			StudySet studySet,
 			boolean valuedCalculation)
 	{
-		if (valuedCalculation)
-		{
-			throw new IllegalArgumentException("Valued calculation not supported at the moment!");
-		}
 		IntMapper<TermID> termMapper = IntMapper.create(populationEnumerator.getAllAnnotatedTermsAsList());
 		IntMapper<ByteString> geneMapper = IntMapper.create(populationEnumerator.getGenesAsList());
 		int [][] termLinks = CalculationUtils.makeTermLinks(populationEnumerator, termMapper, geneMapper);
-		boolean [] observedItems = geneMapper.getDense(studyEnumerator.getGenes());
-		double [] r = calculate(termLinks, observedItems);
+
+		double [] r;
+		if (valuedCalculation)
+		{
+			/* The values are looked up once, the sampler then works on the dense array */
+			r = calculateValued(termLinks, ValuedGOScore.getGeneValues(geneMapper, studySet));
+		} else
+		{
+			boolean [] observedItems = geneMapper.getDense(studyEnumerator.getGenes());
+			r = calculate(termLinks, observedItems);
+		}
 
 		for (int i = 0; i < r.length; i++)
 		{
@@ -309,6 +643,8 @@ public class Bayes2GOCalculation implements ICalculation, ISlimCalculation, IPro
 			prop.annotatedStudyGenes = studyEnumerator.getAnnotatedGenes(tid).totalAnnotatedCount();
 			prop.annotatedPopulationGenes = populationEnumerator.getAnnotatedGenes(tid).totalAnnotatedCount();
 			prop.marg = r[i];
+			if (rHat != null)
+				prop.rHat = rHat[i];
 
 			/* At the moment, we need these fields for technical reasons */
 			prop.p = 1 - r[i];
@@ -331,6 +667,93 @@ public class Bayes2GOCalculation implements ICalculation, ISlimCalculation, IPro
 		this.bayes2GOCalculationProgress = bayes2GOCalculationProgress;
 	}
 
+	/**
+	 * Subscribes the given listener to snapshots of the marginals. Snapshots
+	 * are published by single chains and by multiple independent chains,
+	 * but not by parallel tempering.
+	 *
+	 * @param listener
+	 */
+	public void addMarginalsListener(MarginalsListener listener)
+	{
+		marginalsListeners.add(listener);
+	}
+
+	/**
+	 * Unsubscribes the given listener.
+	 *
+	 * @param listener
+	 */
+	public void removeMarginalsListener(MarginalsListener listener)
+	{
+		marginalsListeners.remove(listener);
+	}
+
+	/**
+	 * Sets the number of steps between successive snapshots of the marginals.
+	 * For multiple chains, the snapshots are published after each
+	 * convergence check instead.
+	 *
+	 * @param snapshotInterval
+	 */
+	public void setSnapshotInterval(int snapshotInterval)
+	{
+		if (snapshotInterval < 1)
+			throw new IllegalArgumentException("The snapshot interval must be positive");
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	/**
+	 * Requests the running calculation to stop as soon as possible, e.g.,
+	 * because the intermediate marginals are good enough. The calculation
+	 * then returns the marginals of the records made so far. This can be
+	 * called from any thread, e.g., from a listener.
+	 */
+	public void stop()
+	{
+		stopRequested = true;
+	}
+
+	/**
+	 * @return whether the calculation or its parent has been requested to
+	 *  stop.
+	 */
+	private boolean isStopRequested()
+	{
+		return stopRequested || (parent != null && parent.stopRequested);
+	}
+
+	/**
+	 * Publishes a snapshot to all listeners.
+	 *
+	 * @param iteration the EM iteration
+	 * @param step the number of steps performed in the iteration
+	 * @param activationCounts the activation counts of the terms of the sampled model
+	 * @param numRecords the number of records
+	 * @param score the current score
+	 * @param maxScore the maximal score or NaN
+	 * @param maxScoredTerms the terms of the sampled model of the maximal score
+	 */
+	private void publishSnapshot(int iteration, int step, int [] activationCounts, int numRecords, double score, double maxScore, int [] maxScoredTerms)
+	{
+		double [] marginals = new double[activationCounts.length];
+		if (numRecords > 0)
+		{
+			for (int t = 0; t < marginals.length; t++)
+				marginals[t] = (double)activationCounts[t] / numRecords;
+		}
+
+		if (sampledClasses != null)
+		{
+			marginals = sampledClasses.expand(marginals);
+			maxScoredTerms = sampledClasses.expandTerms(maxScoredTerms);
+		}
+
+		MarginalsSnapshot snapshot = new MarginalsSnapshot(iteration, step, numRecords, marginals, score, maxScore, maxScoredTerms);
+		for (MarginalsListener listener : marginalsListeners)
+			listener.snapshot(snapshot);
+	}
+
 	public String getDescription()
 	{
 		// TODO Auto-generated method stub
@@ -351,6 +774,158 @@ public class Bayes2GOCalculation implements ICalculation, ISlimCalculation, IPro
 		return false;
 	}
 
+	/**
+	 * Creates a new score for the given parameters.
+	 *
+	 * @param rnd the random source used for proposals
+	 * @param term2Items
+	 * @param observedItems
+	 * @param alpha the alpha value or NaN if it should be sampled.
+	 * @param beta the beta value or NaN if it should be sampled.
+	 * @param expectedNumberOfTerms the expected number of terms or NaN if it should be sampled.
+	 * @return the score
+	 */
+	private FixedAlphaBetaScore createScore(Random rnd, int [][] term2Items, boolean [] observedItems, double alpha, double beta, double expectedNumberOfTerms)
+	{
+		FixedAlphaBetaScore fixedAlphaBetaScore = new FixedAlphaBetaScore(rnd, term2Items, observedItems);
+		fixedAlphaBetaScore.setIntegrateParams(integrateParams);
+		fixedAlphaBetaScore.setAlpha(alpha);
+		if (this.alpha.hasMax())
+			fixedAlphaBetaScore.setMaxAlpha(this.alpha.getMax());
+		fixedAlphaBetaScore.setBeta(beta);
+		if (this.beta.hasMax())
+			fixedAlphaBetaScore.setMaxBeta(this.beta.getMax());
+		fixedAlphaBetaScore.setExpectedNumberOfTerms(expectedNumberOfTerms);
+		fixedAlphaBetaScore.setUsePrior(usePrior);
+		return fixedAlphaBetaScore;
+	}
+
+	/**
+	 * Activates a random number of random terms.
+	 *
+	 * @param fixedAlphaBetaScore the score whose terms should be activated.
+	 * @param rnd the random source
+	 * @param numTerms the number of terms
+	 */
+	private static void randomStart(FixedAlphaBetaScore fixedAlphaBetaScore, Random rnd, int numTerms)
+	{
+		int numberOfTerms = fixedAlphaBetaScore.EXPECTED_NUMBER_OF_TERMS[rnd.nextInt(fixedAlphaBetaScore.EXPECTED_NUMBER_OF_TERMS.length)];
+		double pForStart = ((double)numberOfTerms) / numTerms;
+
+		for (int j = 0; j < numTerms; j++)
+			if (rnd.nextDouble() < pForStart) fixedAlphaBetaScore.switchState(j);
+
+		logger.log(INFO, "Starting with " + fixedAlphaBetaScore.getActiveTerms().length + " terms (p=" + pForStart + ")");
+	}
+
+	/**
+	 * Runs the chains of the given scores concurrently until the Gelman-Rubin
+	 * diagnostic indicates convergence for all terms or until the given
+	 * number of steps has been performed. Afterwards, the records of all
+	 * chains are merged into the first score.
+	 *
+	 * @param scores the scores, one for each chain
+	 * @param rnds the random sources, one for each chain
+	 * @param maxSteps the maximum number of steps of each chain
+	 * @param burnin the number of steps after which the states are recorded.
+	 * @param iteration the EM iteration, used for snapshots.
+	 */
+	private void runChains(FixedAlphaBetaScore [] scores, Random [] rnds, int maxSteps, final int burnin, int iteration)
+	{
+		final MCMCChain [] chains = new MCMCChain[scores.length];
+		for (int c = 0; c < chains.length; c++)
+			chains[c] = new MCMCChain(scores[c], rnds[c]);
+
+		int [][] activationCounts = new int[scores.length][];
+		int [] numRecords = new int[scores.length];
+
+		ForkJoinPool pool = new ForkJoinPool(Math.min(chains.length, Runtime.getRuntime().availableProcessors()));
+		try
+		{
+			int steps = 0;
+			while (steps < maxSteps)
+			{
+				final int segment = Math.min(convergenceCheckInterval, maxSteps - steps);
+				final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(chains.length);
+				for (final MCMCChain chain : chains)
+				{
+					tasks.add(new RecursiveAction()
+					{
+						private static final long serialVersionUID = 1L;
+
+						@Override
+						protected void compute()
+						{
+							chain.run(segment, burnin, thinning);
+						}
+					});
+				}
+				pool.invoke(new RecursiveAction()
+				{
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute()
+					{
+						invokeAll(tasks);
+					}
+				});
+				steps += segment;
+
+				if (calculationProgress != null)
+					calculationProgress.update(steps);
+
+				if (!marginalsListeners.isEmpty())
+				{
+					int [] counts = new int[scores[0].numTerms];
+					int records = 0;
+					for (FixedAlphaBetaScore s : scores)
+					{
+						int [] termActivationCounts = s.getTermActivationCounts();
+						for (int t = 0; t < counts.length; t++)
+							counts[t] += termActivationCounts[t];
+						records += s.numRecords;
+					}
+					publishSnapshot(iteration, steps, counts, records, scores[0].getScore(), Double.NaN, new int[0]);
+				}
+
+				if (isStopRequested())
+				{
+					logger.log(INFO, "Stopped after " + steps + " steps");
+					break;
+				}
+
+				/* Each chain needs at least two records for the diagnostic */
+				if (scores[0].numRecords < 2)
+					continue;
+
+				for (int c = 0; c < scores.length; c++)
+				{
+					activationCounts[c] = scores[c].getTermActivationCounts();
+					numRecords[c] = scores[c].numRecords;
+				}
+				rHat = GelmanRubin.rHat(activationCounts, numRecords);
+
+				double maxRHat = GelmanRubin.max(rHat);
+				logger.log(INFO, (steps*100L/maxSteps) + "% (chains=" + chains.length + " max R-hat=" + maxRHat + ")");
+				if (maxRHat < convergenceThreshold)
+				{
+					logger.log(INFO, "All terms converged after " + steps + " steps");
+					break;
+				}
+			}
+		} finally
+		{
+			pool.shutdown();
+		}
+
+		for (int c = 0; c < chains.length; c++)
+			logger.log(INFO, "Chain " + c + ": numAccepts=" + chains[c].getNumAccepts() + "  numRejects = " + chains[c].getNumRejects());
+
+		for (int c = 1; c < scores.length; c++)
+			scores[0].mergeRecords(scores[c]);
+	}
+
 	/**
 	 * Perform the calculation.
 	 *
@@ -359,21 +934,74 @@ public class Bayes2GOCalculation implements ICalculation, ISlimCalculation, IPro
 	 * @return a vector of marginal probabilities for each term.
 	 */
 	private double[] calculate(int [][] term2Items, boolean [] observedItems)
+	{
+		return calculate(term2Items, createTermClasses(term2Items), observedItems);
+	}
+
+	/**
+	 * Determines the classes of identical terms if terms should be collapsed.
+	 *
+	 * @param term2Items
+	 * @return the classes or null if terms should not or cannot be collapsed.
+	 */
+	private TermClasses createTermClasses(int [][] term2Items)
+	{
+		if (!collapseIdenticalTerms)
+			return null;
+
+		TermClasses classes = new TermClasses(term2Items);
+		if (classes.getNumberOfClasses() == term2Items.length)
+			return null;
+
+		logger.log(INFO, "Collapsed " + term2Items.length + " terms into " + classes.getNumberOfClasses() + " classes of terms with identical items");
+		return classes;
+	}
+
+	/**
+	 * Perform the calculation.
+	 *
+	 * @param term2Items
+	 * @param classes the classes of identical terms or null if the terms
+	 *  should not be collapsed.
+	 * @param observedItems
+	 * @return a vector of marginal probabilities for each term.
+	 */
+	private double[] calculate(int [][] term2Items, TermClasses classes, boolean [] observedItems)
+	{
+		sampledClasses = classes;
+		if (classes == null)
+			return sample(term2Items, observedItems);
+
+		double [] classMarginals = sample(classes.getClass2Items(), observedItems);
+		if (rHat != null)
+			rHat = classes.expand(rHat);
+		return classes.expand(classMarginals);
+	}
+
+	/**
+	 * Samples the model defined by the given terms.
+	 *
+	 * @param term2Items
+	 * @param observedItems
+	 * @return a vector of marginal probabilities for each term.
+	 */
+	private double[] sample(int [][] term2Items, boolean [] observedItems)
 	{
 		int numTerms = term2Items.length;
 		double [] res = new double[numTerms];
 
-		Random rnd;
-		if (seed != 0)
-		{
-			rnd = new Random(seed);
-			logger.log(INFO, "Use a random seed of: " + seed);
-		} else
-		{
-			long newSeed = new Random().nextLong();
-			logger.log(INFO, "Use a random seed of: " + newSeed);
-			rnd = new Random(newSeed);
-		}
+		long usedSeed = seed;
+		if (usedSeed == 0)
+			usedSeed = new Random().nextLong();
+		logger.log(INFO, "Use a random seed of: " + usedSeed);
+
+		/* Each chain gets its own random source, for parallel tempering an additional one decides about swaps */
+		Random [] chainRnds = randomSource.createChainRandoms(usedSeed, numberOfReplicas > 1 ? numberOfReplicas + 1 : numberOfChains);
+		Random rnd = chainRnds[0];
+
+		rHat = null;
+
+		MCMCCheckpoint resume = loadCheckpoint();
 
 		boolean doAlphaEm = false;
 		boolean doBetaEm = false;
@@ -412,10 +1040,39 @@ public class Bayes2GOCalculation implements ICalculation, ISlimCalculation, IPro
 		if (doEm) maxIter = 12;
 		else maxIter = 1;
 
-		for (int i=0;i<maxIter;i++)
+		int firstIter = 0;
+		if (resume != null)
 		{
-			FixedAlphaBetaScore fixedAlphaBetaScore = new FixedAlphaBetaScore(rnd, term2Items, observedItems);
-			fixedAlphaBetaScore.setIntegrateParams(integrateParams);
+			firstIter = resume.iteration;
+			alpha = resume.alpha;
+			beta = resume.beta;
+			expectedNumberOfTerms = resume.expectedNumberOfTerms;
+			rnd = resume.rnd;
+			logger.log(INFO, "Resuming EM iteration " + firstIter + " at step " + resume.steps);
+		}
+
+		/* The scores of all chains, reused by all EM iterations if the EM is warm started */
+		int numberOfScores = numberOfReplicas > 1 ? numberOfReplicas : numberOfChains;
+		FixedAlphaBetaScore [] scores = null;
+
+		boolean stopped = false;
+		for (int i=firstIter;i<maxIter;i++)
+		{
+			/* A warm started iteration continues where the previous one stopped, so it needs no burn-in */
+			boolean warmStart = emWarmStart && i > 0;
+			int iterationBurnin = warmStart ? 0 : burnin;
+
+			FixedAlphaBetaScore fixedAlphaBetaScore;
+			if (warmStart && scores != null)
+			{
+				for (FixedAlphaBetaScore s : scores)
+					s.reparameterize(alpha, beta, expectedNumberOfTerms);
+				fixedAlphaBetaScore = scores[0];
+			} else
+			{
+				scores = null;
+				fixedAlphaBetaScore = createScore(rnd, term2Items, observedItems, alpha, beta, expectedNumberOfTerms);
+			}
 
 			if (doEm)
 			{
@@ -425,103 +1082,138 @@ public class Bayes2GOCalculation implements ICalculation, ISlimCalculation, IPro
 				logger.log(INFO, "MCMC only: " + alpha + "  " + beta + "  " + expectedNumberOfTerms);
 			}
 
-			fixedAlphaBetaScore.setAlpha(alpha);
-			if (this.alpha.hasMax())
-				fixedAlphaBetaScore.setMaxAlpha(this.alpha.getMax());
-			fixedAlphaBetaScore.setBeta(beta);
-			if (this.beta.hasMax())
-				fixedAlphaBetaScore.setMaxBeta(this.beta.getMax());
-			fixedAlphaBetaScore.setExpectedNumberOfTerms(expectedNumberOfTerms);
-			fixedAlphaBetaScore.setUsePrior(usePrior);
-
 			logger.log(INFO, "Score of empty set: " + fixedAlphaBetaScore.getScore());
 
 			/* Provide a starting point */
-			if (randomStart)
-			{
-				int numberOfTerms = fixedAlphaBetaScore.EXPECTED_NUMBER_OF_TERMS[rnd.nextInt(fixedAlphaBetaScore.EXPECTED_NUMBER_OF_TERMS.length)];
-				double pForStart = ((double)numberOfTerms) / term2Items.length;
-
-				for (int j = 0; j < term2Items.length; j++)
-					if (rnd.nextDouble() < pForStart) fixedAlphaBetaScore.switchState(j);
-
-				logger.log(INFO, "Starting with " + fixedAlphaBetaScore.getActiveTerms().length + " terms (p=" + pForStart + ")");
-			}
+			if (randomStart && resume == null && scores == null)
+				randomStart(fixedAlphaBetaScore, rnd, term2Items.length);
 
 			double score = fixedAlphaBetaScore.getScore();
 			logger.log(INFO, "Score of initial set: " + score);
 
 			int maxSteps = mcmcSteps;
-			int burnin = 20000;
-			int numAccepts = 0;
-			int numRejects = 0;
 
 			if (calculationProgress != null)
 				calculationProgress.init(maxSteps);
 
-			double maxScore = score;
-			int [] maxScoredTerms = fixedAlphaBetaScore.getActiveTerms();
-			double maxScoredAlpha = Double.NaN;
-			double maxScoredBeta = Double.NaN;
-			double maxScoredP = Double.NaN;
-			int maxWhenSeen = -1;
-
-			long start = System.currentTimeMillis();
+			if (scores == null)
+			{
+				scores = new FixedAlphaBetaScore[numberOfScores];
+				scores[0] = fixedAlphaBetaScore;
+				for (int c = 1; c < numberOfScores; c++)
+				{
+					scores[c] = createScore(chainRnds[c], term2Items, observedItems, alpha, beta, expectedNumberOfTerms);
+					if (randomStart)
+						randomStart(scores[c], chainRnds[c], term2Items.length);
+				}
+			}
 
-			for (int t=0;t<maxSteps;t++)
+			if (numberOfReplicas > 1)
 			{
-				/* Remember maximum score and terms */
-				if (score > maxScore)
+				ReplicaExchange replicaExchange = new ReplicaExchange(scores, Arrays.copyOf(chainRnds, numberOfReplicas), chainRnds[numberOfReplicas], maxTemperature);
+				replicaExchange.run(maxSteps, iterationBurnin, thinning, swapInterval, calculationProgress, new ReplicaExchange.IStopCheck()
 				{
-					maxScore = score;
-					maxScoredTerms = fixedAlphaBetaScore.getActiveTerms();
-					if (fixedAlphaBetaScore != null)
+					@Override
+					public boolean isStopRequested()
+					{
+						return Bayes2GOCalculation.this.isStopRequested();
+					}
+				});
+			} else if (numberOfChains > 1)
+			{
+				runChains(scores, chainRnds, maxSteps, iterationBurnin, i);
+			} else
+			{
+				MCMCChain chain;
+				if (resume != null)
+				{
+					try
+					{
+						chain = resume.restore(fixedAlphaBetaScore);
+					} catch (IOException e)
 					{
+						throw new IllegalArgumentException("Checkpoint " + checkpointFile + " doesn't match the calculation", e);
+					}
+					score = chain.getScore();
+					resume = null;
+				} else
+				{
+					chain = new MCMCChain(fixedAlphaBetaScore, rnd);
+				}
+
+				double maxScore = score;
+				int [] maxScoredTerms = fixedAlphaBetaScore.getActiveTerms();
+				double maxScoredAlpha = Double.NaN;
+				double maxScoredBeta = Double.NaN;
+				double maxScoredP = Double.NaN;
+				int maxWhenSeen = -1;
+
+				long start = System.currentTimeMillis();
+
+				for (int t=chain.getSteps();t<maxSteps && !isStopRequested();t++)
+				{
+					/* Remember maximum score and terms */
+					if (score > maxScore)
+					{
+						maxScore = score;
+						maxScoredTerms = fixedAlphaBetaScore.getActiveTerms();
 						maxScoredAlpha = fixedAlphaBetaScore.getAlpha();
 						maxScoredBeta = fixedAlphaBetaScore.getBeta();
 						maxScoredP = fixedAlphaBetaScore.getP();
+						maxWhenSeen = t;
 					}
-					maxWhenSeen = t;
-				}
 
-				long now = System.currentTimeMillis();
-				if (now - start > updateReportTime)
-				{
-					logger.log(INFO, (t*100/maxSteps) + "% (score=" + score +" maxScore=" + maxScore + " #terms="+fixedAlphaBetaScore.getActiveTerms().length+
-										" accept/reject=" + Double.toString((double)numAccepts / (double)numRejects) +
-										" accept/steps=" + Double.toString((double)numAccepts / (double)t) +
-										" exp=" + expectedNumberOfTerms + " usePrior=" + usePrior + ")");
-					start = now;
-
-					if (calculationProgress != null)
-						calculationProgress.update(t);
-				}
+					long now = System.currentTimeMillis();
+					if (now - start > updateReportTime)
+					{
+						logger.log(INFO, (t*100/maxSteps) + "% (score=" + score +" maxScore=" + maxScore + " #terms="+fixedAlphaBetaScore.getActiveTerms().length+
+											" accept/reject=" + Double.toString((double)chain.getNumAccepts() / (double)chain.getNumRejects()) +
+											" accept/steps=" + Double.toString((double)chain.getNumAccepts() / (double)t) +
+											" exp=" + expectedNumberOfTerms + " usePrior=" + usePrior + ")");
+						start = now;
+
+						if (calculationProgress != null)
+							calculationProgress.update(t);
+					}
 
-				long oldPossibilities = fixedAlphaBetaScore.getNeighborhoodSize();
-				long r = rnd.nextLong();
-				fixedAlphaBetaScore.proposeNewState(r);
-				double newScore = fixedAlphaBetaScore.getScore();
-				long newPossibilities = fixedAlphaBetaScore.getNeighborhoodSize();
+					chain.step();
+					score = chain.getScore();
 
-				double acceptProb = Math.exp(newScore - score)*(double)oldPossibilities/(double)newPossibilities; /* last quotient is the hasting ratio */
+					if (MCMCChain.isRecordStep(t, iterationBurnin, thinning))
+						fixedAlphaBetaScore.record();
 
-				double u = rnd.nextDouble();
-				if (u >= acceptProb)
-				{
-					fixedAlphaBetaScore.undoProposal();
-					numRejects++;
-				} else
-				{
-					score = newScore;
-					numAccepts++;
-				}
+					if (checkpointFile != null && (t + 1) % checkpointInterval == 0)
+						saveCheckpoint(MCMCCheckpoint.create(i, alpha, beta, expectedNumberOfTerms, chain));
 
-				if (t>burnin)
-					fixedAlphaBetaScore.record();
+					if (bayes2GOCalculationProgress != null)
+						bayes2GOCalculationProgress.update(i, t, chain.getAcceptProb(), chain.getNumAccepts(), score);
 
+					if (!marginalsListeners.isEmpty() && (t + 1) % snapshotInterval == 0)
+					{
+						publishSnapshot(i, t + 1, fixedAlphaBetaScore.getTermActivationCounts(), fixedAlphaBetaScore.numRecords,
+								score, Math.max(score, maxScore), score > maxScore ? fixedAlphaBetaScore.getActiveTerms() : maxScoredTerms);
+					}
+				}
+
+				logger.log(INFO, "numAccepts=" + chain.getNumAccepts() + "  numRejects = " + chain.getNumRejects());
 
-				if (bayes2GOCalculationProgress != null)
-					bayes2GOCalculationProgress.update(i, t, acceptProb, numAccepts, score);
+				if (logger.isLoggable(INFO))
+				{
+					StringBuilder b = new StringBuilder();
+
+					logger.log(INFO, "Term combination that reaches score of " + maxScore +
+								" when alpha=" + maxScoredAlpha +
+								", beta=" + maxScoredBeta +
+								", p=" + maxScoredP +
+								" at step " + maxWhenSeen);
+					b.append("Indices: ");
+					for (int t : maxScoredTerms)
+					{
+						b.append(t);
+						b.append(", ");
+					}
+					logger.log(INFO, b.toString());
+				}
 			}
 
 			if (fixedAlphaBetaScore != null)
@@ -553,11 +1245,18 @@ public class Bayes2GOCalculation implements ICalculation, ISlimCalculation, IPro
 				}
 			}
 
-			if (i==maxIter - 1)
+			/* A stopped calculation returns the records made so far */
+			stopped = isStopRequested();
+
+			if (i==maxIter - 1 || stopped)
 			{
-				for (int t = 0; t < numTerms; t++)
+				if (fixedAlphaBetaScore.numRecords > 0)
 				{
-					res[t] = fixedAlphaBetaScore.termActivationCounts[t] / fixedAlphaBetaScore.numRecords;
+					int [] termActivationCounts = fixedAlphaBetaScore.getTermActivationCounts();
+					for (int t = 0; t < numTerms; t++)
+					{
+						res[t] = (double)termActivationCounts[t] / fixedAlphaBetaScore.numRecords;
+					}
 				}
 			}
 
@@ -583,36 +1282,271 @@ public class Bayes2GOCalculation implements ICalculation, ISlimCalculation, IPro
 				}
 			}
 
-			logger.log(INFO, "numAccepts=" + numAccepts + "  numRejects = " + numRejects);
-
-			if (logger.isLoggable(INFO))
+			if (stopped)
 			{
-				StringBuilder b = new StringBuilder();
-
-				logger.log(INFO, "Term combination that reaches score of " + maxScore +
-							" when alpha=" + maxScoredAlpha +
-							", beta=" + maxScoredBeta +
-							", p=" + maxScoredP +
-							" at step " + maxWhenSeen);
-				b.append("Indices: ");
-				for (int t : maxScoredTerms)
-				{
-					b.append(t);
-					b.append(", ");
-				}
-				logger.log(INFO, b.toString());
+				logger.log(INFO, "Calculation stopped in iteration " + i);
+				break;
 			}
 		}
+		stopRequested = false;
+
+		/* A complete calculation must not be resumed, a stopped one can be */
+		if (checkpointFile != null && numberOfChains == 1 && numberOfReplicas == 1 && !stopped)
+			checkpointFile.delete();
+
 		return res;
 
 	}
 
+	/**
+	 * Loads the checkpoint if one has been configured and exists.
+	 *
+	 * @return the checkpoint or null.
+	 */
+	private MCMCCheckpoint loadCheckpoint()
+	{
+		if (checkpointFile == null || !checkpointFile.exists())
+			return null;
+
+		if (numberOfChains > 1 || numberOfReplicas > 1)
+		{
+			logger.log(INFO, "Ignoring checkpoint " + checkpointFile + " as checkpoints are supported for single chains only");
+			return null;
+		}
+
+		try
+		{
+			return MCMCCheckpoint.load(checkpointFile);
+		} catch (IOException e)
+		{
+			throw new IllegalArgumentException("Unable to read checkpoint " + checkpointFile, e);
+		}
+	}
+
+	/**
+	 * Saves the given checkpoint. Failures are logged but don't stop the
+	 * calculation.
+	 *
+	 * @param checkpoint
+	 */
+	private void saveCheckpoint(MCMCCheckpoint checkpoint)
+	{
+		try
+		{
+			checkpoint.save(checkpointFile);
+		} catch (IOException e)
+		{
+			logger.log(WARNING, "Unable to save checkpoint " + checkpointFile + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Performs a valued calculation, i.e., a calculation that takes the
+	 * values, usually p values, of all items into account rather than
+	 * a study set defined by a threshold. See {@link ValuedGOScore} for
+	 * the model. The alpha and beta parameters are not used. The expected
+	 * number of terms is used if it is fixed, otherwise 1 is assumed.
+	 * The model is sampled by a single chain at temperature 1, i.e.,
+	 * multiple chains, replicas, checkpoints and EM are not supported and
+	 * a warning is logged if they are requested.
+	 *
+	 * @param term2Items map terms to the items
+	 * @param itemValues the value of every item, indexed by the item
+	 * @return a vector of marginal probabilities for each term.
+	 */
+	public double [] calculateValued(int [][] term2Items, double [] itemValues)
+	{
+		warnAboutUnsupportedValuedSettings();
+
+		TermClasses classes = createTermClasses(term2Items);
+		sampledClasses = classes;
+		if (classes == null)
+			return sampleValued(term2Items, itemValues);
+
+		return classes.expand(sampleValued(classes.getClass2Items(), itemValues));
+	}
+
+	/**
+	 * Logs a warning for each setting that is ignored by valued calculations.
+	 */
+	private void warnAboutUnsupportedValuedSettings()
+	{
+		if (numberOfChains > 1)
+			logger.log(WARNING, "Valued calculations use a single chain, ignoring " + numberOfChains + " chains");
+		if (numberOfReplicas > 1)
+			logger.log(WARNING, "Valued calculations don't support parallel tempering, ignoring " + numberOfReplicas + " replicas");
+		if (checkpointFile != null)
+			logger.log(WARNING, "Valued calculations don't support checkpoints, ignoring " + checkpointFile);
+		if (alpha.isEM() || beta.isEM() || expectedNumberOfTerms.isEM())
+			logger.log(WARNING, "Valued calculations don't support EM, ignoring the EM parameters");
+	}
+
+	/**
+	 * Samples the valued model defined by the given terms with a single chain.
+	 *
+	 * @param term2Items
+	 * @param itemValues
+	 * @return a vector of marginal probabilities for each term.
+	 */
+	private double [] sampleValued(int [][] term2Items, double [] itemValues)
+	{
+		long usedSeed = seed;
+		if (usedSeed == 0)
+			usedSeed = new Random().nextLong();
+		logger.log(INFO, "Use a random seed of: " + usedSeed);
+
+		Random rnd = randomSource.createChainRandoms(usedSeed, 1)[0];
+		rHat = null;
+
+		double expectedNumberOfTerms = this.expectedNumberOfTerms.isFixed() ? this.expectedNumberOfTerms.getValue() : 1;
+		logger.log(INFO, "Valued calculation: shape=" + valuedShape + " exp=" + expectedNumberOfTerms);
+
+		ValuedGOScore valuedScore = new ValuedGOScore(rnd, term2Items, itemValues, valuedShape);
+		valuedScore.setUsePrior(usePrior);
+		valuedScore.setExpectedNumberOfTerms(expectedNumberOfTerms);
+
+		if (randomStart)
+		{
+			double pForStart = expectedNumberOfTerms / term2Items.length;
+			for (int j = 0; j < term2Items.length; j++)
+				if (rnd.nextDouble() < pForStart) valuedScore.switchState(j);
+		}
+
+		MCMCChain chain = new MCMCChain(valuedScore, rnd);
+
+		if (calculationProgress != null)
+			calculationProgress.init(mcmcSteps);
+
+		long start = System.currentTimeMillis();
+		for (int t = 0; t < mcmcSteps && !isStopRequested(); t++)
+		{
+			long now = System.currentTimeMillis();
+			if (now - start > updateReportTime)
+			{
+				logger.log(INFO, (t*100L/mcmcSteps) + "% (score=" + chain.getScore() + " #terms=" + valuedScore.getActiveTerms().length + ")");
+				start = now;
+
+				if (calculationProgress != null)
+					calculationProgress.update(t);
+			}
+
+			chain.step();
+
+			if (MCMCChain.isRecordStep(t, burnin, thinning))
+				valuedScore.record();
+
+			if (bayes2GOCalculationProgress != null)
+				bayes2GOCalculationProgress.update(0, t, chain.getAcceptProb(), chain.getNumAccepts(), chain.getScore());
+
+			if (!marginalsListeners.isEmpty() && (t + 1) % snapshotInterval == 0)
+				publishSnapshot(0, t + 1, valuedScore.getTermActivationCounts(), valuedScore.numRecords, chain.getScore(), Double.NaN, new int[0]);
+		}
+		stopRequested = false;
+
+		logger.log(INFO, "numAccepts=" + chain.getNumAccepts() + "  numRejects = " + chain.getNumRejects());
+
+		double [] res = new double[term2Items.length];
+		if (valuedScore.numRecords > 0)
+		{
+			int [] termActivationCounts = valuedScore.getTermActivationCounts();
+			for (int t = 0; t < res.length; t++)
+				res[t] = (double)termActivationCounts[t] / valuedScore.numRecords;
+		}
+		return res;
+	}
+
 	@Override
 	public double[] calculate(int[][] term2Items, int[] studyIds, int numItems)
+	{
+		return calculate(term2Items, toObservedItems(studyIds, numItems));
+	}
+
+	private static boolean [] toObservedItems(int [] studyIds, int numItems)
 	{
 		boolean [] observedItems = new boolean[numItems];
 		for (int i = 0; i < studyIds.length; i++)
 			observedItems[studyIds[i]] = true;
-		return calculate(term2Items, observedItems);
+		return observedItems;
+	}
+
+	/**
+	 * Performs the calculation for many study sets that are defined on the
+	 * same terms and items, e.g., for clusters of a single population. The
+	 * study sets are processed concurrently by copies of this calculation.
+	 * Each study set is processed with the same settings and the same seed
+	 * as it would be processed by {@link #calculate(int[][], int[], int)}.
+	 * Checkpoints are not supported. The progress, if any, is notified
+	 * about completed study sets. A call to {@link #stop()} stops the
+	 * running study sets, which return the marginals of the records made
+	 * so far, and skips the remaining ones, whose marginals are null.
+	 *
+	 * @param term2Items map terms to the items
+	 * @param studyIds the indices of the items of every study set.
+	 * @param numItems number of total items
+	 * @param numberOfThreads the number of threads to use.
+	 * @return the marginals indexed by the study sets and then by the
+	 *  terms.
+	 */
+	public double [][] calculate(final int [][] term2Items, final int [][] studyIds, final int numItems, int numberOfThreads)
+	{
+		final double [][] marginals = new double[studyIds.length][];
+		final TermClasses classes = createTermClasses(term2Items);
+		final ICalculationProgress progress = calculationProgress;
+		final AtomicInteger done = new AtomicInteger();
+
+		if (progress != null)
+			progress.init(studyIds.length);
+
+		final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(studyIds.length);
+		for (int i = 0; i < studyIds.length; i++)
+		{
+			final int study = i;
+			tasks.add(new RecursiveAction()
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute()
+				{
+					if (stopRequested)
+						return;
+
+					Bayes2GOCalculation calc = new Bayes2GOCalculation(Bayes2GOCalculation.this);
+					calc.parent = Bayes2GOCalculation.this;
+					calc.calculationProgress = null;
+					calc.checkpointFile = null;
+					marginals[study] = calc.calculate(term2Items, classes, toObservedItems(studyIds[study], numItems));
+
+					if (progress != null)
+					{
+						int d = done.incrementAndGet();
+						synchronized (progress)
+						{
+							progress.update(d);
+						}
+					}
+				}
+			});
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, numberOfThreads));
+		try
+		{
+			pool.invoke(new RecursiveAction()
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute()
+				{
+					invokeAll(tasks);
+				}
+			});
+		} finally
+		{
+			pool.shutdown();
+			stopRequested = false;
+		}
+		return marginals;
 	}
 }
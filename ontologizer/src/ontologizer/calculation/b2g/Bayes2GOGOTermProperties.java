@@ -11,14 +11,20 @@ import ontologizer.calculation.AbstractGOTermProperties;
 public class Bayes2GOGOTermProperties extends AbstractGOTermProperties
 {
 	private static final String [] propertyNames = new String[]{
-		"ID","Pop.total","Pop.term","Study.total","Study.term","marg"
+		"ID","Pop.total","Pop.term","Study.total","Study.term","marg","rhat"
 		};
 
 	public double marg;
 
+	/** The Gelman-Rubin R-hat value of the term, NaN if only one chain was used */
+	public double rHat = Double.NaN;
+
 	@Override
 	public int getNumberOfProperties()
 	{
+		/* The R-hat value is available only for multiple chains */
+		if (Double.isNaN(rHat))
+			return propertyNames.length - 1;
 		return propertyNames.length;
 	}
 
@@ -39,6 +45,7 @@ public class Bayes2GOGOTermProperties extends AbstractGOTermProperties
 			case	3: return null; /* study gene count */
 			case 	4: return Integer.toString(annotatedStudyGenes);
 			case	5: return Double.toString(marg);
+			case	6: return Double.toString(rHat);
 		}
 		return null;
 	}
@@ -1,5 +1,9 @@
 package ontologizer.calculation.b2g;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -16,8 +20,17 @@ public abstract class Bayes2GOScore extends Bayes2GOScoreBase
 	protected double [] observedValueOfGene;
 
 	protected int numRecords;
+
+	/**
+	 * The number of records in which each term was active. For terms that
+	 * are currently active, the records since activeSinceRecord are not
+	 * yet included, see {@link #flushRecords()}.
+	 */
 	protected int [] termActivationCounts;
 
+	/** The value of numRecords when each of the active terms was activated */
+	private int [] activeSinceRecord;
+
 	protected boolean usePrior = true;
 	protected double p = Double.NaN;
 
@@ -73,6 +86,7 @@ public abstract class Bayes2GOScore extends Bayes2GOScoreBase
 		}
 
 		termActivationCounts = new int[numTerms];
+		activeSinceRecord = new int[numTerms];
 	}
 
 	/**
@@ -175,6 +189,21 @@ public abstract class Bayes2GOScore extends Bayes2GOScoreBase
 		proposeNewState(rnd.nextLong());
 	}
 
+	/**
+	 * Switches the state of the given term. The records in which the term
+	 * was active are accounted when the term gets deactivated.
+	 */
+	@Override
+	public void switchState(int toSwitch)
+	{
+		super.switchState(toSwitch);
+
+		if (positionOfTermInPartition[toSwitch] >= numInactiveTerms)
+			activeSinceRecord[toSwitch] = numRecords;
+		else
+			termActivationCounts[toSwitch] += numRecords - activeSinceRecord[toSwitch];
+	}
+
 	/**
 	 * Exchange the state from t1 to t2. This is merely a short-cut to switchState() being
 	 * called on t1 and t2 in sequence. It does not check if the state is really exchanged.
@@ -200,14 +229,105 @@ public abstract class Bayes2GOScore extends Bayes2GOScoreBase
 	public abstract long getNeighborhoodSize();
 
 	/**
-	 * Records the current settings.
+	 * Records the current settings. The activations of the terms are
+	 * counted lazily, so this takes constant time.
 	 */
 	public void record()
+	{
+		numRecords++;
+	}
+
+	/**
+	 * Accounts the records of the currently active terms in
+	 * termActivationCounts.
+	 */
+	public void flushRecords()
 	{
 		for (int i = numInactiveTerms; i < numTerms; i++)
-			termActivationCounts[termPartition[i]]++;
+		{
+			int t = termPartition[i];
+			termActivationCounts[t] += numRecords - activeSinceRecord[t];
+			activeSinceRecord[t] = numRecords;
+		}
+	}
 
-		numRecords++;
+	/**
+	 * @return the number of records in which each term was active. The
+	 *  returned array must not be modified.
+	 */
+	public int [] getTermActivationCounts()
+	{
+		flushRecords();
+		return termActivationCounts;
+	}
+
+	/**
+	 * @return the number of records.
+	 */
+	public int getNumRecords()
+	{
+		return numRecords;
+	}
+
+	/**
+	 * Discards all records.
+	 */
+	public void resetRecords()
+	{
+		Arrays.fill(termActivationCounts, 0);
+		numRecords = 0;
+		for (int i = numInactiveTerms; i < numTerms; i++)
+			activeSinceRecord[termPartition[i]] = 0;
+	}
+
+	/**
+	 * Adds the records of another score to the records of this score,
+	 * e.g., to merge the results of independent chains. Both scores must
+	 * be defined on the same terms.
+	 *
+	 * @param other the score whose records should be added.
+	 */
+	public void mergeRecords(Bayes2GOScore other)
+	{
+		flushRecords();
+		other.flushRecords();
+
+		for (int i = 0; i < numTerms; i++)
+			termActivationCounts[i] += other.termActivationCounts[i];
+
+		numRecords += other.numRecords;
+
+		for (int i = numInactiveTerms; i < numTerms; i++)
+			activeSinceRecord[termPartition[i]] = numRecords;
+	}
+
+	/**
+	 * Writes the current state including the records.
+	 */
+	@Override
+	public void writeState(DataOutput out) throws IOException
+	{
+		flushRecords();
+		super.writeState(out);
+
+		out.writeInt(numRecords);
+		for (int i = 0; i < numTerms; i++)
+			out.writeInt(termActivationCounts[i]);
+	}
+
+	/**
+	 * Restores the current state including the records.
+	 */
+	@Override
+	public void readState(DataInput in) throws IOException
+	{
+		super.readState(in);
+
+		numRecords = in.readInt();
+		for (int i = 0; i < numTerms; i++)
+			termActivationCounts[i] = in.readInt();
+		for (int i = numInactiveTerms; i < numTerms; i++)
+			activeSinceRecord[termPartition[i]] = numRecords;
 	}
 
 	/**
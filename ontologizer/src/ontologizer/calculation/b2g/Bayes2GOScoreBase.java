@@ -1,5 +1,9 @@
 package ontologizer.calculation.b2g;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public abstract class Bayes2GOScoreBase
 {
 	/** Indicates the activation state of a term */
@@ -138,4 +142,53 @@ public abstract class Bayes2GOScoreBase
 	 * @param gid
 	 */
 	public abstract void hiddenGeneDeactivated(int gid);
+
+	/**
+	 * Writes the current state, i.e., the active terms and their order
+	 * within the partition.
+	 *
+	 * @param out the destination
+	 * @throws IOException
+	 */
+	public void writeState(DataOutput out) throws IOException
+	{
+		out.writeInt(numTerms);
+		out.writeInt(observedGenes.length);
+		out.writeInt(numInactiveTerms);
+		for (int i = 0; i < numTerms; i++)
+			out.writeInt(termPartition[i]);
+	}
+
+	/**
+	 * Restores a state that has been written by {@link #writeState(DataOutput)}.
+	 * The score must have been constructed for the same terms and genes.
+	 *
+	 * @param in the source
+	 * @throws IOException if the state cannot be read or doesn't match
+	 */
+	public void readState(DataInput in) throws IOException
+	{
+		if (in.readInt() != numTerms || in.readInt() != observedGenes.length)
+			throw new IOException("State doesn't match the number of terms or genes");
+
+		int newNumInactiveTerms = in.readInt();
+		int [] newTermPartition = new int[numTerms];
+		for (int i = 0; i < numTerms; i++)
+		{
+			newTermPartition[i] = in.readInt();
+			if (newTermPartition[i] < 0 || newTermPartition[i] >= numTerms)
+				throw new IOException("Invalid term " + newTermPartition[i]);
+		}
+
+		/* Deactivate all terms, then activate the terms of the state so that the
+		 * gene counts are updated, and finally take over the order of the partition */
+		for (int i = 0; i < numTerms; i++)
+			if (isActive[i]) switchState(i);
+		for (int i = newNumInactiveTerms; i < numTerms; i++)
+			switchState(newTermPartition[i]);
+
+		termPartition = newTermPartition;
+		for (int i = 0; i < numTerms; i++)
+			positionOfTermInPartition[termPartition[i]] = i;
+	}
 }
@@ -1,5 +1,9 @@
 package ontologizer.calculation.b2g;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
 
 import ontologizer.calculation.util.Gamma;
@@ -38,6 +42,25 @@ public class FixedAlphaBetaScore extends Bayes2GOScore
 	protected double alpha = Double.NaN;
 	protected double beta = Double.NaN;
 
+	/*
+	 * Logarithms of the grid values and of their complements, indexed like
+	 * the grids, and the ones of fixed values. Thus, the score is just a sum
+	 * of products with the counts.
+	 */
+	private double [] logAlphaGrid;
+	private double [] log1mAlphaGrid;
+	private double [] logBetaGrid;
+	private double [] log1mBetaGrid;
+	private double [] logPGrid;
+	private double [] log1mPGrid;
+
+	private double logFixedAlpha;
+	private double log1mFixedAlpha;
+	private double logFixedBeta;
+	private double log1mFixedBeta;
+	private double logFixedP;
+	private double log1mFixedP;
+
 	/** True negative count */
 	private int n00;
 
@@ -65,6 +88,8 @@ public class FixedAlphaBetaScore extends Bayes2GOScore
 	{
 		this.alpha = alpha;
 		doAlphaMCMC = Double.isNaN(alpha);
+		logFixedAlpha = Math.log(alpha);
+		log1mFixedAlpha = Math.log(1-alpha);
 	}
 
 	/**
@@ -76,6 +101,8 @@ public class FixedAlphaBetaScore extends Bayes2GOScore
 	{
 		this.beta = beta;
 		doBetaMCMC = Double.isNaN(beta);
+		logFixedBeta = Math.log(beta);
+		log1mFixedBeta = Math.log(1-beta);
 	}
 
 	@Override
@@ -83,6 +110,8 @@ public class FixedAlphaBetaScore extends Bayes2GOScore
 	{
 		super.setExpectedNumberOfTerms(terms);
 		doExpMCMC = Double.isNaN(terms);
+		logFixedP = Math.log(p);
+		log1mFixedP = Math.log(1-p);
 	}
 
 	public void setMaxAlpha(double maxAlpha)
@@ -101,6 +130,14 @@ public class FixedAlphaBetaScore extends Bayes2GOScore
 		ALPHA[0] = 0.0000001;
 		for (int i=1;i<20;i++)
 			ALPHA[i] = i * maxAlpha / span;
+
+		logAlphaGrid = new double[ALPHA.length];
+		log1mAlphaGrid = new double[ALPHA.length];
+		for (int i=0;i<ALPHA.length;i++)
+		{
+			logAlphaGrid[i] = Math.log(ALPHA[i]);
+			log1mAlphaGrid[i] = Math.log(1-ALPHA[i]);
+		}
 	}
 
 	public void setMaxBeta(double maxBeta)
@@ -120,6 +157,13 @@ public class FixedAlphaBetaScore extends Bayes2GOScore
 		for (int i=1;i<20;i++)
 			BETA[i] = i * maxBeta / span;
 
+		logBetaGrid = new double[BETA.length];
+		log1mBetaGrid = new double[BETA.length];
+		for (int i=0;i<BETA.length;i++)
+		{
+			logBetaGrid[i] = Math.log(BETA[i]);
+			log1mBetaGrid[i] = Math.log(1-BETA[i]);
+		}
 	}
 
 	/**
@@ -140,6 +184,15 @@ public class FixedAlphaBetaScore extends Bayes2GOScore
 		setMaxAlpha(1.);
 		setMaxBeta(1.);
 
+		logPGrid = new double[EXPECTED_NUMBER_OF_TERMS.length];
+		log1mPGrid = new double[EXPECTED_NUMBER_OF_TERMS.length];
+		for (int i=0;i<EXPECTED_NUMBER_OF_TERMS.length;i++)
+		{
+			double p = (double)EXPECTED_NUMBER_OF_TERMS[i] / numTerms;
+			logPGrid[i] = Math.log(p);
+			log1mPGrid[i] = Math.log(1-p);
+		}
+
 		/* At this state, all terms are inactive, hence all observed genes are false positive */
 		for (int i=0; i < observedGenes.length; i++)
 		{
@@ -329,18 +382,38 @@ public class FixedAlphaBetaScore extends Bayes2GOScore
 
 		if (!integrateParams)
 		{
-			double alpha;
-			double beta;
-			double p;
+			double logAlpha, log1mAlpha;
+			double logBeta, log1mBeta;
+
+			if (Double.isNaN(this.alpha))
+			{
+				logAlpha = logAlphaGrid[alphaIdx];
+				log1mAlpha = log1mAlphaGrid[alphaIdx];
+			} else
+			{
+				logAlpha = logFixedAlpha;
+				log1mAlpha = log1mFixedAlpha;
+			}
 
-			alpha = getAlpha();
-			beta = getBeta();
-			p = getP();
+			if (Double.isNaN(this.beta))
+			{
+				logBeta = logBetaGrid[betaIdx];
+				log1mBeta = log1mBetaGrid[betaIdx];
+			} else
+			{
+				logBeta = logFixedBeta;
+				log1mBeta = log1mFixedBeta;
+			}
 
-			newScore2 = Math.log(alpha) * n10 + Math.log(1-alpha)*n00 + Math.log(1-beta)*n11 + Math.log(beta)*n01;
+			newScore2 = logAlpha * n10 + log1mAlpha*n00 + log1mBeta*n11 + logBeta*n01;
 
 			if (usePrior)
-				newScore2 += Math.log(p)*(numTerms - numInactiveTerms) + Math.log(1-p)*numInactiveTerms;
+			{
+				if (Double.isNaN(this.p))
+					newScore2 += logPGrid[expIdx]*(numTerms - numInactiveTerms) + log1mPGrid[expIdx]*numInactiveTerms;
+				else
+					newScore2 += logFixedP*(numTerms - numInactiveTerms) + log1mFixedP*numInactiveTerms;
+			}
 		} else
 		{
 			/* Prior */
@@ -396,6 +469,115 @@ public class FixedAlphaBetaScore extends Bayes2GOScore
 		totalT += (numTerms - numInactiveTerms);
 	}
 
+	@Override
+	public void resetRecords()
+	{
+		super.resetRecords();
+
+		totalN00 = 0;
+		totalN01 = 0;
+		totalN10 = 0;
+		totalN11 = 0;
+		totalT = 0;
+
+		Arrays.fill(totalAlpha, 0);
+		Arrays.fill(totalBeta, 0);
+		Arrays.fill(totalExp, 0);
+	}
+
+	/**
+	 * Changes the parameters of the model while keeping the current state,
+	 * e.g., for the next iteration of an EM. All records are discarded.
+	 *
+	 * @param alpha the alpha value or NaN if it should be sampled.
+	 * @param beta the beta value or NaN if it should be sampled.
+	 * @param expectedNumberOfTerms the expected number of terms or NaN if it should be sampled.
+	 */
+	public void reparameterize(double alpha, double beta, double expectedNumberOfTerms)
+	{
+		setAlpha(alpha);
+		setBeta(beta);
+		setExpectedNumberOfTerms(expectedNumberOfTerms);
+		resetRecords();
+	}
+
+	@Override
+	public void mergeRecords(Bayes2GOScore other)
+	{
+		super.mergeRecords(other);
+
+		FixedAlphaBetaScore o = (FixedAlphaBetaScore)other;
+		totalN00 += o.totalN00;
+		totalN01 += o.totalN01;
+		totalN10 += o.totalN10;
+		totalN11 += o.totalN11;
+		totalT += o.totalT;
+
+		for (int i = 0; i < totalAlpha.length; i++)
+			totalAlpha[i] += o.totalAlpha[i];
+		for (int i = 0; i < totalBeta.length; i++)
+			totalBeta[i] += o.totalBeta[i];
+		for (int i = 0; i < totalExp.length; i++)
+			totalExp[i] += o.totalExp[i];
+	}
+
+	@Override
+	public void writeState(DataOutput out) throws IOException
+	{
+		super.writeState(out);
+
+		out.writeInt(alphaIdx);
+		out.writeInt(betaIdx);
+		out.writeInt(expIdx);
+
+		out.writeLong(totalN00);
+		out.writeLong(totalN01);
+		out.writeLong(totalN10);
+		out.writeLong(totalN11);
+		out.writeLong(totalT);
+
+		writeInts(out, totalAlpha);
+		writeInts(out, totalBeta);
+		writeInts(out, totalExp);
+	}
+
+	@Override
+	public void readState(DataInput in) throws IOException
+	{
+		super.readState(in);
+
+		alphaIdx = in.readInt();
+		betaIdx = in.readInt();
+		expIdx = in.readInt();
+		if (alphaIdx < 0 || alphaIdx >= ALPHA.length || betaIdx < 0 || betaIdx >= BETA.length || expIdx < 0 || expIdx >= EXPECTED_NUMBER_OF_TERMS.length)
+			throw new IOException("Invalid parameter indices");
+
+		totalN00 = in.readLong();
+		totalN01 = in.readLong();
+		totalN10 = in.readLong();
+		totalN11 = in.readLong();
+		totalT = in.readLong();
+
+		readInts(in, totalAlpha);
+		readInts(in, totalBeta);
+		readInts(in, totalExp);
+	}
+
+	private static void writeInts(DataOutput out, int [] values) throws IOException
+	{
+		out.writeInt(values.length);
+		for (int v : values)
+			out.writeInt(v);
+	}
+
+	private static void readInts(DataInput in, int [] values) throws IOException
+	{
+		if (in.readInt() != values.length)
+			throw new IOException("State doesn't match the parameter grids");
+		for (int i = 0; i < values.length; i++)
+			values[i] = in.readInt();
+	}
+
 	public double getAvgN00()
 	{
 		return (double)totalN00 / numRecords;
@@ -0,0 +1,95 @@
+package ontologizer.calculation.b2g;
+
+/**
+ * Gelman-Rubin convergence diagnostic for the activation of terms as
+ * sampled by several independent chains. For each term, the variance of
+ * the activation frequencies between the chains is compared to the
+ * variance within the chains. The potential scale reduction factor
+ * (R-hat) approaches 1 as the chains converge.
+ */
+public class GelmanRubin
+{
+	private GelmanRubin()
+	{
+	}
+
+	/**
+	 * Calculates the potential scale reduction factor of the activation
+	 * of every term. The activation is a binary variable, hence the mean
+	 * and the variance of a chain follow from the number of records in which
+	 * the term was active.
+	 *
+	 * @param activationCounts the number of records in which the terms were
+	 *  active, indexed by chain and then by term.
+	 * @param numRecords the number of records of each chain.
+	 * @return the R-hat value of every term. Terms that did not vary within any
+	 *  chain get 1 if all chains agree and infinity otherwise.
+	 */
+	public static double [] rHat(int [][] activationCounts, int [] numRecords)
+	{
+		int m = activationCounts.length;
+		if (m < 2)
+			throw new IllegalArgumentException("At least two chains are required");
+
+		/* We use the average number of records, usually all chains have the same */
+		double n = 0;
+		for (int c = 0; c < m; c++)
+		{
+			if (numRecords[c] < 2)
+				throw new IllegalArgumentException("Each chain must have at least two records");
+			n += numRecords[c];
+		}
+		n /= m;
+
+		int numTerms = activationCounts[0].length;
+		double [] rHat = new double[numTerms];
+		double [] means = new double[m];
+
+		for (int t = 0; t < numTerms; t++)
+		{
+			double meanOfMeans = 0;
+			double w = 0;
+
+			for (int c = 0; c < m; c++)
+			{
+				double nc = numRecords[c];
+				double mean = activationCounts[c][t] / nc;
+				means[c] = mean;
+				meanOfMeans += mean;
+				w += nc / (nc - 1) * mean * (1 - mean);
+			}
+			meanOfMeans /= m;
+			w /= m;
+
+			/* This is B / n */
+			double b = 0;
+			for (int c = 0; c < m; c++)
+				b += (means[c] - meanOfMeans) * (means[c] - meanOfMeans);
+			b /= m - 1;
+
+			if (w == 0)
+			{
+				rHat[t] = b == 0 ? 1 : Double.POSITIVE_INFINITY;
+				continue;
+			}
+
+			double varPlus = (n - 1) / n * w + b;
+			rHat[t] = Math.sqrt(varPlus / w);
+		}
+		return rHat;
+	}
+
+	/**
+	 * Returns the maximum of the given R-hat values.
+	 *
+	 * @param rHat
+	 * @return the maximum or 1 if there are no values.
+	 */
+	public static double max(double [] rHat)
+	{
+		double max = 1;
+		for (double r : rHat)
+			if (r > max || Double.isNaN(r)) max = r;
+		return max;
+	}
+}
@@ -0,0 +1,195 @@
+package ontologizer.calculation.b2g;
+
+import java.util.Random;
+
+/**
+ * A single Metropolis-Hastings chain over the states of a score.
+ */
+class MCMCChain
+{
+	private final Bayes2GOScore score;
+	private final Random rnd;
+
+	/** The score of the current state */
+	private double currentScore;
+
+	/** The score difference and the neighborhood sizes of the last step */
+	private double scoreDiff = Double.NEGATIVE_INFINITY;
+	private long oldPossibilities = 1;
+	private long newPossibilities = 1;
+
+	private int numAccepts;
+	private int numRejects;
+
+	/** The number of steps performed so far */
+	private int steps;
+
+	/** The inverse temperature at which the chain samples, 1 means the original distribution */
+	private double inverseTemperature = 1;
+
+	/**
+	 * Constructs the chain. The current state of the score is the
+	 * starting point of the chain.
+	 *
+	 * @param score the score whose states are sampled.
+	 * @param rnd the random source that decides about proposals and their
+	 *  acceptance.
+	 */
+	public MCMCChain(Bayes2GOScore score, Random rnd)
+	{
+		this.score = score;
+		this.rnd = rnd;
+		this.currentScore = score.getScore();
+	}
+
+	/**
+	 * Performs a single step, i.e., proposes a new state and accepts
+	 * or rejects it.
+	 *
+	 * @return whether the proposal has been accepted.
+	 */
+	public boolean step()
+	{
+		oldPossibilities = score.getNeighborhoodSize();
+		long r = rnd.nextLong();
+		score.proposeNewState(r);
+		double newScore = score.getScore();
+		newPossibilities = score.getNeighborhoodSize();
+
+		scoreDiff = newScore - currentScore;
+
+		steps++;
+
+		double u = rnd.nextDouble();
+
+		/* A proposal that doesn't decrease the score nor enlarge the
+		 * neighborhood has an acceptance probability of at least 1, so
+		 * there is no need to evaluate the exponential function */
+		if ((scoreDiff < 0 || oldPossibilities < newPossibilities) && u >= getAcceptProb())
+		{
+			score.undoProposal();
+			numRejects++;
+			return false;
+		}
+
+		currentScore = newScore;
+		numAccepts++;
+		return true;
+	}
+
+	/**
+	 * Performs the given number of steps. The states after the
+	 * steps following the burn-in are recorded.
+	 *
+	 * @param numberOfSteps the number of steps to perform
+	 * @param burnin the number of steps after which states are recorded.
+	 * @param thinning only every thinning-th state after the burn-in is recorded.
+	 */
+	public void run(int numberOfSteps, int burnin, int thinning)
+	{
+		for (int i = 0; i < numberOfSteps; i++)
+		{
+			step();
+			if (isRecordStep(steps - 1, burnin, thinning))
+				score.record();
+		}
+	}
+
+	/**
+	 * Returns whether the state after the given step is recorded.
+	 *
+	 * @param step the zero-based index of the step
+	 * @param burnin the number of steps after which states are recorded.
+	 * @param thinning only every thinning-th state after the burn-in is recorded.
+	 * @return whether the state should be recorded.
+	 */
+	public static boolean isRecordStep(int step, int burnin, int thinning)
+	{
+		return step > burnin && (step - burnin) % thinning == 0;
+	}
+
+	/**
+	 * Sets the counters of the chain, e.g., when the chain is resumed
+	 * from a checkpoint.
+	 *
+	 * @param steps the number of steps performed so far
+	 * @param numAccepts the number of accepted proposals
+	 * @param numRejects the number of rejected proposals
+	 */
+	public void setCounters(int steps, int numAccepts, int numRejects)
+	{
+		this.steps = steps;
+		this.numAccepts = numAccepts;
+		this.numRejects = numRejects;
+	}
+
+	/**
+	 * Sets the inverse temperature of the chain. The chain then samples
+	 * from the distribution whose log density is the score multiplied by
+	 * the inverse temperature, which is flatter for values below 1.
+	 *
+	 * @param inverseTemperature a positive value
+	 */
+	public void setInverseTemperature(double inverseTemperature)
+	{
+		this.inverseTemperature = inverseTemperature;
+	}
+
+	/**
+	 * @return the inverse temperature of the chain.
+	 */
+	public double getInverseTemperature()
+	{
+		return inverseTemperature;
+	}
+
+	/**
+	 * @return the random source of the chain.
+	 */
+	public Random getRandom()
+	{
+		return rnd;
+	}
+
+	/**
+	 * @return the score of the current state.
+	 */
+	public double getScore()
+	{
+		return currentScore;
+	}
+
+	/**
+	 * @return the underlying score object.
+	 */
+	public Bayes2GOScore getScoreObject()
+	{
+		return score;
+	}
+
+	/**
+	 * @return the acceptance probability of the last step.
+	 */
+	public double getAcceptProb()
+	{
+		return Math.exp(inverseTemperature * scoreDiff)*(double)oldPossibilities/(double)newPossibilities; /* last quotient is the hasting ratio */
+	}
+
+	public int getNumAccepts()
+	{
+		return numAccepts;
+	}
+
+	public int getNumRejects()
+	{
+		return numRejects;
+	}
+
+	/**
+	 * @return the number of steps performed so far.
+	 */
+	public int getSteps()
+	{
+		return steps;
+	}
+}
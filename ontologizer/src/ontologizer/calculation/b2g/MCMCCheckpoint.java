@@ -0,0 +1,178 @@
+package ontologizer.calculation.b2g;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+/**
+ * The state of a single chain of an MGSA calculation that can be written
+ * to disk and be read again in order to resume the calculation. Besides
+ * the state of the chain, the state of the score including its records,
+ * the state of the random source and the current EM iteration together
+ * with its parameters are stored.
+ */
+class MCMCCheckpoint
+{
+	private static final int MAGIC = 0x4d475341; /* MGSA */
+	private static final int VERSION = 1;
+
+	/** The EM iteration */
+	int iteration;
+
+	/** The parameters of the iteration */
+	double alpha;
+	double beta;
+	double expectedNumberOfTerms;
+
+	int steps;
+	int numAccepts;
+	int numRejects;
+
+	Random rnd;
+
+	/** The state of the score as written by Bayes2GOScore.writeState() */
+	byte [] scoreState;
+
+	/**
+	 * Creates the checkpoint of the given chain.
+	 *
+	 * @param iteration the EM iteration
+	 * @param alpha the alpha parameter of the iteration
+	 * @param beta the beta parameter of the iteration
+	 * @param expectedNumberOfTerms the expected number of terms of the iteration
+	 * @param chain the chain whose state should be stored
+	 * @return the checkpoint
+	 */
+	public static MCMCCheckpoint create(int iteration, double alpha, double beta, double expectedNumberOfTerms, MCMCChain chain)
+	{
+		MCMCCheckpoint checkpoint = new MCMCCheckpoint();
+		checkpoint.iteration = iteration;
+		checkpoint.alpha = alpha;
+		checkpoint.beta = beta;
+		checkpoint.expectedNumberOfTerms = expectedNumberOfTerms;
+		checkpoint.steps = chain.getSteps();
+		checkpoint.numAccepts = chain.getNumAccepts();
+		checkpoint.numRejects = chain.getNumRejects();
+		checkpoint.rnd = chain.getRandom();
+
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			chain.getScoreObject().writeState(out);
+			out.close();
+			checkpoint.scoreState = bytes.toByteArray();
+		} catch (IOException e)
+		{
+			/* Doesn't happen for byte arrays */
+			throw new RuntimeException(e);
+		}
+		return checkpoint;
+	}
+
+	/**
+	 * Restores the state of the given score and creates a chain for it.
+	 * The score must have been constructed with the random source of this
+	 * checkpoint.
+	 *
+	 * @param score the score whose state should be restored
+	 * @return the chain that continues where the stored chain stopped.
+	 * @throws IOException if the score doesn't match the stored state
+	 */
+	public MCMCChain restore(Bayes2GOScore score) throws IOException
+	{
+		score.readState(new DataInputStream(new ByteArrayInputStream(scoreState)));
+
+		MCMCChain chain = new MCMCChain(score, rnd);
+		chain.setCounters(steps, numAccepts, numRejects);
+		return chain;
+	}
+
+	/**
+	 * Saves the checkpoint to the given file. The checkpoint is written
+	 * to a temporary file first that then replaces the given file, so an
+	 * interruption doesn't destroy a previous checkpoint.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException
+	{
+		File tmp = new File(file.getPath() + ".tmp");
+		ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(iteration);
+			out.writeDouble(alpha);
+			out.writeDouble(beta);
+			out.writeDouble(expectedNumberOfTerms);
+			out.writeInt(steps);
+			out.writeInt(numAccepts);
+			out.writeInt(numRejects);
+			out.writeObject(rnd);
+			out.writeInt(scoreState.length);
+			out.write(scoreState);
+		} finally
+		{
+			out.close();
+		}
+
+		if (file.exists() && !file.delete())
+			throw new IOException("Unable to replace " + file);
+		if (!tmp.renameTo(file))
+			throw new IOException("Unable to rename " + tmp + " to " + file);
+	}
+
+	/**
+	 * Loads the checkpoint from the given file.
+	 *
+	 * @param file
+	 * @return the checkpoint
+	 * @throws IOException if the file cannot be read or is not a checkpoint.
+	 */
+	public static MCMCCheckpoint load(File file) throws IOException
+	{
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try
+		{
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a checkpoint");
+			if (in.readInt() != VERSION)
+				throw new IOException("Unsupported version of checkpoint " + file);
+
+			MCMCCheckpoint checkpoint = new MCMCCheckpoint();
+			checkpoint.iteration = in.readInt();
+			checkpoint.alpha = in.readDouble();
+			checkpoint.beta = in.readDouble();
+			checkpoint.expectedNumberOfTerms = in.readDouble();
+			checkpoint.steps = in.readInt();
+			checkpoint.numAccepts = in.readInt();
+			checkpoint.numRejects = in.readInt();
+			try
+			{
+				checkpoint.rnd = (Random)in.readObject();
+			} catch (ClassNotFoundException e)
+			{
+				throw new IOException("Unknown random source in " + file);
+			}
+			checkpoint.scoreState = new byte[in.readInt()];
+			in.readFully(checkpoint.scoreState);
+			return checkpoint;
+		} finally
+		{
+			in.close();
+		}
+	}
+}
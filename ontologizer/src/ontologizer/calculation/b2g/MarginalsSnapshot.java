@@ -0,0 +1,138 @@
+package ontologizer.calculation.b2g;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * An immutable snapshot of the state of a running MGSA calculation, i.e.,
+ * the current estimates of the marginal probabilities of the terms and the
+ * state with the maximal score that has been seen so far.
+ */
+public class MarginalsSnapshot
+{
+	private final int iteration;
+	private final int step;
+	private final int numRecords;
+	private final double [] marginals;
+	private final double score;
+	private final double maxScore;
+	private final int [] maxScoredTerms;
+
+	/**
+	 * Constructs the snapshot. The arrays are copied.
+	 *
+	 * @param iteration the EM iteration
+	 * @param step the number of steps performed in the iteration
+	 * @param numRecords the number of records on which the marginals are based
+	 * @param marginals the current marginals of all terms
+	 * @param score the current score
+	 * @param maxScore the maximal score seen so far in the iteration or NaN if unknown
+	 * @param maxScoredTerms the terms that were active when the maximal score was seen
+	 */
+	public MarginalsSnapshot(int iteration, int step, int numRecords, double [] marginals, double score, double maxScore, int [] maxScoredTerms)
+	{
+		this.iteration = iteration;
+		this.step = step;
+		this.numRecords = numRecords;
+		this.marginals = marginals.clone();
+		this.score = score;
+		this.maxScore = maxScore;
+		this.maxScoredTerms = maxScoredTerms.clone();
+	}
+
+	/**
+	 * @return the EM iteration, 0 if no EM is performed.
+	 */
+	public int getIteration()
+	{
+		return iteration;
+	}
+
+	/**
+	 * @return the number of steps performed in the current iteration.
+	 */
+	public int getStep()
+	{
+		return step;
+	}
+
+	/**
+	 * @return the number of records on which the marginals are based.
+	 */
+	public int getNumRecords()
+	{
+		return numRecords;
+	}
+
+	/**
+	 * @return a copy of the current marginals of the terms.
+	 */
+	public double [] getMarginals()
+	{
+		return marginals.clone();
+	}
+
+	/**
+	 * @param term the index of the term
+	 * @return the current marginal of the given term.
+	 */
+	public double getMarginal(int term)
+	{
+		return marginals[term];
+	}
+
+	/**
+	 * @return the current score.
+	 */
+	public double getScore()
+	{
+		return score;
+	}
+
+	/**
+	 * @return the maximal score seen so far or NaN if the sampler doesn't
+	 *  track it.
+	 */
+	public double getMaxScore()
+	{
+		return maxScore;
+	}
+
+	/**
+	 * @return a copy of the terms that were active when the maximal score
+	 *  was seen.
+	 */
+	public int [] getMaxScoredTerms()
+	{
+		return maxScoredTerms.clone();
+	}
+
+	/**
+	 * Returns the terms with the highest marginals, in descending order of
+	 * the marginals. Ties are broken by the index of the term.
+	 *
+	 * @param k the number of terms
+	 * @return the indices of the at most k terms with the highest marginals.
+	 */
+	public int [] getTopTerms(int k)
+	{
+		Integer [] terms = new Integer[marginals.length];
+		for (int t = 0; t < terms.length; t++)
+			terms[t] = t;
+		Arrays.sort(terms, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				int c = Double.compare(marginals[b], marginals[a]);
+				if (c != 0) return c;
+				return a.compareTo(b);
+			}
+		});
+
+		int [] top = new int[Math.min(k, terms.length)];
+		for (int i = 0; i < top.length; i++)
+			top[i] = terms[i];
+		return top;
+	}
+}
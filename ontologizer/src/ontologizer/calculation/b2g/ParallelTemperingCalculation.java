@@ -0,0 +1,37 @@
+package ontologizer.calculation.b2g;
+
+/**
+ * MGSA whose marginals are sampled by parallel tempering, i.e., several
+ * replicas of the model are sampled concurrently at different temperatures
+ * and exchange their states periodically. This improves the mixing on
+ * large ontologies on which a single chain gets stuck in local optima.
+ *
+ * @see Bayes2GOCalculation#setNumberOfReplicas(int)
+ */
+public class ParallelTemperingCalculation extends Bayes2GOCalculation
+{
+	/** Default number of replicas */
+	public static final int DEFAULT_NUMBER_OF_REPLICAS = 4;
+
+	public ParallelTemperingCalculation()
+	{
+		setNumberOfReplicas(DEFAULT_NUMBER_OF_REPLICAS);
+	}
+
+	public ParallelTemperingCalculation(Bayes2GOCalculation calc)
+	{
+		super(calc);
+	}
+
+	@Override
+	public String getName()
+	{
+		return "MGSA-PT";
+	}
+
+	@Override
+	public String getDescription()
+	{
+		return "MGSA with parallel tempering";
+	}
+}
@@ -0,0 +1,218 @@
+package ontologizer.calculation.b2g;
+
+import static java.util.logging.Level.INFO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+
+import ontologizer.calculation.ICalculationProgress;
+
+/**
+ * Replica exchange (parallel tempering) sampler. Several replicas of the
+ * model are sampled at different temperatures concurrently. Replicas at
+ * high temperatures sample from flattened distributions and thus cross
+ * the valleys between modes easily. Periodically, replicas at neighbored
+ * temperatures propose to swap their states, so that states found at
+ * high temperatures propagate to the replica at temperature 1. Only the
+ * states of the replica at temperature 1 are recorded.
+ *
+ * Instead of the states, the temperatures of the chains are swapped.
+ */
+class ReplicaExchange
+{
+	private static Logger logger = Logger.getLogger(ReplicaExchange.class.getName());
+
+	/**
+	 * Tells whether the sampling should be stopped early.
+	 */
+	static interface IStopCheck
+	{
+		/**
+		 * @return whether the sampling should be stopped.
+		 */
+		boolean isStopRequested();
+	}
+
+	private final FixedAlphaBetaScore [] scores;
+	private final MCMCChain [] chains;
+
+	/** The inverse temperatures, descending from 1 */
+	private final double [] inverseTemperatures;
+
+	/** The index of the chain that currently samples at the given temperature level */
+	private final int [] chainOfLevel;
+
+	/** Decides about swaps */
+	private final Random swapRnd;
+
+	/** Swap statistics of neighbored levels, i.e., level k and k + 1 */
+	private final int [] swapAttempts;
+	private final int [] swapAccepts;
+
+	/**
+	 * Constructs the sampler.
+	 *
+	 * @param scores the scores of the replicas, at least two.
+	 * @param rnds the random sources of the replicas
+	 * @param swapRnd the random source that decides about swaps
+	 * @param maxTemperature the temperature of the hottest replica. The
+	 *  temperatures of the replicas are spaced geometrically between 1 and
+	 *  this value.
+	 */
+	public ReplicaExchange(FixedAlphaBetaScore [] scores, Random [] rnds, Random swapRnd, double maxTemperature)
+	{
+		int n = scores.length;
+		if (n < 2)
+			throw new IllegalArgumentException("At least two replicas are required");
+
+		this.scores = scores;
+		this.swapRnd = swapRnd;
+
+		chains = new MCMCChain[n];
+		inverseTemperatures = new double[n];
+		chainOfLevel = new int[n];
+		for (int k = 0; k < n; k++)
+		{
+			inverseTemperatures[k] = Math.pow(maxTemperature, -(double)k / (n - 1));
+			chains[k] = new MCMCChain(scores[k], rnds[k]);
+			chains[k].setInverseTemperature(inverseTemperatures[k]);
+			chainOfLevel[k] = k;
+		}
+
+		swapAttempts = new int[n - 1];
+		swapAccepts = new int[n - 1];
+	}
+
+	/**
+	 * Runs all replicas for the given number of steps. Afterwards, all
+	 * records are merged into the first score. A stop request is honoured
+	 * at the next swap attempt.
+	 *
+	 * @param maxSteps the number of steps of each replica.
+	 * @param burnin the number of steps after which the states are recorded.
+	 * @param thinning only every thinning-th state after the burn-in is recorded.
+	 * @param swapInterval the number of steps between successive swap attempts.
+	 * @param progress the progress callback or null.
+	 * @param stopCheck tells whether the sampling should be stopped or null.
+	 */
+	public void run(int maxSteps, final int burnin, final int thinning, int swapInterval, ICalculationProgress progress, IStopCheck stopCheck)
+	{
+		ForkJoinPool pool = new ForkJoinPool(Math.min(chains.length, Runtime.getRuntime().availableProcessors()));
+		try
+		{
+			int steps = 0;
+			while (steps < maxSteps)
+			{
+				final int firstStep = steps;
+				final int segment = Math.min(swapInterval, maxSteps - steps);
+				final int coldChain = chainOfLevel[0];
+
+				final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(chains.length);
+				for (int c = 0; c < chains.length; c++)
+				{
+					final MCMCChain chain = chains[c];
+					final boolean record = c == coldChain;
+					tasks.add(new RecursiveAction()
+					{
+						private static final long serialVersionUID = 1L;
+
+						@Override
+						protected void compute()
+						{
+							for (int i = 0; i < segment; i++)
+							{
+								chain.step();
+								if (record && MCMCChain.isRecordStep(firstStep + i, burnin, thinning))
+									chain.getScoreObject().record();
+							}
+						}
+					});
+				}
+				pool.invoke(new RecursiveAction()
+				{
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute()
+					{
+						invokeAll(tasks);
+					}
+				});
+				steps += segment;
+
+				if (steps < maxSteps)
+					attemptSwaps();
+
+				if (progress != null)
+					progress.update(steps);
+
+				if (stopCheck != null && stopCheck.isStopRequested())
+				{
+					logger.log(INFO, "Stopped after " + steps + " steps");
+					break;
+				}
+			}
+		} finally
+		{
+			pool.shutdown();
+		}
+
+		for (int k = 0; k < swapAttempts.length; k++)
+			logger.log(INFO, "Swap rate of levels " + k + " and " + (k + 1) + " (inverse temperatures " + inverseTemperatures[k] + " and " + inverseTemperatures[k+1] + "): " + getSwapRate(k));
+
+		for (int c = 1; c < scores.length; c++)
+			scores[0].mergeRecords(scores[c]);
+	}
+
+	/**
+	 * Proposes to swap the states of all neighbored temperature levels.
+	 */
+	private void attemptSwaps()
+	{
+		for (int k = 0; k < chainOfLevel.length - 1; k++)
+		{
+			MCMCChain a = chains[chainOfLevel[k]];
+			MCMCChain b = chains[chainOfLevel[k + 1]];
+
+			double logAcceptProb = (inverseTemperatures[k] - inverseTemperatures[k + 1]) * (b.getScore() - a.getScore());
+			double u = swapRnd.nextDouble();
+
+			swapAttempts[k]++;
+			if (logAcceptProb >= 0 || u < Math.exp(logAcceptProb))
+			{
+				int t = chainOfLevel[k];
+				chainOfLevel[k] = chainOfLevel[k + 1];
+				chainOfLevel[k + 1] = t;
+
+				a.setInverseTemperature(inverseTemperatures[k + 1]);
+				b.setInverseTemperature(inverseTemperatures[k]);
+				swapAccepts[k]++;
+			}
+		}
+	}
+
+	/**
+	 * Returns the rate of accepted swaps between the given temperature
+	 * level and the next one.
+	 *
+	 * @param level the level, 0 is the level of temperature 1.
+	 * @return the rate
+	 */
+	public double getSwapRate(int level)
+	{
+		if (swapAttempts[level] == 0) return 0;
+		return (double)swapAccepts[level] / swapAttempts[level];
+	}
+
+	/**
+	 * @return the inverse temperatures of the levels.
+	 */
+	public double [] getInverseTemperatures()
+	{
+		return inverseTemperatures;
+	}
+}
@@ -0,0 +1,129 @@
+package ontologizer.calculation.b2g;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Partitions terms into classes of terms that are annotated to the same
+ * items. All terms of a class have the same influence on the hidden
+ * states of the items, so the model can be sampled on the classes instead
+ * of the terms.
+ */
+class TermClasses
+{
+	/** Wraps a sorted array of items so that it can be used as a key */
+	private static final class Items
+	{
+		final int [] items;
+		final int hash;
+
+		Items(int [] items)
+		{
+			this.items = items;
+			this.hash = Arrays.hashCode(items);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			return obj instanceof Items && Arrays.equals(items, ((Items)obj).items);
+		}
+	}
+
+	/** The class of each term */
+	private final int [] classOfTerm;
+
+	/** The items of each class */
+	private final int [][] class2Items;
+
+	/**
+	 * Determines the classes of the given terms.
+	 *
+	 * @param term2Items the items of every term
+	 */
+	public TermClasses(int [][] term2Items)
+	{
+		classOfTerm = new int[term2Items.length];
+
+		HashMap<Items,Integer> items2Class = new HashMap<Items,Integer>();
+		int [][] class2Items = new int[term2Items.length][];
+		int numClasses = 0;
+
+		for (int t = 0; t < term2Items.length; t++)
+		{
+			int [] items = term2Items[t].clone();
+			Arrays.sort(items);
+
+			Items key = new Items(items);
+			Integer c = items2Class.get(key);
+			if (c == null)
+			{
+				c = numClasses++;
+				items2Class.put(key, c);
+				class2Items[c] = term2Items[t];
+			}
+			classOfTerm[t] = c;
+		}
+
+		this.class2Items = Arrays.copyOf(class2Items, numClasses);
+	}
+
+	/**
+	 * @return the number of classes.
+	 */
+	public int getNumberOfClasses()
+	{
+		return class2Items.length;
+	}
+
+	/**
+	 * @return the items of each class, i.e., the term2Items of the reduced
+	 *  model.
+	 */
+	public int [][] getClass2Items()
+	{
+		return class2Items;
+	}
+
+	/**
+	 * Maps values of the classes back to the terms.
+	 *
+	 * @param classValues values indexed by the classes
+	 * @return values indexed by the terms, each term gets the value of
+	 *  its class.
+	 */
+	public double [] expand(double [] classValues)
+	{
+		double [] termValues = new double[classOfTerm.length];
+		for (int t = 0; t < classOfTerm.length; t++)
+			termValues[t] = classValues[classOfTerm[t]];
+		return termValues;
+	}
+
+	/**
+	 * Maps classes back to the terms.
+	 *
+	 * @param classes indices of classes
+	 * @return the indices of all terms that belong to the given classes,
+	 *  in ascending order.
+	 */
+	public int [] expandTerms(int [] classes)
+	{
+		boolean [] selected = new boolean[class2Items.length];
+		for (int c : classes)
+			selected[c] = true;
+
+		int [] terms = new int[classOfTerm.length];
+		int numTerms = 0;
+		for (int t = 0; t < classOfTerm.length; t++)
+			if (selected[classOfTerm[t]])
+				terms[numTerms++] = t;
+		return Arrays.copyOf(terms, numTerms);
+	}
+}
@@ -14,18 +14,51 @@ import sonumina.collections.IntMapper;
  * the boolean labeling of genes. In order words, here we assume that the study set
  * contains the full population.
  *
+ * The values are interpreted as p values. The values of genes that are not
+ * annotated to any active term are assumed to be uniformly distributed, while
+ * the values of the other genes are assumed to follow a Beta(a,1) distribution,
+ * which puts more weight on small values for a &lt; 1. Each gene that gets
+ * activated thus contributes log(a) + (a - 1) log(value) to the score.
+ *
  * @author Sebastian Bauer
  */
 public class ValuedGOScore extends Bayes2GOScore
 {
+	/** The default shape parameter of the distribution of values of active genes */
+	public static final double DEFAULT_SHAPE = 0.25;
+
+	/** The smallest value that is considered, smaller ones are clamped to it */
+	private static final double MIN_VALUE = 1e-300;
+
 	private int proposalSwitch;
 	private int proposalT1;
 	private int proposalT2;
 
-	public ValuedGOScore(Random rnd, int [][] termLinks, IntMapper<TermID> termMapper, final IntMapper<ByteString> geneMapper,
-			final StudySet valuedStudySet)
+	/** The contribution of each gene to the score if the gene is active */
+	private final double [] geneScore;
+
+	/** Tabulated logarithms of p and 1 - p for the prior */
+	private double logP;
+	private double log1mP;
+
+	public ValuedGOScore(Random rnd, int [][] termLinks, IntMapper<TermID> termMapper, IntMapper<ByteString> geneMapper,
+			StudySet valuedStudySet)
 	{
-		super(rnd, termLinks, geneMapper.getSize(), new Bayes2GOScore.IGeneValueProvider() {
+		this(rnd, termLinks, getGeneValues(geneMapper, valuedStudySet), DEFAULT_SHAPE);
+	}
+
+	/**
+	 * Constructs the score.
+	 *
+	 * @param rnd the random source for proposing states.
+	 * @param termLinks terms to genes.
+	 * @param geneValues the value of each gene, indexed by the gene.
+	 * @param shape the shape parameter a of the Beta(a,1) distribution of
+	 *  the values of active genes. Must be in (0,1).
+	 */
+	public ValuedGOScore(Random rnd, int [][] termLinks, final double [] geneValues, double shape)
+	{
+		super(rnd, termLinks, geneValues.length, new Bayes2GOScore.IGeneValueProvider() {
 			@Override
 			public boolean smallerIsBetter() {
 				return true;
@@ -38,17 +71,52 @@ public class ValuedGOScore extends Bayes2GOScore
 
 			@Override
 			public double getGeneValue(int gid) {
-				return ((ValuedItemAttribute)valuedStudySet.getItemAttribute(geneMapper.get(gid))).getValue();
+				return geneValues[gid];
 			}
 		});
+
+		if (!(shape > 0 && shape < 1))
+			throw new IllegalArgumentException("The shape must be in (0,1)");
+
+		double logShape = Math.log(shape);
+		geneScore = new double[geneValues.length];
+		for (int gid = 0; gid < geneValues.length; gid++)
+			geneScore[gid] = logShape + (shape - 1) * Math.log(Math.max(observedValueOfGene[gid], MIN_VALUE));
+	}
+
+	/**
+	 * Returns the values of the given genes as dense array.
+	 *
+	 * @param geneMapper maps the gene indices to the genes
+	 * @param valuedStudySet the study set that contains the value of every gene
+	 * @return the values indexed by the genes.
+	 */
+	public static double [] getGeneValues(IntMapper<ByteString> geneMapper, StudySet valuedStudySet)
+	{
+		double [] geneValues = new double[geneMapper.getSize()];
+		for (int gid = 0; gid < geneValues.length; gid++)
+			geneValues[gid] = ((ValuedItemAttribute)valuedStudySet.getItemAttribute(geneMapper.get(gid))).getValue();
+		return geneValues;
 	}
 
+	/** The sum of the contributions of the active genes */
 	double score;
 
+	@Override
+	public void setExpectedNumberOfTerms(double terms)
+	{
+		super.setExpectedNumberOfTerms(terms);
+		logP = Math.log(p);
+		log1mP = Math.log(1 - p);
+	}
+
 	@Override
 	public double getScore()
 	{
-		return score;
+		if (!usePrior || Double.isNaN(p))
+			return score;
+		int numActiveTerms = numTerms - numInactiveTerms;
+		return score + numActiveTerms * logP + numInactiveTerms * log1mP;
 	}
 
 	@Override
@@ -84,13 +152,13 @@ public class ValuedGOScore extends Bayes2GOScore
 	@Override
 	public void hiddenGeneActivated(int gid)
 	{
-		score += 1 - observedValueOfGene[gid];
+		score += geneScore[gid];
 	}
 
 	@Override
 	public void hiddenGeneDeactivated(int gid)
 	{
-		score -= 1 - observedValueOfGene[gid];
+		score -= geneScore[gid];
 	}
 
 	@Override
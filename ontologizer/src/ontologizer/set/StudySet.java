@@ -10,6 +10,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Random;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.logging.Level;
@@ -384,6 +385,23 @@ public class StudySet implements Iterable<ByteString>
 		return sampler.sampleRandomStudySet(desiredSize);
 	}
 
+	/**
+	 * Generate a studyset which contains desiredSize random
+	 * selected genes of the population.
+	 *
+	 * @param desiredSize specifies the desired size of
+	 *        the studyset.
+	 * @param rnd the source of randomness.
+	 *
+	 * @return the generated random studyset.
+	 */
+	public StudySet generateRandomStudySet(int desiredSize, Random rnd)
+	{
+		StudySetSampler sampler = new StudySetSampler(this, rnd);
+
+		return sampler.sampleRandomStudySet(desiredSize);
+	}
+
 	public void setName(String newStudySetName)
 	{
 		name = newStudySetName;
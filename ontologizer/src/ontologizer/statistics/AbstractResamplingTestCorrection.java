@@ -1,11 +1,28 @@
 package ontologizer.statistics;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Random;
+
 public abstract class AbstractResamplingTestCorrection extends AbstractTestCorrection
 	implements IResampling
 {
 	/** Specifies the number of resampling steps */
 	protected int numberOfResamplingSteps = 500;
 
+	/** The seed used for resampling, 0 means that a random seed is chosen */
+	private long seed = 0;
+
+	/** Number of threads that are used for resampling */
+	private int numberOfThreads = Runtime.getRuntime().availableProcessors();
+
+	/** Directory for stores of sampled p values that are kept on disk, null if they are kept on the heap */
+	private File storeDirectory;
+
+	/** The persistent cache for samples, may be null */
+	private ResamplingCache cache;
+
 	/** Used for progress update */
 	private IResamplingProgress progress;
 
@@ -25,6 +42,181 @@ public abstract class AbstractResamplingTestCorrection extends AbstractTestCorre
 		return numberOfResamplingSteps;
 	}
 
+	/**
+	 * Sets the seed that is used for resampling. For a given seed,
+	 * the samples do not depend on the number of threads.
+	 *
+	 * @param seed the seed or 0 if a random seed should be chosen.
+	 */
+	public void setSeed(long seed)
+	{
+		this.seed = seed;
+	}
+
+	/**
+	 * Sets the number of threads that are used to draw the samples.
+	 *
+	 * @param numberOfThreads
+	 */
+	public void setNumberOfThreads(int numberOfThreads)
+	{
+		this.numberOfThreads = numberOfThreads;
+	}
+
+	/**
+	 * Sets the directory in which the stores of sampled p values are kept.
+	 * The stores are then mapped into memory rather than being kept on the
+	 * heap, which is useful if many large stores are cached.
+	 *
+	 * @param storeDirectory the directory or null if the stores should be
+	 *  kept on the heap.
+	 */
+	public void setStoreDirectory(File storeDirectory)
+	{
+		this.storeDirectory = storeDirectory;
+	}
+
+	/**
+	 * Creates a new store for sampled p values with room for
+	 * numberOfResamplingSteps sets of the given size.
+	 *
+	 * @param setSize the size of the sets.
+	 * @return the new store.
+	 */
+	protected PvalueSetStore createPvalueSetStore(int setSize)
+	{
+		if (storeDirectory != null)
+		{
+			try
+			{
+				File file = File.createTempFile("pvalues", ".bin", storeDirectory);
+				return new PvalueSetStore(numberOfResamplingSteps, setSize, file);
+			} catch (IOException e)
+			{
+				System.err.println("Unable to create a file backed store: " + e.getMessage() + ". Keeping it in memory.");
+			}
+		}
+		return new PvalueSetStore(numberOfResamplingSteps, setSize);
+	}
+
+	/**
+	 * Releases the given stores of sampled p values, which deletes the
+	 * files of memory mapped stores.
+	 *
+	 * @param stores the stores to release.
+	 */
+	protected void releasePvalueSetStores(Collection<PvalueSetStore> stores)
+	{
+		for (PvalueSetStore store : stores)
+			store.release();
+	}
+
+	/**
+	 * Sets the directory of a persistent cache for the sampled p values. If
+	 * set, samples are looked up in the cache before they are drawn and newly
+	 * drawn samples are put into the cache, so later runs on the same data can
+	 * reuse them. Unlike the in-memory cache, this cache is not affected by
+	 * resetCache().
+	 *
+	 * @param cacheDirectory the directory or null if no persistent cache
+	 *  should be used.
+	 */
+	public void setCacheDirectory(File cacheDirectory)
+	{
+		if (cacheDirectory == null) cache = null;
+		else cache = new ResamplingCache(cacheDirectory);
+	}
+
+	/**
+	 * Returns the key under which the samples of the given calculation are
+	 * persistently cached.
+	 *
+	 * @param pvalues the p value calculation
+	 * @param studySetSize the size of the study set
+	 * @return the key or null if the samples cannot be cached persistently.
+	 */
+	private String getCacheKey(IPValueCalculation pvalues, int studySetSize)
+	{
+		if (cache == null) return null;
+
+		String fingerprint = pvalues.getFingerprint();
+		if (fingerprint == null) return null;
+
+		StringBuilder key = new StringBuilder();
+		key.append(getClass().getName());
+		key.append('/');
+		key.append(fingerprint);
+		key.append('/');
+		key.append(numberOfResamplingSteps);
+		key.append('/');
+		key.append(studySetSize);
+
+		/* Samples of a fixed seed shall be reproducible */
+		if (seed != 0)
+		{
+			key.append('/');
+			key.append(seed);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Loads persistently cached samples.
+	 *
+	 * @param pvalues the p value calculation
+	 * @param studySetSize the size of the study set
+	 * @return the samples or null if they are not available.
+	 */
+	protected PvalueSetStore loadCachedStore(IPValueCalculation pvalues, int studySetSize)
+	{
+		String key = getCacheKey(pvalues, studySetSize);
+		if (key == null) return null;
+		return cache.loadStore(key);
+	}
+
+	/**
+	 * Saves the samples into the persistent cache, if there is one.
+	 *
+	 * @param pvalues the p value calculation
+	 * @param studySetSize the size of the study set
+	 * @param store the samples
+	 */
+	protected void saveCachedStore(IPValueCalculation pvalues, int studySetSize, PvalueSetStore store)
+	{
+		String key = getCacheKey(pvalues, studySetSize);
+		if (key == null) return;
+		cache.saveStore(key, store);
+	}
+
+	/**
+	 * Loads a persistently cached array of values derived from the samples.
+	 *
+	 * @param pvalues the p value calculation
+	 * @param studySetSize the size of the study set
+	 * @return the values or null if they are not available.
+	 */
+	protected double [] loadCachedArray(IPValueCalculation pvalues, int studySetSize)
+	{
+		String key = getCacheKey(pvalues, studySetSize);
+		if (key == null) return null;
+		return cache.loadArray(key);
+	}
+
+	/**
+	 * Saves an array of values derived from the samples into the persistent
+	 * cache, if there is one.
+	 *
+	 * @param pvalues the p value calculation
+	 * @param studySetSize the size of the study set
+	 * @param values the values
+	 */
+	protected void saveCachedArray(IPValueCalculation pvalues, int studySetSize, double [] values)
+	{
+		String key = getCacheKey(pvalues, studySetSize);
+		if (key == null) return;
+		cache.saveArray(key, values);
+	}
+
 	/**
 	 * Sets the progress update instance used for
 	 * progress notifications.
@@ -50,4 +242,23 @@ public abstract class AbstractResamplingTestCorrection extends AbstractTestCorre
 	{
 		if (progress != null) progress.update(c);
 	}
+
+	/**
+	 * Draws the given number of random samples from the p value calculation
+	 * using a {@link ResamplingExecutor}. The progress is reported to the
+	 * progress update instance.
+	 *
+	 * @param pvalues the p value calculation
+	 * @param numberOfSamples the number of samples to draw
+	 * @param handler the handler that receives the samples
+	 */
+	protected void sample(IPValueCalculation pvalues, int numberOfSamples, ResamplingExecutor.ISampleHandler handler)
+	{
+		long s = seed;
+		if (s == 0) s = new Random().nextLong();
+
+		ResamplingExecutor executor = new ResamplingExecutor(pvalues, s, numberOfThreads);
+		executor.setProgress(progress);
+		executor.run(numberOfSamples, handler);
+	}
 }
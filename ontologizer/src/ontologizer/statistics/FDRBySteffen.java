@@ -7,11 +7,12 @@ import java.util.Arrays;
  * @author grossman
  *
  */
-public class FDRBySteffen extends AbstractTestCorrection
-						   implements IResampling
+public class FDRBySteffen extends AbstractResamplingTestCorrection
 {
-	/** Specifies the number of resampling steps */
-	private int numberOfResamplingSteps = 1000;
+	public FDRBySteffen()
+	{
+		numberOfResamplingSteps = 1000;
+	}
 
 	public String getDescription()
 	{
@@ -32,26 +33,22 @@ public class FDRBySteffen extends AbstractTestCorrection
 		PValue [] rawP = pvalues.calculateRawPValues(null);
 		Arrays.sort(rawP);
 
-		int m = rawP.length;
+		final int m = rawP.length;
 
 		/* this will hold the sorted resampled p-values*/
-		double [][] pValues = new double[numberOfResamplingSteps][m];
+		final double [][] pValues = new double[numberOfResamplingSteps][m];
 
 		/* create them */
-		for (int b=0; b < numberOfResamplingSteps; b++)
+		sample(pvalues, numberOfResamplingSteps, new ResamplingExecutor.ISampleHandler()
 		{
-			/* Compute raw p values of "permuted" data */
-			PValue [] randomRawP = pvalues.calculateRandomPValues(null);
-			Arrays.sort(randomRawP);
-
-			assert(randomRawP.length == m);
-
-			for (i=0;i<m;i++)
-				pValues[b][i] = randomRawP[i].p;
+			public void sampled(int b, double [] randomRawP, boolean [] ignoreAtMTC)
+			{
+				assert(randomRawP.length == m);
 
-			System.out.print("created " + (b+1) + " samples out of " + numberOfResamplingSteps + "\r");
-		}
-		System.out.println();
+				System.arraycopy(randomRawP, 0, pValues[b], 0, m);
+				Arrays.sort(pValues[b]);
+			}
+		});
 
 		/* For every P-value determine the adjusted P-value */
 
@@ -129,16 +126,6 @@ public class FDRBySteffen extends AbstractTestCorrection
 		return rawP;
 	}
 
-	public void setNumberOfResamplingSteps(int n)
-	{
-		numberOfResamplingSteps = n;
-	}
-
-	public int getNumberOfResamplingSteps()
-	{
-		return numberOfResamplingSteps;
-	}
-
 	public void resetCache()
 	{
 		// no cache, nothing to do here!
@@ -8,13 +8,15 @@ import java.util.HashMap;
  * @author grossman
  *
  */
-public class FDRBySteffenCached extends AbstractTestCorrection
-						   implements IResampling
+public class FDRBySteffenCached extends AbstractResamplingTestCorrection
 {
-	/** Specifies the number of resampling steps */
-	private int numberOfResamplingSteps = 1000;
 	private HashMap<Integer,PvalueSetStore> sampledPValuesPerSize = new HashMap<Integer,PvalueSetStore>();
 
+	public FDRBySteffenCached()
+	{
+		numberOfResamplingSteps = 1000;
+	}
+
 	public String getDescription()
 	{
 		return "The FDR controlling MTC method as proposed by Sharan/Yekutieli." +
@@ -34,7 +36,7 @@ public class FDRBySteffenCached extends AbstractTestCorrection
 		PValue [] rawP = pvalues.calculateRawPValues(null);
 		Arrays.sort(rawP);
 
-		int m = rawP.length;
+		final int m = rawP.length;
 
 		int studySetSize = pvalues.currentStudySetSize();
 
@@ -44,21 +46,36 @@ public class FDRBySteffenCached extends AbstractTestCorrection
 		if (sampledPValuesPerSize.containsKey(studySetSize)) {
 			System.out.println("Using available samples for study set size " + studySetSize);
 			randomSampledPValues = sampledPValuesPerSize.get(studySetSize);
+		} else if ((randomSampledPValues = loadCachedStore(pvalues, studySetSize)) != null) {
+			System.out.println("Using cached samples for study set size " + studySetSize);
+			sampledPValuesPerSize.put(studySetSize,randomSampledPValues);
 		} else {
 			System.out.println("Sampling for study set size " + studySetSize + "\nThis may take a while...");
-			randomSampledPValues = new PvalueSetStore(numberOfResamplingSteps,m);
-			for (int b=0; b < numberOfResamplingSteps; b++) {
-				/* Compute raw p values of "permuted" data */
-				PValue [] randomRawP = pvalues.calculateRandomPValues(null);
-				Arrays.sort(randomRawP);
+			final PvalueSetStore store = createPvalueSetStore(m);
+			sample(pvalues, numberOfResamplingSteps, new ResamplingExecutor.ISampleHandler()
+			{
+				public void sampled(int b, double [] randomRawP, boolean [] ignoreAtMTC)
+				{
+					assert(randomRawP.length == m);
 
-				assert(randomRawP.length == m);
-				randomSampledPValues.add(randomRawP);
+					/* Ignored p values are 1.0, so they end up at the end of the sorted
+					 * array. We mark the same number of entries there as ignored */
+					int numberOfIgnored = 0;
+					for (int j=0;j<m;j++)
+						if (ignoreAtMTC[j]) numberOfIgnored++;
 
-				System.out.print("created " + b + " samples out of " + numberOfResamplingSteps + "\r");
-			}
-			System.out.println();
+					double [] sortedRawP = Arrays.copyOf(randomRawP, m);
+					Arrays.sort(sortedRawP);
+
+					boolean [] sortedIgnoreAtMTC = new boolean[m];
+					Arrays.fill(sortedIgnoreAtMTC, m - numberOfIgnored, m, true);
+
+					store.set(b, sortedRawP, sortedIgnoreAtMTC);
+				}
+			});
+			randomSampledPValues = store;
 			sampledPValuesPerSize.put(studySetSize,randomSampledPValues);
+			saveCachedStore(pvalues, studySetSize, store);
 		}
 
 		/* For every P-value determine the adjusted P-value */
@@ -72,14 +89,13 @@ public class FDRBySteffenCached extends AbstractTestCorrection
 		int [] lastSampleRejects = new int[numberOfResamplingSteps];
 		int lastTotalSampleRejects = 0;
 		// initializing
-		int b=0;
-		for (PValue [] randomRawP : randomSampledPValues) {
+		int b;
+		for (b=0; b < numberOfResamplingSteps; b++) {
 			lastSampleRejects[b] = 0;
-			while (randomRawP[lastSampleRejects[b]].p < lastPValue) {
+			while (randomSampledPValues.get(b, lastSampleRejects[b]) < lastPValue) {
 				lastSampleRejects[b]++;
 			}
 			lastTotalSampleRejects += lastSampleRejects[b];
-			b++;
 		}
 
 		double lastFDR = 0.0;
@@ -114,13 +130,11 @@ public class FDRBySteffenCached extends AbstractTestCorrection
 			// update counts
 			lastObservedRejections += lc;
 			lastTotalSampleRejects = 0;
-			b=0;
-			for (PValue [] randomRawP : randomSampledPValues) {
-				while (randomRawP[lastSampleRejects[b]].p < lastPValue) {
+			for (b=0; b < numberOfResamplingSteps; b++) {
+				while (randomSampledPValues.get(b, lastSampleRejects[b]) < lastPValue) {
 					lastSampleRejects[b]++;
 				}
 				lastTotalSampleRejects += lastSampleRejects[b];
-				b++;
 			}
 
 			// update FDR
@@ -141,18 +155,9 @@ public class FDRBySteffenCached extends AbstractTestCorrection
 		return rawP;
 	}
 
-	public void setNumberOfResamplingSteps(int n)
-	{
-		numberOfResamplingSteps = n;
-	}
-
-	public int getNumberOfResamplingSteps()
-	{
-		return numberOfResamplingSteps;
-	}
-
 	public void resetCache()
 	{
+		releasePvalueSetStores(sampledPValuesPerSize.values());
 		sampledPValuesPerSize = new HashMap<Integer,PvalueSetStore>();
 	}
 
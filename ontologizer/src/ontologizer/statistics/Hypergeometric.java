@@ -1,11 +1,10 @@
 package ontologizer.statistics;
 
-import java.util.Vector;
 import java.lang.Math;
 
 /**
  * Class with static methods to calculate probabilities according to the
- * hypergeometric distribution.
+ * hypergeometric distribution. Instances are thread-safe.
  *
  * @author Peter N. Robinson, Sebastian Bauer
  */
@@ -14,10 +13,11 @@ public class Hypergeometric
 {
 
 	/**
-	 * This Vector contains log factorials for each index value and acts as a
-	 * cache.
+	 * This array contains log factorials for each index value and acts as a
+	 * cache. It only grows, and always via replacement, hence instances can be
+	 * shared among threads.
 	 */
-	private Vector<Double> lfactorial;
+	private volatile double [] lfactorial;
 
 	/**
 	 * <P>
@@ -73,30 +73,107 @@ public class Hypergeometric
 		int np = (int) java.lang.Math.round(n * p); // Round to nearest int
 		int nq = (int) java.lang.Math.round(n * q);
 
-		double log_n_choose_k = lNchooseK(n, k);
-		int top = k;
-		if (np < k)
-		{
-			top = np;
-		}
+		return upperTail(np + nq, np, k, r);
+	}
 
-		double lfoo = lNchooseK(np, top) + lNchooseK(nq, k - top);
+	/**
+	 * Calculates P(X &gt;= x) where X is the hypergeometric distribution
+	 * with indices N,M,n.
+	 *
+	 * Rather than evaluating each term of the sum via log factorials, the sum
+	 * starts at the term that is closest to the mode and the following terms
+	 * are derived via the ratio of successive terms. If x is below the mean,
+	 * the complementary lower tail is summed up instead.
+	 *
+	 * @param N number of balls in the urn
+	 * @param M number of white balls in the urn
+	 * @param n number of balls drawn from the urn
+	 * @param x minimal number of white balls drawn without replacement
+	 * @return the probability
+	 */
+	public double upperTail(int N, int M, int n, int x)
+	{
+		int lo = Math.max(0, n - (N - M));
+		int hi = Math.min(n, M);
 
-		double sum = 0.0;
+		if (x <= lo) return 1.0;
+		if (x > hi) return 0.0;
+
+		double [] lf = ensureCapacity(N);
+		double lDenom = lf[N] - lf[n] - lf[N - n];
+		int rest = N - M - n;
+
+		double sum;
+		double t;
+		int i;
 
-		for (int i = top; i >= r; --i)
+		if ((double)x * N > (double)n * M)
 		{
-			sum += java.lang.Math.exp(lfoo - log_n_choose_k);
-			if (i > r)
+			/* Right of the mean, the terms decrease */
+			t = Math.exp(lf[M] - lf[x] - lf[M - x] + lf[N - M] - lf[n - x] - lf[rest + x] - lDenom);
+			sum = t;
+			for (i = x; i < hi; i++)
 			{
-				lfoo = lfoo
-						+ java.lang.Math.log((double) i / (double) (np - i + 1))
-						+ java.lang.Math.log((double) (nq - k + i)
-								/ (double) (k - i + 1));
+				t *= ((double)(M - i) * (n - i)) / ((double)(i + 1) * (rest + i + 1));
+				sum += t;
 			}
+			return Math.min(1.0, sum);
 		}
-		return sum;
 
+		/* Left of the mean, sum up the lower tail P(X < x) */
+		i = x - 1;
+		t = Math.exp(lf[M] - lf[i] - lf[M - i] + lf[N - M] - lf[n - i] - lf[rest + i] - lDenom);
+		sum = t;
+		for (; i > lo; i--)
+		{
+			t *= ((double)i * (rest + i)) / ((double)(M - i + 1) * (n - i + 1));
+			sum += t;
+		}
+		return Math.max(0.0, 1.0 - sum);
+	}
+
+	/**
+	 * Calculates P(X &gt;= x[i]) for all of the given tuples, where X is the
+	 * hypergeometric distribution with indices N[i],M[i],n[i]. This is
+	 * equivalent to calling {@link #upperTail(int, int, int, int)} for every
+	 * tuple.
+	 *
+	 * @param N numbers of balls in the urns
+	 * @param M numbers of white balls in the urns
+	 * @param n numbers of balls drawn from the urns
+	 * @param x minimal numbers of white balls drawn without replacement
+	 * @param p the array to which the probabilities are written
+	 * @param length the number of tuples
+	 */
+	public void upperTails(int [] N, int [] M, int [] n, int [] x, double [] p, int length)
+	{
+		int maxN = 0;
+		for (int i = 0; i < length; i++)
+			maxN = Math.max(maxN, N[i]);
+		ensureCapacity(maxN);
+
+		for (int i = 0; i < length; i++)
+			p[i] = upperTail(N[i], M[i], n[i], x[i]);
+	}
+
+	/**
+	 * Calculates P(X &gt;= x[i]) for all of the given tuples, where X is the
+	 * hypergeometric distribution with indices N,M[i],n, i.e., for a fixed
+	 * urn size and a fixed number of draws.
+	 *
+	 * @param N number of balls in the urns
+	 * @param n number of balls drawn from the urns
+	 * @param M numbers of white balls in the urns
+	 * @param x minimal numbers of white balls drawn without replacement
+	 * @param p the array to which the probabilities are written
+	 * @param length the number of tuples
+	 */
+	public void upperTails(int N, int n, int [] M, int [] x, double [] p, int length)
+	{
+		ensureCapacity(N);
+
+		for (int i = 0; i < length; i++)
+			p[i] = upperTail(N, M[i], n, x[i]);
 	}
 
 	/**
@@ -177,9 +254,8 @@ public class Hypergeometric
 
 	public double lNchooseK(int n, int k)
 	{
-		double ans;
-		ans = logfact(n) - logfact(k) - logfact(n - k);
-		return ans;
+		double [] lf = ensureCapacity(n);
+		return lf[n] - lf[k] - lf[n - k];
 	}
 
 	/**
@@ -189,21 +265,44 @@ public class Hypergeometric
 	 */
 	public double logfact(int i)
 	{
-		/*
-		 * Make sure value is already in lfactorial. If not, calculate all
-		 * values up to that for i
-		 */
-		if (i > (lfactorial.size() - 1))
-		{
-			for (int j = lfactorial.size(); j <= i; j++)
-			{
-				double lf = lfactorial.get(j - 1).doubleValue()
-						+ java.lang.Math.log(j);
-				lfactorial.add(j, new Double(lf));
-			}
-		}
+		return ensureCapacity(i)[i];
+	}
 
-		return lfactorial.get(i).doubleValue();
+	/**
+	 * Returns the table of log factorials, which contains at least the
+	 * value for n.
+	 *
+	 * @param n
+	 * @return the table
+	 */
+	private double [] ensureCapacity(int n)
+	{
+		double [] lf = lfactorial;
+		if (n < lf.length)
+			return lf;
+		return grow(n);
+	}
+
+	/**
+	 * Enlarges the table of log factorials such that it contains at least
+	 * the value for n. The table is replaced only after it has been
+	 * completely filled, so readers never see an incomplete table.
+	 *
+	 * @param n
+	 * @return the new table
+	 */
+	private synchronized double [] grow(int n)
+	{
+		double [] lf = lfactorial;
+		if (n < lf.length)
+			return lf;
+
+		double [] newLf = new double[Math.max(n + 1, lf.length * 2)];
+		System.arraycopy(lf, 0, newLf, 0, lf.length);
+		for (int j = lf.length; j < newLf.length; j++)
+			newLf[j] = newLf[j - 1] + java.lang.Math.log(j);
+		lfactorial = newLf;
+		return newLf;
 	}
 
 	/**
@@ -212,12 +311,23 @@ public class Hypergeometric
 	 */
 	public Hypergeometric()
 	{
+		this(1);
+	}
 
-		lfactorial = new Vector<Double>();
-		lfactorial.add(0, new Double(0.0)); /* 0! = 1, therefore let log(0)=0 */
-		lfactorial.add(1, new Double(0.0));
-
+	/**
+	 * Initialize the object with a log factorial table that contains all
+	 * values up to the given size, e.g., the size of the population. All
+	 * calculations with arguments not larger than this are then look ups
+	 * within a read-only table.
+	 *
+	 * @param maxN the maximal argument for which the log factorial is
+	 *  precalculated.
+	 */
+	public Hypergeometric(int maxN)
+	{
+		/* 0! = 1, therefore let log(0)=0 */
+		lfactorial = new double[]{0.0, 0.0};
+		ensureCapacity(maxN);
 	}
 
 }
-
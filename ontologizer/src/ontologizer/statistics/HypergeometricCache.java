@@ -0,0 +1,219 @@
+package ontologizer.statistics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded cache for probabilities of the hypergeometric distribution.
+ * When p values of random study sets are calculated, the same tuples
+ * of arguments recur over and over again, because the size of the study
+ * set is fixed and many terms share the same number of annotations.
+ *
+ * The cache is direct mapped, i.e., each tuple can be stored only at a
+ * single slot and a new tuple replaces the old one. Slots are immutable
+ * objects that are replaced atomically, hence the cache can be used by
+ * several threads concurrently without locking.
+ *
+ * Hits and misses are only counted if statistics have been enabled via
+ * {@link #setCollectStatistics(boolean)}, as the shared counters would
+ * otherwise be contended by every lookup.
+ */
+public class HypergeometricCache
+{
+	/** Default number of slots */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private static final int KIND_UPPER_TAIL = 0;
+	private static final int KIND_DHYPER = 1;
+
+	/**
+	 * A cached value together with its key.
+	 */
+	private static final class Entry
+	{
+		final int kind;
+		final int N;
+		final int M;
+		final int n;
+		final int x;
+		final double value;
+
+		Entry(int kind, int N, int M, int n, int x, double value)
+		{
+			this.kind = kind;
+			this.N = N;
+			this.M = M;
+			this.n = n;
+			this.x = x;
+			this.value = value;
+		}
+	}
+
+	private final AtomicReferenceArray<Entry> slots;
+	private final int mask;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	private volatile boolean collectStatistics;
+
+	/**
+	 * Constructs a cache with the default capacity.
+	 */
+	public HypergeometricCache()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs a cache with the given capacity.
+	 *
+	 * @param capacity the number of slots. It is rounded up to the next
+	 *  power of two.
+	 */
+	public HypergeometricCache(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		if (capacity == 1) size = 1;
+		slots = new AtomicReferenceArray<Entry>(size);
+		mask = size - 1;
+	}
+
+	/**
+	 * Returns the same value as
+	 * {@link Hypergeometric#phypergeometric(int, double, int, int)} invoked with
+	 * the population size, the proportion of the white balls, the number of
+	 * drawn balls and the number of drawn white balls, but looks it up in the
+	 * cache first.
+	 *
+	 * @param hyperg the hypergeometric helper that is used on a cache miss
+	 * @param N number of balls in the urn
+	 * @param M number of white balls in the urn
+	 * @param n number of balls drawn from the urn
+	 * @param x minimal number of white balls drawn without replacement
+	 * @return the probability
+	 */
+	public double phypergeometric(Hypergeometric hyperg, int N, int M, int n, int x)
+	{
+		/* Same conditions as in Hypergeometric.phypergeometric() */
+		if (n >= N || x < 1)
+			return 1.0;
+
+		int slot = slot(KIND_UPPER_TAIL, N, M, n, x);
+		Entry e = slots.get(slot);
+		if (e != null && e.kind == KIND_UPPER_TAIL && e.N == N && e.M == M && e.n == n && e.x == x)
+		{
+			if (collectStatistics) hits.incrementAndGet();
+			return e.value;
+		}
+		if (collectStatistics) misses.incrementAndGet();
+
+		double value = hyperg.upperTail(N, M, n, x);
+		slots.set(slot, new Entry(KIND_UPPER_TAIL, N, M, n, x, value));
+		return value;
+	}
+
+	/**
+	 * Returns the same value as
+	 * {@link Hypergeometric#dhyper(int, int, int, int)} but looks it up in the
+	 * cache first.
+	 *
+	 * @param hyperg the hypergeometric helper that is used on a cache miss
+	 * @param x number of white balls drawn without replacement
+	 * @param N number of balls in the urn
+	 * @param M number of white balls in the urn
+	 * @param n number of balls drawn from the urn
+	 * @return the probability
+	 */
+	public double dhyper(Hypergeometric hyperg, int x, int N, int M, int n)
+	{
+		int slot = slot(KIND_DHYPER, N, M, n, x);
+		Entry e = slots.get(slot);
+		if (e != null && e.kind == KIND_DHYPER && e.N == N && e.M == M && e.n == n && e.x == x)
+		{
+			if (collectStatistics) hits.incrementAndGet();
+			return e.value;
+		}
+		if (collectStatistics) misses.incrementAndGet();
+
+		double value = hyperg.dhyper(x, N, M, n);
+		slots.set(slot, new Entry(KIND_DHYPER, N, M, n, x, value));
+		return value;
+	}
+
+	private int slot(int kind, int N, int M, int n, int x)
+	{
+		int h = kind;
+		h = h * 31 + N;
+		h = h * 31 + M;
+		h = h * 31 + n;
+		h = h * 31 + x;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h & mask;
+	}
+
+	/**
+	 * @return the number of slots.
+	 */
+	public int getCapacity()
+	{
+		return mask + 1;
+	}
+
+	/**
+	 * Sets whether hits and misses should be counted. This is disabled by
+	 * default.
+	 *
+	 * @param collectStatistics whether statistics should be collected.
+	 */
+	public void setCollectStatistics(boolean collectStatistics)
+	{
+		this.collectStatistics = collectStatistics;
+	}
+
+	/**
+	 * @return whether hits and misses are counted.
+	 */
+	public boolean isCollectingStatistics()
+	{
+		return collectStatistics;
+	}
+
+	/**
+	 * @return the number of lookups that could be answered from the cache.
+	 */
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of lookups that needed a calculation.
+	 */
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * @return the ratio of the hits to all lookups, 0 if there were no lookups.
+	 */
+	public double getHitRate()
+	{
+		long h = hits.get();
+		long total = h + misses.get();
+		if (total == 0) return 0;
+		return (double)h / total;
+	}
+
+	/**
+	 * Resets the hit and miss counters.
+	 */
+	public void resetStatistics()
+	{
+		hits.set(0);
+		misses.set(0);
+	}
+}
@@ -1,5 +1,7 @@
 package ontologizer.statistics;
 
+import java.util.Random;
+
 /**
  *
  * This interface abstracts the p value calculation for the multiple test
@@ -30,6 +32,39 @@ public interface IPValueCalculation
 	 */
 	PValue[] calculateRandomPValues(IPValueCalculationProgress progress);
 
+	/**
+	 * Calculate the p values using a random dataset that is drawn with the
+	 * help of the given random source. The same conditions as for
+	 * {@link #calculateRandomPValues(IPValueCalculationProgress)} apply.
+	 *
+	 * In contrast to the variant above, this method may be called from
+	 * several threads at the same time, as long as each thread supplies its
+	 * own instances of the random source and the hypergeometric helper.
+	 *
+	 * @param rnd the source of randomness used to draw the random dataset
+	 * @param hyperg the hypergeometric helper that is used for the calculation
+	 * @param progress the interface for updating the progress
+	 * @return the calculated random p-values
+	 */
+	PValue[] calculateRandomPValues(Random rnd, Hypergeometric hyperg, IPValueCalculationProgress progress);
+
+	/**
+	 * Calculate the p values using a random dataset like
+	 * {@link #calculateRandomPValues(Random, Hypergeometric, IPValueCalculationProgress)}
+	 * but store only the p values and the ignoreAtMTC flags into the given
+	 * arrays instead of creating p value objects. This is the variant that
+	 * should be used when many random datasets are processed. P values that
+	 * are to be ignored are set to 1.0.
+	 *
+	 * @param rnd the source of randomness used to draw the random dataset
+	 * @param hyperg the hypergeometric helper that is used for the calculation
+	 * @param p the array in which the p values are stored. Its length must
+	 *  match {@link #getNumberOfPValues()}.
+	 * @param ignoreAtMTC the array in which the ignoreAtMTC flags are stored.
+	 *  Its length must match {@link #getNumberOfPValues()}.
+	 */
+	void calculateRandomPValues(Random rnd, Hypergeometric hyperg, double [] p, boolean [] ignoreAtMTC);
+
 	/**
 	 * Gives back the size of the study set currently processed. Needed for
 	 * storing of sampled p-values for different sample sizes.
@@ -42,4 +77,14 @@ public interface IPValueCalculation
 	 * @return the number of terms for which a calculation will be done.
 	 */
 	public int getNumberOfPValues();
+
+	/**
+	 * Returns a fingerprint of the calculation. It should cover the kind of
+	 * calculation and all of the data on which the random p values depend, so
+	 * that random p values of calculations with equal fingerprints follow the
+	 * same distribution. It is used to identify persistently cached samples.
+	 *
+	 * @return the fingerprint or null if the calculation doesn't support it.
+	 */
+	public String getFingerprint();
 }
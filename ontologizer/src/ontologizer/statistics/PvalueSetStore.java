@@ -1,23 +1,32 @@
 package ontologizer.statistics;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  *
- * A class providing memory efficient storage of PValue arrays. The idea is to
- * deflate the arrays by storing only the pvalues which are not marked by
- * "ignoreAtMTC". The PValue sets to be stored are assumed to all have the same
- * size which has to be set at creation. Furthermore, apart from the
- * "ignoreAtMTC" attributes and the "p" value itself, nothing else gets stored.
- * Especially, the "p_min" and "p_adjusted" entries get lost.
+ * A class providing storage of PValue arrays. The PValue sets to be stored
+ * are assumed to all have the same size which has to be set at creation.
+ * Apart from the "ignoreAtMTC" attributes and the "p" value itself, nothing
+ * else gets stored. Especially, the "p_min" and "p_adjusted" entries get
+ * lost. P values that are marked by "ignoreAtMTC" are retrieved as 1.0.
+ *
+ * The values are kept in a dense matrix of samples x p values, either on the
+ * heap or, for very large stores, in a memory mapped file.
  *
  * @author grossman
  *
  */
 public class PvalueSetStore implements Iterable<PValue[]>
 {
+	/** Value that marks an ignored p value */
+	private static final double IGNORED = -1.0;
 
 	/**
 	 *
@@ -28,29 +37,160 @@ public class PvalueSetStore implements Iterable<PValue[]>
 	 */
 	public class PValueSetStoreIterator implements Iterator<PValue[]>
 	{
-		private Iterator<HashMap<Integer, Double>> reducedIterator = reducedStoredSets.iterator();
+		private int row;
 
 		public boolean hasNext()
 		{
-			return reducedIterator.hasNext();
+			return row < numberOfRows;
 		}
 
 		public PValue[] next()
 		{
-			return inflate_pvals(reducedIterator.next());
+			if (!hasNext()) throw new NoSuchElementException();
+
+			PValue[] pvals = new PValue[setSize];
+			for (int i = 0; i < setSize; i++)
+			{
+				double p = storage.get(row, i);
+
+				pvals[i] = new PValue();
+				if (p == IGNORED)
+				{
+					pvals[i].ignoreAtMTC = true;
+					pvals[i].p = 1.0;
+				} else
+				{
+					pvals[i].p = p;
+				}
+			}
+			row++;
+			return pvals;
+		}
+
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * The iterator over the primitive rows. Note that the returned array
+	 * is reused for all rows.
+	 */
+	private class RowIterator implements Iterator<double[]>
+	{
+		private int row;
+		private double [] buf = new double[setSize];
+
+		public boolean hasNext()
+		{
+			return row < numberOfRows;
+		}
+
+		public double[] next()
+		{
+			if (!hasNext()) throw new NoSuchElementException();
+
+			getRow(row++, buf);
+			return buf;
 		}
 
 		public void remove()
 		{
-			reducedIterator.remove();
+			throw new UnsupportedOperationException();
 		}
+	}
 
+	/**
+	 * The backend of the store.
+	 */
+	private static interface Storage
+	{
+		double get(int row, int column);
+		void set(int row, int column, double value);
 	}
 
-	private ArrayList<HashMap<Integer, Double>> reducedStoredSets;
+	/**
+	 * Storage that keeps the values on the heap.
+	 */
+	private static class HeapStorage implements Storage
+	{
+		private double [][] values;
+
+		public HeapStorage(int rows, int columns)
+		{
+			values = new double[rows][columns];
+		}
+
+		public double get(int row, int column)
+		{
+			return values[row][column];
+		}
+
+		public void set(int row, int column, double value)
+		{
+			values[row][column] = value;
+		}
+	}
+
+	/**
+	 * Storage that keeps the values in a memory mapped file. As a single
+	 * mapping is limited to 2GB, the rows are distributed over several
+	 * mappings.
+	 */
+	private static class MappedStorage implements Storage
+	{
+		private DoubleBuffer [] buffers;
+		private int rowsPerBuffer;
+		private int columns;
+
+		public MappedStorage(File file, int rows, int columns) throws IOException
+		{
+			this.columns = columns;
+
+			rowsPerBuffer = Math.max(1, Integer.MAX_VALUE / 8 / Math.max(1, columns));
+			buffers = new DoubleBuffer[(rows + rowsPerBuffer - 1) / rowsPerBuffer];
+
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try
+			{
+				FileChannel channel = raf.getChannel();
+				long rowBytes = (long)columns * 8;
+				for (int i = 0; i < buffers.length; i++)
+				{
+					int bufferRows = Math.min(rowsPerBuffer, rows - i * rowsPerBuffer);
+					buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * rowsPerBuffer * rowBytes, bufferRows * rowBytes).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+				}
+			} finally
+			{
+				/* Mappings stay valid after the channel has been closed */
+				raf.close();
+			}
+		}
+
+		public double get(int row, int column)
+		{
+			return buffers[row / rowsPerBuffer].get((row % rowsPerBuffer) * columns + column);
+		}
+
+		public void set(int row, int column, double value)
+		{
+			buffers[row / rowsPerBuffer].put((row % rowsPerBuffer) * columns + column, value);
+		}
+	}
+
+	private Storage storage;
+
+	/** The file of a memory mapped store, null for stores on the heap */
+	private File file;
+
+	private int numberOfResamplingSteps;
 
 	private int setSize;
 
+	/** The number of rows that have been stored */
+	private int numberOfRows;
+
 	/**
 	 *
 	 * @param numberOfResamplingSteps
@@ -58,48 +198,153 @@ public class PvalueSetStore implements Iterable<PValue[]>
 	 */
 	public PvalueSetStore(int numberOfResamplingSteps, int setSize)
 	{
-		reducedStoredSets = new ArrayList<HashMap<Integer, Double>>(numberOfResamplingSteps);
+		this.numberOfResamplingSteps = numberOfResamplingSteps;
 		this.setSize = setSize;
+		this.storage = new HeapStorage(numberOfResamplingSteps, setSize);
 	}
 
-	public void add(PValue[] values)
+	/**
+	 * Constructs a store whose values are kept in the given file that is
+	 * mapped into memory. Use this for stores that would not fit into the
+	 * heap. The file is deleted by {@link #release()} or, at the latest, when
+	 * the virtual machine terminates.
+	 *
+	 * @param numberOfResamplingSteps
+	 * @param setSize
+	 * @param file the file used for storing the values.
+	 * @throws IOException
+	 */
+	public PvalueSetStore(int numberOfResamplingSteps, int setSize, File file) throws IOException
 	{
-		reducedStoredSets.add(deflate_pvals(values));
+		this.numberOfResamplingSteps = numberOfResamplingSteps;
+		this.setSize = setSize;
+		this.file = file;
+		file.deleteOnExit();
+		this.storage = new MappedStorage(file, numberOfResamplingSteps, setSize);
 	}
 
-	private HashMap<Integer, Double> deflate_pvals(PValue[] values)
+	/**
+	 * Releases the values of the store and deletes the file of a memory
+	 * mapped store. The store must not be used afterwards.
+	 */
+	public void release()
 	{
-		HashMap<Integer, Double> reducedSet = new HashMap<Integer, Double>();
-		for (int i = 0; i < values.length; i++)
+		storage = null;
+		if (file != null)
 		{
-			if (!values[i].ignoreAtMTC)
-			{
-				reducedSet.put(i, values[i].p);
-			}
+			file.delete();
+			file = null;
 		}
-		return reducedSet;
 	}
 
-	private PValue[] inflate_pvals(HashMap<Integer, Double> reducedSet)
+	public synchronized void add(PValue[] values)
+	{
+		set(numberOfRows, values);
+	}
+
+	/**
+	 * Stores the given values at the given position. Contrary to add(), this
+	 * may be called from several threads concurrently, e.g., if samples are
+	 * created in parallel. The iteration order is the order of the positions.
+	 *
+	 * @param index the position of the values
+	 * @param values the values to store
+	 */
+	public void set(int index, PValue[] values)
+	{
+		checkIndex(index);
+
+		for (int i = 0; i < values.length; i++)
+			storage.set(index, i, values[i].ignoreAtMTC ? IGNORED : values[i].p);
+
+		updateNumberOfRows(index);
+	}
+
+	/**
+	 * Stores the given values at the given position. Like
+	 * {@link #set(int, PValue[])} but for values that are given as primitive
+	 * arrays.
+	 *
+	 * @param index the position of the values
+	 * @param p the p values to store
+	 * @param ignoreAtMTC the ignoreAtMTC flags of the p values
+	 */
+	public void set(int index, double [] p, boolean [] ignoreAtMTC)
+	{
+		checkIndex(index);
+
+		for (int i = 0; i < p.length; i++)
+			storage.set(index, i, ignoreAtMTC[i] ? IGNORED : p[i]);
+
+		updateNumberOfRows(index);
+	}
+
+	/**
+	 * Returns the p value at the given position. Ignored p values are
+	 * returned as 1.0.
+	 *
+	 * @param row the row, i.e., the index of the set.
+	 * @param column the index of the p value within the set.
+	 * @return the p value
+	 */
+	public double get(int row, int column)
+	{
+		double p = storage.get(row, column);
+		if (p == IGNORED) return 1.0;
+		return p;
+	}
+
+	/**
+	 * Returns whether the p value at the given position is ignored.
+	 *
+	 * @param row the row, i.e., the index of the set.
+	 * @param column the index of the p value within the set.
+	 * @return whether the p value is marked as ignoreAtMTC.
+	 */
+	public boolean isIgnored(int row, int column)
 	{
-		PValue[] pvals = new PValue[setSize];
+		return storage.get(row, column) == IGNORED;
+	}
 
-		// initialize array
+	/**
+	 * Copies the p values of the given row into the given array. Ignored p
+	 * values are copied as 1.0.
+	 *
+	 * @param row the row to get
+	 * @param dest the destination. Must be at least of the size of a set.
+	 */
+	public void getRow(int row, double [] dest)
+	{
 		for (int i = 0; i < setSize; i++)
-		{
-			pvals[i] = new PValue();
-			pvals[i].ignoreAtMTC = true;
-			pvals[i].p = 1.0;
-		}
+			dest[i] = get(row, i);
+	}
 
-		// set old values
-		for (int k : reducedSet.keySet())
-		{
-			pvals[k].ignoreAtMTC = false;
-			pvals[k].p = reducedSet.get(k);
-		}
+	/**
+	 * @return the number of stored sets.
+	 */
+	public int getNumberOfRows()
+	{
+		return numberOfRows;
+	}
 
-		return pvals;
+	/**
+	 * @return the size of each set.
+	 */
+	public int getSetSize()
+	{
+		return setSize;
+	}
+
+	private void checkIndex(int index)
+	{
+		if (index < 0 || index >= numberOfResamplingSteps)
+			throw new IndexOutOfBoundsException("Index " + index + " is out of range (capacity " + numberOfResamplingSteps + ")");
+	}
+
+	private synchronized void updateNumberOfRows(int index)
+	{
+		if (index >= numberOfRows)
+			numberOfRows = index + 1;
 	}
 
 	public Iterator<PValue[]> iterator()
@@ -107,4 +352,21 @@ public class PvalueSetStore implements Iterable<PValue[]>
 		return new PValueSetStoreIterator();
 	}
 
+	/**
+	 * Returns an iterable over the primitive rows of the store, i.e., no
+	 * PValue objects are created. Ignored p values appear as 1.0. Note that
+	 * the iterator reuses the same array for all rows.
+	 *
+	 * @return the iterable.
+	 */
+	public Iterable<double[]> rows()
+	{
+		return new Iterable<double[]>()
+		{
+			public Iterator<double[]> iterator()
+			{
+				return new RowIterator();
+			}
+		};
+	}
 }
@@ -0,0 +1,295 @@
+package ontologizer.statistics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A persistent cache for sampled p values of resampling based test
+ * corrections. Each entry is stored in a separate binary file within the
+ * cache directory. The name of the file is the hash of the key, which
+ * should cover everything on which the samples depend, i.e., the dataset,
+ * the calculation, the correction, the number of resampling steps and the
+ * size of the study set.
+ *
+ * Files consist of a header (magic, version, number of rows and columns)
+ * followed by the values as doubles in row major order.
+ */
+public class ResamplingCache
+{
+	private static final int MAGIC = 0x4f4e5452; /* ONTR */
+	private static final int VERSION = 1;
+
+	/** Marks an ignored p value within the file */
+	private static final double IGNORED = -1.0;
+
+	private File directory;
+
+	/**
+	 * Constructs the cache.
+	 *
+	 * @param directory the directory in which the entries are stored. It is
+	 *  created if it doesn't exist.
+	 */
+	public ResamplingCache(File directory)
+	{
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the file of the entry with the given key.
+	 *
+	 * @param key
+	 * @return the file
+	 */
+	private File getFile(String key)
+	{
+		return new File(directory, hash(key) + ".bin");
+	}
+
+	/**
+	 * Returns the hex representation of the SHA-1 hash of the given string.
+	 *
+	 * @param str
+	 * @return the hash
+	 */
+	public static String hash(String str)
+	{
+		try
+		{
+			return toHex(MessageDigest.getInstance("SHA-1").digest(str.getBytes("UTF-8")));
+		} catch (NoSuchAlgorithmException e)
+		{
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns the hex representation of the given bytes.
+	 *
+	 * @param bytes
+	 * @return the hex string
+	 */
+	public static String toHex(byte [] bytes)
+	{
+		StringBuilder str = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+			str.append(String.format("%02x", b & 0xff));
+		return str.toString();
+	}
+
+	/**
+	 * Loads the store of the given key.
+	 *
+	 * @param key the key of the entry
+	 * @return the store or null if the cache contains no such entry.
+	 */
+	public PvalueSetStore loadStore(String key)
+	{
+		DataInputStream in = open(key);
+		if (in == null) return null;
+
+		try
+		{
+			int rows = in.readInt();
+			int columns = in.readInt();
+
+			PvalueSetStore store = new PvalueSetStore(rows, columns);
+			double [] p = new double[columns];
+			boolean [] ignoreAtMTC = new boolean[columns];
+
+			for (int i = 0; i < rows; i++)
+			{
+				for (int j = 0; j < columns; j++)
+				{
+					p[j] = in.readDouble();
+					ignoreAtMTC[j] = p[j] == IGNORED;
+				}
+				store.set(i, p, ignoreAtMTC);
+			}
+			return store;
+		} catch (IOException e)
+		{
+			System.err.println("Unable to read cached samples: " + e.getMessage());
+			return null;
+		} finally
+		{
+			close(in);
+		}
+	}
+
+	/**
+	 * Saves the given store under the given key.
+	 *
+	 * @param key the key of the entry
+	 * @param store the store to be saved
+	 */
+	public void saveStore(String key, PvalueSetStore store)
+	{
+		int rows = store.getNumberOfRows();
+		int columns = store.getSetSize();
+
+		File tmp = null;
+		DataOutputStream out = null;
+		try
+		{
+			tmp = createTempFile();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(rows);
+			out.writeInt(columns);
+			for (int i = 0; i < rows; i++)
+				for (int j = 0; j < columns; j++)
+					out.writeDouble(store.isIgnored(i, j) ? IGNORED : store.get(i, j));
+			out.close();
+			out = null;
+			commit(tmp, key);
+		} catch (IOException e)
+		{
+			System.err.println("Unable to cache samples: " + e.getMessage());
+			close(out);
+			if (tmp != null) tmp.delete();
+		}
+	}
+
+	/**
+	 * Loads the array of the given key.
+	 *
+	 * @param key the key of the entry
+	 * @return the array or null if the cache contains no such entry.
+	 */
+	public double [] loadArray(String key)
+	{
+		DataInputStream in = open(key);
+		if (in == null) return null;
+
+		try
+		{
+			int rows = in.readInt();
+			int columns = in.readInt();
+			if (rows != 1) throw new IOException("Entry is not an array");
+
+			double [] values = new double[columns];
+			for (int j = 0; j < columns; j++)
+				values[j] = in.readDouble();
+			return values;
+		} catch (IOException e)
+		{
+			System.err.println("Unable to read cached samples: " + e.getMessage());
+			return null;
+		} finally
+		{
+			close(in);
+		}
+	}
+
+	/**
+	 * Saves the given array under the given key.
+	 *
+	 * @param key the key of the entry
+	 * @param values the array to be saved
+	 */
+	public void saveArray(String key, double [] values)
+	{
+		File tmp = null;
+		DataOutputStream out = null;
+		try
+		{
+			tmp = createTempFile();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(1);
+			out.writeInt(values.length);
+			for (double v : values)
+				out.writeDouble(v);
+			out.close();
+			out = null;
+			commit(tmp, key);
+		} catch (IOException e)
+		{
+			System.err.println("Unable to cache samples: " + e.getMessage());
+			close(out);
+			if (tmp != null) tmp.delete();
+		}
+	}
+
+	/**
+	 * Opens the entry of the given key and checks the header.
+	 *
+	 * @param key
+	 * @return the stream positioned after the version or null if there is
+	 *  no valid entry.
+	 */
+	private DataInputStream open(String key)
+	{
+		File file = getFile(key);
+		if (!file.exists()) return null;
+
+		DataInputStream in = null;
+		try
+		{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			{
+				close(in);
+				return null;
+			}
+			return in;
+		} catch (IOException e)
+		{
+			close(in);
+			return null;
+		}
+	}
+
+	private File createTempFile() throws IOException
+	{
+		if (!directory.exists() && !directory.mkdirs())
+			throw new IOException("Unable to create directory \"" + directory + "\"");
+		return File.createTempFile("samples", ".tmp", directory);
+	}
+
+	/**
+	 * Moves the completely written temporary file to its final location, so
+	 * that concurrent readers never see partially written entries.
+	 *
+	 * @param tmp
+	 * @param key
+	 * @throws IOException
+	 */
+	private void commit(File tmp, String key) throws IOException
+	{
+		File file = getFile(key);
+		file.delete();
+		if (!tmp.renameTo(file))
+		{
+			tmp.delete();
+			throw new IOException("Unable to rename \"" + tmp + "\" to \"" + file + "\"");
+		}
+	}
+
+	private static void close(Closeable c)
+	{
+		if (c == null) return;
+		try
+		{
+			c.close();
+		} catch (IOException e)
+		{
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package ontologizer.statistics;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Draws the random samples for resampling based test corrections. The
+ * samples are distributed over a fork-join pool.
+ *
+ * Each sample is drawn with its own random source whose seed is derived
+ * from the executor's seed and the index of the sample. Hence, the
+ * sampled p values depend only on the seed and not on the number of
+ * threads or on the scheduling, i.e., a parallel run delivers exactly the
+ * same samples as a sequential run.
+ */
+public class ResamplingExecutor
+{
+	/** Below this number of samples a task is no longer split */
+	private static final int SAMPLES_PER_TASK = 4;
+
+	/**
+	 * Callback for the sampled p values.
+	 */
+	public static interface ISampleHandler
+	{
+		/**
+		 * Called whenever a new sample is available. Note that this may be
+		 * called concurrently from different threads, but never twice for
+		 * the same sample index. The arrays are reused for subsequent samples,
+		 * so their contents must be copied if they are needed after the call.
+		 *
+		 * @param sample the index of the sample (from 0 to the number of samples - 1)
+		 * @param randomP the p values of the sample
+		 * @param ignoreAtMTC the ignoreAtMTC flags of the p values of the sample
+		 */
+		void sampled(int sample, double [] randomP, boolean [] ignoreAtMTC);
+	}
+
+	/**
+	 * The state that is private to a worker thread.
+	 */
+	private static class Worker
+	{
+		public final Hypergeometric hyperg = new Hypergeometric();
+		public final double [] p;
+		public final boolean [] ignoreAtMTC;
+
+		public Worker(int numberOfPValues)
+		{
+			p = new double[numberOfPValues];
+			ignoreAtMTC = new boolean[numberOfPValues];
+		}
+	}
+
+	private final IPValueCalculation pvalues;
+	private final long seed;
+	private final int numberOfThreads;
+
+	private IResamplingProgress progress;
+	private int numberOfDoneSamples;
+
+	/** Each worker gets its own hypergeometric helper and result buffers */
+	private final ThreadLocal<Worker> worker = new ThreadLocal<Worker>()
+	{
+		@Override
+		protected Worker initialValue()
+		{
+			return new Worker(pvalues.getNumberOfPValues());
+		}
+	};
+
+	/**
+	 * Constructs the executor.
+	 *
+	 * @param pvalues the p value calculation that is used to get the random p values.
+	 * @param seed the seed from which the random sources of the samples are derived.
+	 * @param numberOfThreads the number of threads that should be used. If 1, all samples
+	 *  are drawn within the calling thread.
+	 */
+	public ResamplingExecutor(IPValueCalculation pvalues, long seed, int numberOfThreads)
+	{
+		this.pvalues = pvalues;
+		this.seed = seed;
+		this.numberOfThreads = Math.max(1, numberOfThreads);
+	}
+
+	/**
+	 * Sets the progress instance that is notified about the number of finished
+	 * samples.
+	 *
+	 * @param progress
+	 */
+	public void setProgress(IResamplingProgress progress)
+	{
+		this.progress = progress;
+	}
+
+	/**
+	 * Returns the random source for the given sample.
+	 *
+	 * @param seed the global seed
+	 * @param sample the index of the sample
+	 * @return the random source of the sample
+	 */
+	public static Random createRandom(long seed, int sample)
+	{
+		/* Mixing function of SplitMix64 so that the seeds of neighbored samples are unrelated */
+		long z = seed + (sample + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return new Random(z ^ (z >>> 31));
+	}
+
+	/**
+	 * Draws the given number of samples and passes them to the handler.
+	 *
+	 * @param numberOfSamples the number of samples to draw.
+	 * @param handler the handler that receives the samples.
+	 */
+	public void run(int numberOfSamples, ISampleHandler handler)
+	{
+		numberOfDoneSamples = 0;
+
+		if (progress != null)
+			progress.init(numberOfSamples);
+
+		if (numberOfThreads == 1 || numberOfSamples <= SAMPLES_PER_TASK)
+		{
+			sample(0, numberOfSamples, handler);
+			return;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+		try
+		{
+			pool.invoke(new SampleTask(0, numberOfSamples, handler));
+		} finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Draw the samples within the given range.
+	 *
+	 * @param from the first sample (inclusive)
+	 * @param to the last sample (exclusive)
+	 * @param handler the handler that receives the samples.
+	 */
+	private void sample(int from, int to, ISampleHandler handler)
+	{
+		Worker w = worker.get();
+
+		for (int b = from; b < to; b++)
+		{
+			pvalues.calculateRandomPValues(createRandom(seed, b), w.hyperg, w.p, w.ignoreAtMTC);
+			handler.sampled(b, w.p, w.ignoreAtMTC);
+			updateProgress();
+		}
+	}
+
+	private synchronized void updateProgress()
+	{
+		numberOfDoneSamples++;
+
+		if (progress != null)
+			progress.update(numberOfDoneSamples);
+	}
+
+	/**
+	 * The task that splits the sample range until it is small enough.
+	 */
+	@SuppressWarnings("serial")
+	private class SampleTask extends RecursiveAction
+	{
+		private final int from;
+		private final int to;
+		private final ISampleHandler handler;
+
+		public SampleTask(int from, int to, ISampleHandler handler)
+		{
+			this.from = from;
+			this.to = to;
+			this.handler = handler;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from <= SAMPLES_PER_TASK)
+			{
+				sample(from, to, handler);
+				return;
+			}
+
+			int mid = (from + to) >>> 1;
+			invokeAll(new SampleTask(from, mid, handler), new SampleTask(mid, to, handler));
+		}
+	}
+}
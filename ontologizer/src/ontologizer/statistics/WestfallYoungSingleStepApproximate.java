@@ -83,34 +83,38 @@ public class WestfallYoungSingleStepApproximate extends AbstractResamplingTestCo
 		double ratioCutoff = 1 + 0.01 * sizeTolerance;
 
 
+		double [] cachedMinP;
+
 		if (bestStudysetSize != 0 && bestStudysetRatio <= ratioCutoff) {  // use approximate samples
 			System.out.println("Needing samples for study set size " + studySetSize);
 			System.out.println("Using available samples made for study set size " + bestStudysetSize);
 			sampledMinP = sampledMinPPerSize.get(bestStudysetSize);
+		} else if ((cachedMinP = loadCachedArray(pvalues, studySetSize)) != null) {
+			System.out.println("Using cached samples for study set size " + studySetSize);
+			sampledMinP = cachedMinP;
+			sampledMinPPerSize.put(studySetSize,sampledMinP);
 		} else {        // we have to sample
 			System.out.println("Sampling for study set size " + studySetSize + "\nThis may take a while...");
 
-			initProgress(numberOfResamplingSteps);
-
-			for (int b=0; b < numberOfResamplingSteps; b++) {
-				/* create random sample */
-				PValue [] randomRawP = pvalues.calculateRandomPValues(null);
-
-				if (randomRawP.length > 0)
+			final double [] newSampledMinP = sampledMinP;
+			sample(pvalues, numberOfResamplingSteps, new ResamplingExecutor.ISampleHandler()
+			{
+				public void sampled(int b, double [] randomRawP, boolean [] ignoreAtMTC)
 				{
-					/* determine minimal p-value in sample */
-					double minP = randomRawP[0].p;
-					for (i=1; i < randomRawP.length; i++) {
-						minP = Math.min(minP,randomRawP[i].p);
+					if (randomRawP.length > 0)
+					{
+						/* determine minimal p-value in sample */
+						double minP = randomRawP[0];
+						for (int j=1; j < randomRawP.length; j++) {
+							minP = Math.min(minP,randomRawP[j]);
+						}
+						newSampledMinP[b] = minP;
 					}
-					sampledMinP[b] = minP;
 				}
-
-				updateProgress(b);
-				System.out.print("created " + b + " samples out of " + numberOfResamplingSteps + "\r");
-			}
+			});
 			/* sort sampled minimal p-values according to size */
 			Arrays.sort(sampledMinP);
+			saveCachedArray(pvalues, studySetSize, sampledMinP);
 
 			sampledMinPPerSize.put(studySetSize,sampledMinP);
 		}
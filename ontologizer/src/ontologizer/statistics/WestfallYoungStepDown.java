@@ -2,11 +2,12 @@ package ontologizer.statistics;
 
 import java.util.Arrays;
 
-public class WestfallYoungStepDown extends AbstractTestCorrection
-						   implements IResampling
+public class WestfallYoungStepDown extends AbstractResamplingTestCorrection
 {
-	/** Specifies the number of resampling steps */
-	private int numberOfResamplingSteps = 1000;
+	public WestfallYoungStepDown()
+	{
+		numberOfResamplingSteps = 1000;
+	}
 
 	public String getDescription()
 	{
@@ -45,14 +46,13 @@ public class WestfallYoungStepDown extends AbstractTestCorrection
 		int i;
 
 		/* Calculate raw P-values */
-		PValue [] rawP = pvalues.calculateRawPValues(null);
+		final PValue [] rawP = pvalues.calculateRawPValues(null);
 
-		double [] q = new double[rawP.length];
-		int [] count = new int[rawP.length];
+		final int [] count = new int[rawP.length];
 
 		/* Sort the raw P-values and remember their original index */
-		int m = rawP.length;
-		int r[] = new int[m];
+		final int m = rawP.length;
+		final int r[] = new int[m];
 		Entry [] sortedRawPValues = new Entry[m];
 
 		for (i=0;i<m;i++)
@@ -69,27 +69,31 @@ public class WestfallYoungStepDown extends AbstractTestCorrection
 
 		/* Now "permute" */
 		System.out.println("Sampling " + numberOfResamplingSteps + " random study sets\nThis may take a while...");
-		for (int b=0; b < numberOfResamplingSteps; b++)
+		sample(pvalues, numberOfResamplingSteps, new ResamplingExecutor.ISampleHandler()
 		{
-			/* Compute raw p values of "permuted" data */
-			PValue [] randomRawP = pvalues.calculateRandomPValues(null);
-
-			assert(randomRawP.length == rawP.length);
-
-			/* Compute the successive minima of raw p values */
-			q[m-1] = randomRawP[r[m-1]].p;
-			for (i=m-2;i>=0;i--)
-				q[i] = Math.min(q[i+1],randomRawP[r[i]].p);
-
-			/* Count up */
-			for (i=0;i<m;i++)
+			public void sampled(int b, double [] randomRawP, boolean [] ignoreAtMTC)
 			{
-				if (q[i] <= rawP[r[i]].p) // = sortedRawPValues[i].value
-					count[i]++;
+				assert(randomRawP.length == rawP.length);
+
+				if (m == 0) return;
+
+				/* Compute the successive minima of raw p values */
+				double [] q = new double[m];
+				q[m-1] = randomRawP[r[m-1]];
+				for (int j=m-2;j>=0;j--)
+					q[j] = Math.min(q[j+1],randomRawP[r[j]]);
+
+				/* Count up */
+				synchronized (count)
+				{
+					for (int j=0;j<m;j++)
+					{
+						if (q[j] <= rawP[r[j]].p) // = sortedRawPValues[j].value
+							count[j]++;
+					}
+				}
 			}
-
-			System.out.print(b + "\r");
-		}
+		});
 		System.out.println("Done!");
 
 		/* Enforce monotony contraints */
@@ -105,16 +109,6 @@ public class WestfallYoungStepDown extends AbstractTestCorrection
 		return rawP;
 	}
 
-	public void setNumberOfResamplingSteps(int n)
-	{
-		numberOfResamplingSteps = n;
-	}
-
-	public int getNumberOfResamplingSteps()
-	{
-		return numberOfResamplingSteps;
-	}
-
 	public void resetCache()
 	{
 		// no cache here, nothing to do
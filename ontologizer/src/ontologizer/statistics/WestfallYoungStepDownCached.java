@@ -3,14 +3,15 @@ package ontologizer.statistics;
 import java.util.Arrays;
 import java.util.HashMap;
 
-public class WestfallYoungStepDownCached extends AbstractTestCorrection
-						   implements IResampling
+public class WestfallYoungStepDownCached extends AbstractResamplingTestCorrection
 {
-	/** Specifies the number of resampling steps */
-	private int numberOfResamplingSteps = 1000;
-
 	private HashMap<Integer,PvalueSetStore> sampledPValuesPerSize = new HashMap<Integer,PvalueSetStore>();
 
+	public WestfallYoungStepDownCached()
+	{
+		numberOfResamplingSteps = 1000;
+	}
+
 	public String getDescription()
 	{
 		// TODO Auto-generated method stub
@@ -78,28 +79,31 @@ public class WestfallYoungStepDownCached extends AbstractTestCorrection
 		if (sampledPValuesPerSize.containsKey(studySetSize)) {
 			System.out.println("Using available samples for study set size " + studySetSize);
 			randomSampledPValues = sampledPValuesPerSize.get(studySetSize);
+		} else if ((randomSampledPValues = loadCachedStore(pvalueCalc, studySetSize)) != null) {
+			System.out.println("Using cached samples for study set size " + studySetSize);
+			sampledPValuesPerSize.put(studySetSize,randomSampledPValues);
 		} else {
 			System.out.println("Sampling for study set size " + studySetSize + "\nThis may take a while...");
-			randomSampledPValues = new PvalueSetStore(numberOfResamplingSteps,m);
-			for (int b=0; b < numberOfResamplingSteps; b++) {
-				/* Compute raw p values of "permuted" data */
-				randomSampledPValues.add(pvalueCalc.calculateRandomPValues(null));
-
-				System.out.print("created " + b + " samples out of " + numberOfResamplingSteps + "\r");
-			}
+			final PvalueSetStore store = createPvalueSetStore(m);
+			sample(pvalueCalc, numberOfResamplingSteps, new ResamplingExecutor.ISampleHandler()
+			{
+				public void sampled(int b, double [] randomRawP, boolean [] ignoreAtMTC)
+				{
+					store.set(b, randomRawP, ignoreAtMTC);
+				}
+			});
+			randomSampledPValues = store;
 			sampledPValuesPerSize.put(studySetSize,randomSampledPValues);
+			saveCachedStore(pvalueCalc, studySetSize, store);
 		}
 
 		/* Now "permute" */
-		for (PValue [] randomRawP : randomSampledPValues)
+		for (double [] randomRawP : randomSampledPValues.rows())
 		{
-			/* Compute raw p values of "permuted" data */
-//			PValue [] randomRawP = randomSampledPValues[b];
-
 			/* Compute the successive minima of raw p values */
-			q[m-1] = randomRawP[r[m-1]].p;
+			q[m-1] = randomRawP[r[m-1]];
 			for (i=m-2;i>=0;i--)
-				q[i] = Math.min(q[i+1],randomRawP[r[i]].p);
+				q[i] = Math.min(q[i+1],randomRawP[r[i]]);
 
 			/* Count up */
 			for (i=0;i<m;i++)
@@ -129,17 +133,13 @@ public class WestfallYoungStepDownCached extends AbstractTestCorrection
 			numberOfResamplingSteps = n;
 
 			/* Clear the cache */
-			sampledPValuesPerSize = new HashMap<Integer,PvalueSetStore>();
+			resetCache();
 		}
 	}
 
-	public int getNumberOfResamplingSteps()
-	{
-		return numberOfResamplingSteps;
-	}
-
 	public void resetCache()
 	{
+		releasePvalueSetStores(sampledPValuesPerSize.values());
 		sampledPValuesPerSize = new HashMap<Integer,PvalueSetStore>();
 	}
 
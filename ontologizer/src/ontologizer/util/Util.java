@@ -278,6 +278,51 @@ public final class Util
 		return commonInts(a, bAll);
 	}
 
+	/**
+	 * Sets the bits of the given ints in the bitset. All other bits are
+	 * cleared.
+	 *
+	 * @param bits the bitset. Must be large enough to hold all ints.
+	 * @param a the ints whose bits shall be set.
+	 */
+	public static void toBits(long [] bits, int [] a)
+	{
+		Arrays.fill(bits, 0);
+		for (int i : a)
+			bits[i >>> 6] |= 1L << i;
+	}
+
+	/**
+	 * Returns a bitset in which the bits of the given ints are set.
+	 *
+	 * @param a the ints whose bits shall be set.
+	 * @param n the number of bits of the bitset. All ints must be smaller.
+	 * @return the bitset.
+	 */
+	public static long [] toBits(int [] a, int n)
+	{
+		long [] bits = new long[(n + 63) >>> 6];
+		toBits(bits, a);
+		return bits;
+	}
+
+	/**
+	 * Determine the number of bits that are set in both of the given bitsets,
+	 * i.e., the cardinality of the intersection.
+	 *
+	 * @param a bitset number one
+	 * @param b bitset number two
+	 * @return number of bits that are common.
+	 */
+	public static int commonBits(long [] a, long [] b)
+	{
+		int numCommon = 0;
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++)
+			numCommon += Long.bitCount(a[i] & b[i]);
+		return numCommon;
+	}
+
 	public static class CommonIntSet
 	{
 		public int numberOfCommonInts;
@@ -0,0 +1,117 @@
+package ontologizer.util;
+
+import java.util.Random;
+
+/**
+ * A fast random source based on the xoroshiro128** generator of Blackman
+ * and Vigna. Unlike {@link java.util.Random}, instances don't synchronize
+ * and don't update an atomic seed on every call, hence each instance must
+ * be confined to a single thread. Independent generators for other threads
+ * can be derived reproducibly via {@link #split()}.
+ *
+ * As the class extends {@link java.util.Random}, it can be passed to
+ * every place that accepts a random source. Note that the inherited
+ * {@link #nextGaussian()} is still synchronized.
+ */
+public class Xoroshiro128Random extends Random
+{
+	private static final long serialVersionUID = 1L;
+
+	/** The increment of the SplitMix64 generator */
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private long s0;
+	private long s1;
+
+	/**
+	 * Constructs a generator with a random seed.
+	 */
+	public Xoroshiro128Random()
+	{
+		this(new Random().nextLong());
+	}
+
+	/**
+	 * Constructs a generator with the given seed. Generators constructed
+	 * with the same seed produce the same sequence.
+	 *
+	 * @param seed
+	 */
+	public Xoroshiro128Random(long seed)
+	{
+		/* Calls setSeed() */
+		super(seed);
+	}
+
+	/**
+	 * Mixing function of SplitMix64. It is a bijection that maps
+	 * neighbored values to unrelated ones.
+	 *
+	 * @param z the value to mix
+	 * @return the mixed value
+	 */
+	public static long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	@Override
+	public void setSeed(long seed)
+	{
+		/* Expand the seed by SplitMix64, the state is then never all zero */
+		s0 = mix(seed + GOLDEN_GAMMA);
+		s1 = mix(seed + 2 * GOLDEN_GAMMA);
+	}
+
+	/**
+	 * Returns a new generator whose seed is derived from the next value of
+	 * this generator. The sequence of the new generator is unrelated to the
+	 * one of this generator. Splitting generators in the same order
+	 * yields the same generators.
+	 *
+	 * @return the new generator
+	 */
+	public Xoroshiro128Random split()
+	{
+		return new Xoroshiro128Random(mix(nextLong()));
+	}
+
+	@Override
+	protected int next(int bits)
+	{
+		return (int)(nextLong() >>> (64 - bits));
+	}
+
+	@Override
+	public long nextLong()
+	{
+		long s0 = this.s0;
+		long s1 = this.s1;
+		long result = Long.rotateLeft(s0 * 5, 7) * 9;
+
+		s1 ^= s0;
+		this.s0 = Long.rotateLeft(s0, 24) ^ s1 ^ (s1 << 16);
+		this.s1 = Long.rotateLeft(s1, 37);
+		return result;
+	}
+
+	@Override
+	public int nextInt()
+	{
+		return (int)(nextLong() >>> 32);
+	}
+
+	@Override
+	public double nextDouble()
+	{
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	@Override
+	public boolean nextBoolean()
+	{
+		return nextLong() < 0;
+	}
+}